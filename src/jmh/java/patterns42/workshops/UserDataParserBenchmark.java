@@ -0,0 +1,51 @@
+package patterns42.workshops;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attendee list upload - the TSV export of the ticketing system, one attendee per line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UserDataParserBenchmark {
+
+    @Param({"1000", "100000"})
+    int attendees;
+
+    private final UserDataParser parser = new UserDataParser();
+    private String tsv;
+
+    @Setup
+    public void setup() {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < attendees; i++) {
+            lines.append("Uczestnik Zażółć ").append(i).append('\t')
+                    .append(Integer.toHexString(i * 31 + 0x1000000)).append('\n');
+        }
+        tsv = lines.toString();
+    }
+
+    @Benchmark
+    public List<User> parse() {
+        return parser.parse(tsv);
+    }
+
+    @Benchmark
+    public long stream() {
+        return parser.stream(new BufferedReader(new StringReader(tsv))).count();
+    }
+}
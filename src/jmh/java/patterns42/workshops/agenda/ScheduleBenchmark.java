@@ -0,0 +1,57 @@
+package patterns42.workshops.agenda;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.agenda.model.ScheduleDay;
+import patterns42.workshops.agenda.model.Session;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the bundled agenda and walking it - done on startup and on every agenda reload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScheduleBenchmark {
+
+    private ScheduleParser parser;
+    private Schedule schedule;
+    private ScheduleDay registrationDay;
+
+    @Setup
+    public void setup() {
+        URL bundled = ScheduleBenchmark.class.getResource("/session-data/schedule.yml");
+        parser = new ScheduleParser(bundled);
+        schedule = parser.schedule();
+        registrationDay = schedule.getDays().get(1);
+    }
+
+    @Benchmark
+    public Schedule parse() {
+        return parser.schedule();
+    }
+
+    @Benchmark
+    public List<Session> scheduleAllSessions() {
+        return schedule.getAllSessions();
+    }
+
+    @Benchmark
+    public List<Session> dayAllSessions() {
+        return registrationDay.getAllSessions();
+    }
+
+    @Benchmark
+    public ScheduleIndex index() {
+        return ScheduleIndex.of(schedule);
+    }
+}
@@ -0,0 +1,51 @@
+package patterns42.workshops.export;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import patterns42.workshops.dao.SessionsDao.RegistrationDto;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of {@code /admin/registrations} - rows are already fetched, output goes nowhere.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RegistrationsExportBenchmark {
+
+    @Param({"SPLIT", "CSV", "NDJSON"})
+    RegistrationsExport.Format format;
+
+    private final List<RegistrationDto> rows = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        LocalDateTime date = LocalDateTime.of(2020, 3, 2, 9, 0);
+        for (int i = 0; i < 10_000; i++) {
+            rows.add(new RegistrationDto(Integer.toHexString(i * 31 + 0x1000000),
+                    i % 3 == 0 ? "Event Storming: od idei do kodu w 5 godzin" : "Jigsaw. Moduły w (nowej) Javie",
+                    date.plusSeconds(i)));
+        }
+    }
+
+    @Benchmark
+    public void export() throws IOException {
+        RegistrationsExport export = new RegistrationsExport(format, Writer.nullWriter());
+        for (RegistrationDto row : rows) {
+            export.write(row);
+        }
+        export.finish();
+    }
+}
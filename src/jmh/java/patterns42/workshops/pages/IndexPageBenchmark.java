@@ -0,0 +1,55 @@
+package patterns42.workshops.pages;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import patterns42.workshops.agenda.ScheduleParser;
+import patterns42.workshops.agenda.model.ScheduleDay;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * The attendee page: full Jtwig rendering of {@code index.twig} against the precompiled {@link IndexPage},
+ * both merging the workshops with current popularity counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IndexPageBenchmark {
+
+    private final User user = new User("Zoë Uczestniczka", "3f2a9c");
+    private IndexPage page;
+    private List<String> previous;
+    private ToIntFunction<String> taken;
+
+    @Setup
+    public void setup() {
+        ScheduleDay day = new ScheduleParser(IndexPageBenchmark.class.getResource("/session-data/schedule.yml"))
+                .schedule().getDays().get(1);
+        page = new IndexPage(List.of(day));
+
+        Map<String, Integer> counts = new HashMap<>();
+        day.getAllSessions().forEach(session -> counts.put(session.getTitle(), session.getTitle().length() % 17));
+        taken = title -> counts.getOrDefault(title, 0);
+        previous = List.of(day.getAllSessions().get(0).getTitle());
+    }
+
+    @Benchmark
+    public String jtwig() {
+        return page.renderTemplate(user, false, previous, List.of(), taken);
+    }
+
+    @Benchmark
+    public byte[] precompiled() {
+        return page.render(user, false, previous, List.of(), taken);
+    }
+}
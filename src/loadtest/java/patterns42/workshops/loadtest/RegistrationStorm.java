@@ -0,0 +1,331 @@
+package patterns42.workshops.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.Application;
+import patterns42.workshops.UserDataParser;
+import patterns42.workshops.agenda.ScheduleIndex;
+import patterns42.workshops.agenda.ScheduleParser;
+import patterns42.workshops.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registration storm against an in-process {@link Application}: imports synthetic attendees through
+ * {@code /admin/userdata}, then keeps {@code users} clients busy with a mix of attendee page views, submissions
+ * and {@code /stats} for {@code duration}. Reports throughput and latency per route, overbooked workshops
+ * and database activity, and writes the same as JSON for comparing runs.
+ * <p>
+ * Uses the database in {@code JDBC_DATABASE_URL} or starts an embedded Postgres. Settings are system properties:
+ * {@code attendees}, {@code users}, {@code duration} (seconds), {@code mix} (e.g. {@code get=60,post=30,stats=10})
+ * and {@code result}; application settings (ADMISSION_LIMIT, SEAT_LEDGER, ...) come from the environment.
+ */
+@Slf4j
+public class RegistrationStorm {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    enum Route {GET, POST, STATS}
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final String baseUrl;
+    private final String authorization;
+    private final List<String> hashes = new ArrayList<>();
+    private final Map<Route, LatencyHistogram> latencies = new EnumMap<>(Route.class);
+    private final Map<Route, Map<Integer, LongAdder>> statuses = new EnumMap<>(Route.class);
+    private List<String> morning;
+    private List<String> afternoon;
+
+    RegistrationStorm(String baseUrl, String authorization) {
+        this.baseUrl = baseUrl;
+        this.authorization = authorization;
+        for (Route route : Route.values()) {
+            latencies.put(route, new LatencyHistogram());
+            statuses.put(route, new ConcurrentHashMap<>());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int attendees = Integer.getInteger("attendees", 1000);
+        int users = Integer.getInteger("users", 100);
+        Duration duration = Duration.ofSeconds(Integer.getInteger("duration", 30));
+        Map<Route, Integer> mix = mix(System.getProperty("mix", "get=60,post=30,stats=10"));
+        Path result = Path.of(System.getProperty("result", "target/loadtest-result.json"));
+
+        EmbeddedPostgres embedded = null;
+        String jdbcUrl = Optional.ofNullable(System.getProperty("JDBC_DATABASE_URL"))
+                .orElse(System.getenv("JDBC_DATABASE_URL"));
+        if (jdbcUrl == null) {
+            embedded = EmbeddedPostgres.builder().start();
+            jdbcUrl = embedded.getJdbcUrl("postgres", "postgres");
+        }
+
+        int port = freePort();
+        String password = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        URL agenda = RegistrationStorm.class.getResource("/session-data/schedule.yml");
+        System.setProperty("JDBC_DATABASE_URL", jdbcUrl);
+        System.setProperty("PORT", String.valueOf(port));
+        System.setProperty("USERNAME", "loadtest");
+        System.setProperty("PASSWORD", password);
+        System.setProperty("SCHEDULE_SNAPSHOT", Files.createTempFile("loadtest-schedule", ".bin").toString());
+        System.setProperty("AGENDA_URL", Optional.ofNullable(System.getProperty("AGENDA_URL")).orElse(agenda.toString()));
+
+        Application.main(new String[0]);
+
+        RegistrationStorm storm = new RegistrationStorm("http://localhost:" + port,
+                "Basic " + Base64.getEncoder().encodeToString(("loadtest:" + password).getBytes(StandardCharsets.UTF_8)));
+        storm.awaitReady(Duration.ofSeconds(60));
+        storm.importAttendees(attendees);
+        storm.loadAgenda(new ScheduleParser(new URL(System.getProperty("AGENDA_URL"))));
+
+        Map<String, Long> before = databaseActivity(jdbcUrl);
+        long elapsed = storm.run(users, duration, mix);
+        //statistics collector publishes with a delay
+        Thread.sleep(1000);
+        Map<String, Long> after = databaseActivity(jdbcUrl);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("attendees", attendees);
+        report.put("users", users);
+        report.put("seconds", elapsed / 1e9);
+        report.put("routes", storm.routes(elapsed));
+        List<Map<String, Object>> overbooked = overbooked(jdbcUrl);
+        report.put("overbooked", overbooked);
+        Map<String, Long> database = new LinkedHashMap<>();
+        after.forEach((key, value) -> database.put(key, value - before.getOrDefault(key, 0L)));
+        report.put("database", database);
+
+        Files.createDirectories(result.toAbsolutePath().getParent());
+        MAPPER.writeValue(result.toFile(), report);
+        System.out.println(MAPPER.writeValueAsString(report));
+        System.out.println("Report saved to " + result.toAbsolutePath());
+
+        if (embedded != null) {
+            embedded.close();
+        }
+        System.exit(overbooked.isEmpty() ? 0 : 1);
+    }
+
+    private void awaitReady(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            try {
+                if (send(HttpRequest.newBuilder(URI.create(baseUrl + "/stats")).build()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                //not listening yet
+            }
+            Thread.sleep(200);
+        }
+        throw new IllegalStateException("Application not ready within " + timeout);
+    }
+
+    private void importAttendees(int count) throws IOException, InterruptedException {
+        StringBuilder tsv = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            String hash = String.format("lt%08x", i * 2654435761L & 0xffffffffL);
+            hashes.add(hash);
+            tsv.append("Uczestnik ").append(i).append('\t').append(hash).append('\n');
+        }
+        HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(baseUrl + "/admin/userdata"))
+                .header("Authorization", authorization)
+                .POST(HttpRequest.BodyPublishers.ofString(tsv.toString()))
+                .build());
+        if (response.statusCode() != 201) {
+            throw new IllegalStateException("Attendee import failed: " + response.statusCode() + " " + response.body());
+        }
+        System.out.println("Attendees imported: " + response.body());
+    }
+
+    private void loadAgenda(ScheduleParser parser) {
+        ScheduleIndex index = ScheduleIndex.of(parser.schedule());
+        morning = index.workshopsAt(2);
+        afternoon = index.workshopsAt(4);
+    }
+
+    /**
+     * @return nanos the storm actually took
+     */
+    long run(int users, Duration duration, Map<Route, Integer> mix) throws InterruptedException {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        ExecutorService clients = Executors.newFixedThreadPool(users);
+        long started = System.nanoTime();
+        long deadline = started + duration.toNanos();
+        for (int i = 0; i < users; i++) {
+            clients.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    int pick = random.nextInt(total);
+                    Route route = Route.STATS;
+                    for (Map.Entry<Route, Integer> weight : mix.entrySet()) {
+                        if (pick < weight.getValue()) {
+                            route = weight.getKey();
+                            break;
+                        }
+                        pick -= weight.getValue();
+                    }
+                    call(route, hashes.get(random.nextInt(hashes.size())), random);
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(duration.toSeconds() + 60, TimeUnit.SECONDS);
+        return System.nanoTime() - started;
+    }
+
+    private void call(Route route, String hash, ThreadLocalRandom random) {
+        HttpRequest.Builder request;
+        switch (route) {
+            case GET:
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/" + hash));
+                break;
+            case POST:
+                String form = "session-2=" + encode(morning.get(random.nextInt(morning.size())))
+                        + "&session-4=" + encode(afternoon.get(random.nextInt(afternoon.size())));
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/" + hash))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString(form));
+                break;
+            default:
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/stats"));
+        }
+        long start = System.nanoTime();
+        int status;
+        try {
+            status = send(request.timeout(Duration.ofSeconds(30)).build()).statusCode();
+        } catch (IOException e) {
+            status = -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        latencies.get(route).recordNanos(System.nanoTime() - start);
+        statuses.get(route).computeIfAbsent(status, s -> new LongAdder()).increment();
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private Map<String, Object> routes(long elapsedNanos) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        latencies.forEach((route, histogram) -> {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("requests", histogram.getCount());
+            summary.put("perSecond", histogram.getCount() / (elapsedNanos / 1e9));
+            summary.put("p50Micros", histogram.valueAtPercentile(50));
+            summary.put("p99Micros", histogram.valueAtPercentile(99));
+            summary.put("p999Micros", histogram.valueAtPercentile(99.9));
+            summary.put("maxMicros", histogram.valueAtPercentile(100));
+            Map<String, Long> codes = new LinkedHashMap<>();
+            statuses.get(route).forEach((status, count) -> codes.put(status < 0 ? "error" : status.toString(), count.sum()));
+            summary.put("statuses", codes);
+            result.put(route.name(), summary);
+        });
+        return result;
+    }
+
+    /**
+     * Workshops with more attendees than seats - must always be empty. The test account never takes a seat.
+     */
+    private static List<Map<String, Object>> overbooked(String jdbcUrl) throws SQLException {
+        List<Map<String, Object>> result = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection(jdbcUrl);
+             Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery(
+                     "select c.title, c.seats, count(distinct s.hash) as registered " +
+                             "from seat_counters c join current_sessions s on s.title = c.title " +
+                             "where s.hash <> '" + UserDataParser.TEST_USER.getHash() + "' " +
+                             "group by c.title, c.seats having count(distinct s.hash) > c.seats")) {
+            while (rows.next()) {
+                Map<String, Object> workshop = new LinkedHashMap<>();
+                workshop.put("title", rows.getString("title"));
+                workshop.put("seats", rows.getInt("seats"));
+                workshop.put("registered", rows.getInt("registered"));
+                result.add(workshop);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Cumulative counters of the database - the report shows their growth during the storm.
+     */
+    private static Map<String, Long> databaseActivity(String jdbcUrl) throws SQLException {
+        Map<String, Long> result = new LinkedHashMap<>();
+        try (Connection connection = DriverManager.getConnection(jdbcUrl);
+             Statement statement = connection.createStatement()) {
+            try (ResultSet rows = statement.executeQuery(
+                    "select xact_commit, xact_rollback, tup_returned, tup_fetched, tup_inserted, tup_updated " +
+                            "from pg_stat_database where datname = current_database()")) {
+                rows.next();
+                for (String column : List.of("xact_commit", "xact_rollback", "tup_returned", "tup_fetched",
+                        "tup_inserted", "tup_updated")) {
+                    result.put(column, rows.getLong(column));
+                }
+            }
+            try (ResultSet rows = statement.executeQuery(
+                    "select coalesce(sum(seq_scan), 0) as seq_scan, coalesce(sum(idx_scan), 0) as idx_scan " +
+                            "from pg_stat_user_tables")) {
+                rows.next();
+                result.put("seq_scan", rows.getLong("seq_scan"));
+                result.put("idx_scan", rows.getLong("idx_scan"));
+            }
+        }
+        return result;
+    }
+
+    static Map<Route, Integer> mix(String mix) {
+        Map<Route, Integer> result = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] weight = part.split("=");
+            result.put(Route.valueOf(weight[0].trim().toUpperCase()), Integer.valueOf(weight[1].trim()));
+        }
+        return result;
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -4,105 +4,563 @@ import io.javalin.BadRequestResponse;
 import io.javalin.Context;
 import io.javalin.ForbiddenResponse;
 import io.javalin.Handler;
+import io.javalin.HttpResponseException;
 import io.javalin.Javalin;
+import io.javalin.NotFoundResponse;
+import io.javalin.json.JavalinJson;
+import io.javalin.ServiceUnavailableResponse;
 import io.javalin.UnauthorizedResponse;
 import io.javalin.security.Role;
-import lombok.Builder;
+import io.javalin.serversentevent.SseClient;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.JdbiException;
 import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import patterns42.workshops.admission.WaitingRoom;
+import patterns42.workshops.agenda.ScheduleIndex;
 import patterns42.workshops.agenda.ScheduleParser;
+import patterns42.workshops.agenda.ScheduleRefresher;
+import patterns42.workshops.agenda.ScheduleSnapshot;
 import patterns42.workshops.agenda.model.Schedule;
-import patterns42.workshops.agenda.model.Session;
+import patterns42.workshops.attendees.AttendeeDirectory;
+import patterns42.workshops.attendees.AttendeeImport;
 import patterns42.workshops.auth.AdminAuthenticationDetails;
+import patterns42.workshops.dao.ChangeFeed;
+import patterns42.workshops.dao.ConnectionPool;
+import patterns42.workshops.dao.DaoTimers;
+import patterns42.workshops.dao.DatabaseBusyException;
+import patterns42.workshops.dao.DatabaseExecutor;
+import patterns42.workshops.dao.PoolMetrics;
+import patterns42.workshops.dao.PostgresStorage;
+import patterns42.workshops.dao.RegistrationWriter;
+import patterns42.workshops.dao.SchemaMigrations;
+import patterns42.workshops.dao.SeatsUnavailableException;
 import patterns42.workshops.dao.SessionsDao;
+import patterns42.workshops.dao.StatementTimings;
+import patterns42.workshops.dao.Storage;
 import patterns42.workshops.dao.UsersDao;
-
-import java.net.MalformedURLException;
-import java.time.format.DateTimeFormatter;
+import patterns42.workshops.dao.embedded.EmbeddedStorage;
+import patterns42.workshops.export.RegistrationsExport;
+import patterns42.workshops.metrics.LatencyHistogram;
+import patterns42.workshops.metrics.Metrics;
+import patterns42.workshops.metrics.RouteTimers;
+import patterns42.workshops.pages.IndexPage;
+import patterns42.workshops.seats.DatabaseSeatReservations;
+import patterns42.workshops.seats.LedgerSeatReservations;
+import patterns42.workshops.seats.SeatLedger;
+import patterns42.workshops.seats.SeatReservations;
+import patterns42.workshops.stats.PopularityView;
+import patterns42.workshops.stats.SeatAvailabilityStream;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.function.Predicate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import static java.lang.System.getenv;
 import static java.util.Optional.ofNullable;
 
+/**
+ * Boots in parallel: the HTTP server binds its port first and answers 503 until everything else is ready,
+ * while the agenda and the database are prepared concurrently under {@code STARTUP_DEADLINE_SECONDS}.
+ */
+@Slf4j
 public class Application {
 
     private final int port;
-    private final Controllers controllers;
-
-    public static void main(String[] args) throws MalformedURLException {
-        Integer port = ofNullable(getenv("PORT"))
-                .filter(s -> s.matches("\\d+"))
-                .map(Integer::valueOf)
-                .orElse(8080);
+    private final Metrics metrics;
+    private volatile Controllers controllers;
+    private volatile Javalin http;
+
+    public static void main(String[] args) {
+        long started = System.nanoTime();
+        Integer port = intFromEnv("PORT", 8080);
+        Duration deadline = Duration.ofSeconds(intFromEnv("STARTUP_DEADLINE_SECONDS", 45));
+        ExecutorService startup = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Metrics metrics = new Metrics();
+        StatementTimings statements = new StatementTimings(StatementTimings.Settings.builder()
+                .threshold(Duration.ofMillis(intFromEnv("SLOW_QUERY_MS", 200)))
+                .samples(intFromEnv("SLOW_QUERY_SAMPLES", 20))
+                .build(), metrics);
+        Application application = new Application(port, metrics);
+        CompletableFuture<Void> http = CompletableFuture.runAsync(() -> timed("http server", application::run), startup);
+
+        //the http server is up (or coming up) and would keep the JVM alive answering 503 - any failure ends it
+        try {
+            boot(application, http, started, deadline, startup, metrics, statements);
+        } catch (TimeoutException e) {
+            log.error("Startup did not finish within {}s", deadline.getSeconds());
+            application.stop();
+            System.exit(1);
+        } catch (ExecutionException e) {
+            log.error("Startup failed", e.getCause());
+            application.stop();
+            System.exit(1);
+        } catch (Throwable e) {
+            log.error("Startup failed", e);
+            application.stop();
+            System.exit(1);
+        }
+    }
 
+    private static void boot(Application application, CompletableFuture<Void> http, long started, Duration deadline,
+                             ExecutorService startup, Metrics metrics, StatementTimings statements)
+            throws Exception {
         AdminAuthenticationDetails auth = new AdminAuthenticationDetails(ofNullable(getenv("USERNAME")),
                 ofNullable(getenv("PASSWORD")));
 
         ScheduleParser parser = new ScheduleParser(ofNullable(getenv("AGENDA_URL")));
+        ScheduleSnapshot snapshot = new ScheduleSnapshot(Path.of(ofNullable(getenv("SCHEDULE_SNAPSHOT"))
+                .orElse(System.getProperty("java.io.tmpdir") + "/workshops-schedule.bin")));
+        Duration agendaTimeout = Duration.ofSeconds(intFromEnv("AGENDA_STARTUP_TIMEOUT_SECONDS", 5));
+        CompletableFuture<StartupSchedule> schedule = CompletableFuture.supplyAsync(
+                () -> timed("schedule", () -> startupSchedule(parser, snapshot, agendaTimeout, startup)), startup);
+
+        CompletableFuture<Agenda> agenda = schedule.thenApplyAsync(
+                loaded -> timed("index page", () -> Agenda.of(loaded.getSchedule())), startup);
 
         UserDataParser userdata = new UserDataParser();
 
-        Jdbi jdbi = Jdbi.create(ofNullable(getenv("JDBC_DATABASE_URL"))
-                .orElseThrow(() -> new RuntimeException("No JDBC_DATABASE_URL found")));
-        jdbi.installPlugin(new SqlObjectPlugin());
-        jdbi.useExtension(SessionsDao.class, dao -> dao.createSessionsTable());
-        jdbi.useExtension(UsersDao.class, dao -> dao.createUsersTable());
+        CompletableFuture<Storage> storage = "embedded".equals(getenv("STORAGE"))
+                ? CompletableFuture.supplyAsync(
+                        () -> timed("embedded storage", () -> embeddedStorage(metrics)), startup)
+                : postgresStorage(statements, metrics, startup);
+
+        CompletableFuture<AttendeeDirectory> attendees = storage.thenApplyAsync(store -> timed("attendees", () -> {
+            AttendeeDirectory directory = new AttendeeDirectory(store::latestUsers);
+            directory.reload();
+            return directory;
+        }), startup);
+
+        CompletableFuture<Map<String, Set<String>>> choices = storage.thenApplyAsync(store -> timed("registrations",
+                () -> store.allRegistrations(List.of(UserDataParser.TEST_USER.getHash())).stream()
+                        .collect(Collectors.groupingBy(
+                                SessionsDao.RegistrationDto::getHash,
+                                Collectors.mapping(SessionsDao.RegistrationDto::getTitle, Collectors.toSet())
+                        ))), startup);
+
+        CompletableFuture<PopularityView> popularity = storage.thenApplyAsync(store -> timed("popularity", () -> {
+            PopularityView view = new PopularityView(
+                    () -> store.popularity(List.of(UserDataParser.TEST_USER.getHash())));
+            view.reload();
+            return view;
+        }), startup);
+
+        CompletableFuture.allOf(http, agenda, attendees, choices, popularity)
+                .get(deadline.toNanos() - (System.nanoTime() - started), TimeUnit.NANOSECONDS);
+
+        StartupSchedule startupSchedule = schedule.join();
+        ScheduleRefresher scheduleRefresher = new ScheduleRefresher(parser, startupSchedule.getSchedule());
+        WaitingRoom waitingRoom = new WaitingRoom(WaitingRoom.Settings.builder()
+                .limit(intFromEnv("ADMISSION_LIMIT", 500))
+                .lease(Duration.ofSeconds(intFromEnv("ADMISSION_LEASE_SECONDS", 120)))
+                .poll(Duration.ofSeconds(intFromEnv("ADMISSION_POLL_SECONDS", 5)))
+                .refill(Duration.ofMillis(intFromEnv("ADMISSION_REFILL_MS", 1000)))
+                .burst(intFromEnv("ADMISSION_BURST", 5))
+                .build());
+        waitingRoom.sweepEvery(Duration.ofSeconds(1));
+        DatabaseExecutor databaseExecutor = new DatabaseExecutor(DatabaseExecutor.Settings.builder()
+                .threads(intFromEnv("DB_EXECUTOR_THREADS", intFromEnv("DB_POOL_SIZE", 10)))
+                .queue(intFromEnv("DB_EXECUTOR_QUEUE", 100))
+                .virtualThreads(!"false".equals(getenv("DB_EXECUTOR_VIRTUAL_THREADS")))
+                .build());
+        Controllers controllers = timed("wiring", () -> wire(storage.join(), auth, userdata, scheduleRefresher, agenda.join(),
+                databaseExecutor, waitingRoom, attendees.join(), choices.join(), popularity.join(), metrics,
+                statements));
+        scheduleRefresher.onChange(snapshot::save);
+        scheduleRefresher.refreshEvery(Duration.ofSeconds(intFromEnv("AGENDA_RELOAD_SECONDS", 300)));
+        if (!startupSchedule.isRemote()) {
+            //started from a fallback - catch up with the agenda as soon as it answers
+            CompletableFuture.runAsync(scheduleRefresher::refresh, startup);
+        }
+
+        application.ready(controllers);
+        log.info("Application started in {}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
 
-        Controllers controllers = new Controllers(jdbi,
+    private static Controllers wire(Storage storage, AdminAuthenticationDetails auth, UserDataParser userdata,
+                                    ScheduleRefresher scheduleRefresher, Agenda agenda,
+                                    DatabaseExecutor databaseExecutor, WaitingRoom waitingRoom,
+                                    AttendeeDirectory attendees,
+                                    Map<String, Set<String>> choices, PopularityView popularityView, Metrics metrics,
+                                    StatementTimings statements) {
+        Schedule schedule = scheduleRefresher.current();
+        attendees.reloadEvery(Duration.ofSeconds(intFromEnv("ATTENDEES_RELOAD_SECONDS", 60)));
+        popularityView.reloadEvery(Duration.ofSeconds(intFromEnv("STATS_RELOAD_SECONDS", 30)));
+
+        SeatReservations seatReservations;
+        if ("memory".equals(getenv("SEAT_LEDGER"))) {
+            SeatLedger seatLedger = new SeatLedger(schedule);
+            seatLedger.restore(choices);
+            seatReservations = new LedgerSeatReservations(storage, seatLedger);
+        } else {
+            DatabaseSeatReservations databaseSeatReservations = new DatabaseSeatReservations(storage,
+                    !"off".equals(getenv("WAITLIST")));
+            databaseSeatReservations.seed(schedule, choices);
+            seatReservations = databaseSeatReservations;
+        }
+
+        if (storage instanceof PostgresStorage) {
+            subscribe(((PostgresStorage) storage).getChanges(), attendees, popularityView);
+        }
+
+        SeatAvailabilityStream seatStream = new SeatAvailabilityStream(popularityView, schedule);
+        seatStream.start(Duration.ofMillis(intFromEnv("SEATS_PUSH_INTERVAL_MS", 1000)),
+                Duration.ofSeconds(intFromEnv("SEATS_PUSH_HEARTBEAT_SECONDS", 15)));
+
+        Controllers controllers = new Controllers(storage,
                 auth,
-                parser.schedule(),
-                userdata
+                agenda,
+                userdata,
+                seatReservations,
+                databaseExecutor,
+                waitingRoom,
+                attendees,
+                popularityView,
+                seatStream,
+                metrics,
+                statements
         );
-        new Application(port, controllers).run();
+        export(metrics, databaseExecutor, waitingRoom);
+        scheduleRefresher.onChange(seatReservations::scheduleChanged);
+        scheduleRefresher.onChange(seatStream::scheduleChanged);
+        scheduleRefresher.onChange(controllers::scheduleChanged);
+        return controllers;
+    }
+
+    /**
+     * Registrations and imports of other nodes reach this node's caches as they commit, instead of on their
+     * next periodic reload.
+     */
+    private static void subscribe(ChangeFeed changes, AttendeeDirectory attendees, PopularityView popularityView) {
+        changes.start(new ChangeFeed.Subscriber() {
+            @Override
+            public void registered(String hash, Set<String> previous, Set<String> chosen, long sequence) {
+                if (!UserDataParser.TEST_USER.getHash().equals(hash)) {
+                    popularityView.apply(previous, chosen, sequence);
+                }
+            }
+
+            @Override
+            public void attendeesChanged() {
+                attendees.reload();
+            }
+
+            @Override
+            public void resync() {
+                attendees.reload();
+                popularityView.reload();
+            }
+        });
+    }
+
+    /**
+     * Connection pool, migrated schema and the group commit writer on top - {@code STORAGE} other than
+     * {@code embedded}.
+     */
+    private static CompletableFuture<Storage> postgresStorage(StatementTimings statements, Metrics metrics,
+                                                              ExecutorService startup) {
+        String jdbcUrl = ofNullable(getenv("JDBC_DATABASE_URL"))
+                .orElseThrow(() -> new RuntimeException("No JDBC_DATABASE_URL found"));
+        CompletableFuture<ConnectionPool> pool = CompletableFuture.supplyAsync(() -> timed("connection pool",
+                () -> new ConnectionPool(jdbcUrl,
+                        ConnectionPool.Settings.builder()
+                                .size(intFromEnv("DB_POOL_SIZE", 10))
+                                .acquireTimeout(Duration.ofMillis(intFromEnv("DB_POOL_ACQUIRE_TIMEOUT_MS", 5000)))
+                                .validationTimeout(Duration.ofMillis(intFromEnv("DB_POOL_VALIDATION_TIMEOUT_MS", 1000)))
+                                .build())), startup);
+
+        return pool.thenApplyAsync(connections -> timed("schema", () -> {
+            Jdbi jdbi = Jdbi.create(statements.connections(connections.getDataSource()));
+            jdbi.installPlugin(new SqlObjectPlugin());
+            DaoTimers.install(jdbi, metrics);
+            statements.install(jdbi);
+            new SchemaMigrations(jdbi).migrate();
+
+            RegistrationWriter registrationWriter = new RegistrationWriter(jdbi, RegistrationWriter.Settings.builder()
+                    .maxBatch(intFromEnv("GROUP_COMMIT_MAX_BATCH", 64))
+                    .maxWait(Duration.ofMillis(intFromEnv("GROUP_COMMIT_WAIT_MS", 2)))
+                    .build(), metrics);
+            registrationWriter.start();
+            export(metrics, connections.getMetrics());
+            ChangeFeed changes = new ChangeFeed(jdbcUrl, ChangeFeed.Settings.builder()
+                    .gapGrace(Duration.ofMillis(intFromEnv("CHANGE_FEED_GAP_GRACE_MS", 2000)))
+                    .build(), metrics);
+            return new PostgresStorage(jdbi, connections, registrationWriter, changes);
+        }), startup);
+    }
+
+    /**
+     * Registration log on local disk, for a single node - {@code STORAGE=embedded}.
+     */
+    private static Storage embeddedStorage(Metrics metrics) {
+        Path path = Path.of(ofNullable(getenv("STORAGE_PATH"))
+                .orElse(System.getProperty("java.io.tmpdir") + "/workshops-registrations.log"));
+        try {
+            return new EmbeddedStorage(EmbeddedStorage.Settings.builder()
+                    .path(path)
+                    .sync(!"false".equals(getenv("STORAGE_SYNC")))
+                    .build(), metrics);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open registration log " + path, e);
+        }
+    }
+
+    private static void export(Metrics metrics, PoolMetrics pool) {
+        metrics.histogram("workshops_db_pool_acquire_seconds", "Time to get a connection from the pool",
+                pool.getAcquireTime());
+        metrics.gauge("workshops_db_pool_connections", "Connections in the pool", pool::getActive, "state", "active");
+        metrics.gauge("workshops_db_pool_connections", "Connections in the pool", pool::getIdle, "state", "idle");
+        metrics.gauge("workshops_db_pool_waiting", "Threads waiting for a connection", pool::getWaiting);
+        metrics.counter("workshops_db_pool_timeouts_total", "Connection requests that timed out", pool::getTimeouts);
+    }
+
+    /**
+     * Pool, executor and waiting room state next to the request timings - they tell why requests got slow.
+     */
+    private static void export(Metrics metrics, DatabaseExecutor executor, WaitingRoom waitingRoom) {
+        metrics.gauge("workshops_db_executor_active", "Database tasks running", executor::getActive);
+        metrics.gauge("workshops_db_executor_queued", "Database tasks waiting for a thread", executor::getQueued);
+        metrics.counter("workshops_db_executor_rejected_total", "Database tasks turned away with 503",
+                executor::getRejected);
+        metrics.gauge("workshops_waiting_room_attendees", "Attendees holding a lease or waiting for one",
+                waitingRoom::getInside, "state", "inside");
+        metrics.gauge("workshops_waiting_room_attendees", "Attendees holding a lease or waiting for one",
+                waitingRoom::getWaiting, "state", "waiting");
+    }
+
+    /**
+     * Agenda endpoint first, but only for {@code timeout}; then the last snapshot, then the bundled copy. A schedule
+     * that {@link ScheduleRefresher#validate} rejects is skipped like a missing one.
+     */
+    private static StartupSchedule startupSchedule(ScheduleParser parser, ScheduleSnapshot snapshot,
+                                                   Duration timeout, ExecutorService executor) {
+        try {
+            Schedule remote = CompletableFuture
+                    .supplyAsync(() -> {
+                        try {
+                            return parser.fetchIfModified(null).orElseThrow().getSchedule();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, executor)
+                    .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (valid(remote, "agenda")) {
+                CompletableFuture.runAsync(() -> snapshot.save(remote), executor);
+                return new StartupSchedule(remote, true);
+            }
+        } catch (TimeoutException e) {
+            log.warn("Agenda did not respond within {}ms", timeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Agenda not available", e.getCause());
+        }
+        return new StartupSchedule(snapshot.load()
+                .filter(saved -> valid(saved, "snapshot"))
+                .orElseGet(parser::localSchedule), false);
+    }
+
+    private static boolean valid(Schedule schedule, String source) {
+        try {
+            ScheduleRefresher.validate(schedule);
+            return true;
+        } catch (IllegalStateException e) {
+            log.warn("Schedule from {} rejected: {}", source, e.getMessage());
+            return false;
+        }
     }
 
-    public Application(Integer port, Controllers controllers) {
+    private static <T> T timed(String phase, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            log.info("Startup phase [{}] took {}ms", phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private static void timed(String phase, Runnable action) {
+        timed(phase, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Environment variable, unless a system property of the same name is set - lets tools such as the load test
+     * start the application in-process with their own settings.
+     */
+    static String getenv(String name) {
+        return ofNullable(System.getProperty(name)).orElseGet(() -> System.getenv(name));
+    }
+
+    private static int intFromEnv(String name, int defaultValue) {
+        return ofNullable(getenv(name))
+                .filter(s -> s.matches("\\d+"))
+                .map(Integer::valueOf)
+                .orElse(defaultValue);
+    }
+
+    public Application(Integer port, Metrics metrics) {
         this.port = port;
+        this.metrics = metrics;
+    }
+
+    private void ready(Controllers controllers) {
         this.controllers = controllers;
     }
 
+    private void stop() {
+        Javalin http = this.http;
+        if (http != null) {
+            http.stop();
+        }
+    }
+
+    private Controllers controllers() {
+        Controllers controllers = this.controllers;
+        if (controllers == null) {
+            throw new ServiceUnavailableResponse("Starting up, try again in a moment");
+        }
+        return controllers;
+    }
+
     private void run() {
         Javalin http = Javalin.create()
                 .enableCorsForOrigin("*");
         http.port(this.port);
-        http.accessManager(controllers::accessManager);
-        http.get("/", controllers::rootPath);
-        http.get("/stats", controllers::statistics);
-        http.get("/:hash", controllers::chooseSessions);
-        http.post("/:hash", controllers::saveSessions);
+        RouteTimers routes = new RouteTimers(metrics);
+        http.requestLogger((ctx, millis) -> routes.record(ctx.method(), ctx.matchedPath(), (long) (millis * 1000)));
+        http.exception(DatabaseBusyException.class, (e, ctx) -> {
+            log.warn("Request rejected [path={}]: {}", ctx.path(), e.getMessage());
+            ctx.status(503).header("Retry-After", "1").result("Too many registrations at once, try again in a moment");
+        });
+        http.accessManager((handler, ctx, permittedRoles) -> controllers().accessManager(handler, ctx, permittedRoles));
+        http.get("/", ctx -> controllers().rootPath(ctx));
+        http.get("/stats", ctx -> controllers().statistics(ctx));
+        http.sse("/live/seats", client -> controllers().seatAvailability(client));
+        http.get("/:hash", ctx -> controllers().chooseSessions(ctx));
+        http.post("/:hash", ctx -> controllers().saveSessions(ctx));
         http.get("/admin/registrations",
-                controllers::getAllRegistrations,
+                ctx -> controllers().getAllRegistrations(ctx),
                 Set.of(AdminAuthenticationDetails.Authed.ADMIN));
         http.post("/admin/userdata",
-                controllers::updateUserData,
+                ctx -> controllers().updateUserData(ctx),
+                Set.of(AdminAuthenticationDetails.Authed.ADMIN));
+        http.get("/admin/pool",
+                ctx -> controllers().poolMetrics(ctx),
+                Set.of(AdminAuthenticationDetails.Authed.ADMIN));
+        http.get("/admin/metrics",
+                ctx -> controllers().metrics(ctx),
                 Set.of(AdminAuthenticationDetails.Authed.ADMIN));
+        http.get("/admin/slow-queries",
+                ctx -> controllers().slowQueries(ctx),
+                Set.of(AdminAuthenticationDetails.Authed.ADMIN));
+        http.post("/admin/slow-queries/:id/explain",
+                ctx -> controllers().explainSlowQuery(ctx),
+                Set.of(AdminAuthenticationDetails.Authed.ADMIN));
+        for (String route : List.of("GET /", "GET /stats", "GET /:hash", "POST /:hash", "GET /admin/registrations",
+                "POST /admin/userdata", "GET /admin/pool", "GET /admin/metrics", "GET /admin/slow-queries",
+                "POST /admin/slow-queries/:id/explain")) {
+            String[] methodAndPath = route.split(" ");
+            routes.register(methodAndPath[0], methodAndPath[1]);
+        }
         http.start();
+        this.http = http;
+    }
+
+    @Value
+    private static class StartupSchedule {
+        Schedule schedule;
+        boolean remote;
     }
 }
 
 @Slf4j
 class Controllers {
-    private final Jdbi jdbi;
+    private final Storage storage;
     private final AdminAuthenticationDetails authenticationDetails;
-    private final Schedule schedule;
     private final UserDataParser userdata;
-
-    public Controllers(Jdbi jdbi, AdminAuthenticationDetails authenticationDetails, Schedule schedule, UserDataParser userdata) {
-        this.jdbi = jdbi;
+    private final SeatReservations seatReservations;
+    private final DatabaseExecutor database;
+    private final WaitingRoom waitingRoom;
+    private final AttendeeDirectory attendees;
+    private final PopularityView popularityView;
+    private final SeatAvailabilityStream seatStream;
+    private final AttendeeImport attendeeImport;
+    private final Metrics metrics;
+    private final StatementTimings statements;
+    private final LatencyHistogram renderTime;
+    private final Map<Rejection, LongAdder> rejected = new EnumMap<>(Rejection.class);
+    private final LongAdder waitlisted;
+    private final LongAdder promoted;
+    private volatile Agenda agenda;
+
+    /**
+     * Why a submission was turned away before its seats were checked or taken.
+     */
+    enum Rejection {WAITING_ROOM, THROTTLED, DATABASE_BUSY, SEATS_UNAVAILABLE}
+
+    public Controllers(Storage storage, AdminAuthenticationDetails authenticationDetails, Agenda agenda, UserDataParser userdata,
+                       SeatReservations seatReservations, DatabaseExecutor database,
+                       WaitingRoom waitingRoom, AttendeeDirectory attendees, PopularityView popularityView, SeatAvailabilityStream seatStream,
+                       Metrics metrics, StatementTimings statements) {
+        this.storage = storage;
         this.authenticationDetails = authenticationDetails;
-        this.schedule = schedule;
         this.userdata = userdata;
+        this.seatReservations = seatReservations;
+        this.database = database;
+        this.waitingRoom = waitingRoom;
+        this.attendees = attendees;
+        this.popularityView = popularityView;
+        this.seatStream = seatStream;
+        this.attendeeImport = new AttendeeImport(storage, userdata);
+        this.agenda = agenda;
+        this.metrics = metrics;
+        this.statements = statements;
+        this.renderTime = metrics.histogram("workshops_page_render_seconds", "Rendering of the registration page");
+        for (Rejection reason : Rejection.values()) {
+            rejected.put(reason, metrics.counter("workshops_submissions_rejected_total",
+                    "Registrations turned away at capacity, by reason", "reason", reason.name().toLowerCase()));
+        }
+        this.waitlisted = metrics.counter("workshops_waitlist_joined_total",
+                "Submissions put on the waitlist because of a full workshop");
+        this.promoted = metrics.counter("workshops_waitlist_promoted_total",
+                "Waiting attendees given seats freed by others");
+    }
+
+    public void scheduleChanged(Schedule schedule) {
+        this.agenda = Agenda.of(schedule);
     }
 
     public void accessManager(Handler handler, Context ctx, Set<Role> permittedRoles) throws Exception {
@@ -119,142 +577,217 @@ class Controllers {
                 .html("<h1>Registration app for <a href=\"https://segfault.events/warszawa2020/\">Segfault University Warszawa 2020</a><h1>");
     }
 
-    public void statistics(Context context) {
-        context.contentType("application/json")
-                .json(popularity());
-    }
-
-    public void chooseSessions(Context ctx) {
-        UsersDao.User user = Optional.ofNullable(
-                jdbi.withExtension(UsersDao.class, dao -> dao.getUser(ctx.pathParam("hash")))
-        ).orElseThrow(() -> new ForbiddenResponse("Invalid hash"));
+    public void statistics(Context ctx) {
+        PopularityView.Snapshot snapshot = popularityView.snapshot();
+        ctx.header("ETag", snapshot.getEtag())
+                .header("X-Stats-Version", String.valueOf(snapshot.getVersion()))
+                .header("Cache-Control", "no-cache");
 
-        List<String> previous = jdbi.withExtension(SessionsDao.class, dao -> dao.previousSessions(user.getHash()));
-        log.info("Previous registration for [hash={}]: {}", user, previous);
+        if (snapshot.getEtag().equals(ctx.header("If-None-Match"))) {
+            ctx.status(304);
+            return;
+        }
+        ctx.contentType("application/json")
+                .result(new ByteArrayInputStream(snapshot.getJson()));
+    }
 
-        Map<String, Object> attrs = new HashMap();
-        attrs.put("hash", user.getHash());
-        attrs.put("previous", previous);
-        attrs.put("popularity", sessionsPopularityWithCapacity());
-        attrs.put("name", user.getName());
-        attrs.put("isTest", (UserDataParser.TEST_USER.equals(user) ? true : false));
-        attrs.put("schedule", schedule.getSecondDay());
+    public void seatAvailability(SseClient client) {
+        seatStream.connect(client);
+    }
 
-        ctx.render("/templates/index.twig", attrs);
+    public void chooseSessions(Context ctx) {
+        UsersDao.User user = attendee(ctx);
+        WaitingRoom.Admission admission = waitingRoom.enter(user.getHash());
+        if (!admission.isAdmitted()) {
+            long seconds = retryAfter(ctx, admission);
+            ctx.header("Refresh", String.valueOf(seconds))
+                    .contentType("text/html;charset=UTF-8")
+                    .html("<h1>Registration is busy</h1><p>You are number " + admission.getPosition()
+                            + " in line. This page refreshes on its own - keep it open.</p>");
+            return;
+        }
+        IndexPage indexPage = agenda.getIndexPage();
+
+        ctx.contentType("text/html").result(database.supply(() -> {
+            List<String> previous = storage.previousSessions(user.getHash());
+            List<SessionsDao.WaitlistEntry> waitlist = storage.waitlist(user.getHash());
+            log.info("Previous registration for [hash={}]: {}, waitlist: {}", user, previous, waitlist);
+
+            long start = System.nanoTime();
+            byte[] page = indexPage.render(user, UserDataParser.TEST_USER.equals(user), previous, waitlist,
+                    popularityView::count);
+            renderTime.recordNanos(System.nanoTime() - start);
+            return new ByteArrayInputStream(page);
+        }));
     }
 
     public void saveSessions(Context ctx) {
-        UsersDao.User user = Optional.ofNullable(
-                jdbi.withExtension(UsersDao.class, dao -> dao.getUser(ctx.pathParam("hash")))
-        ).orElseThrow(() -> new ForbiddenResponse("Invalid hash"));
-
-        String session2 = ctx.formParam("session-2");
-        String session4 = ctx.formParam("session-4");
-
-        //when one of the chosen session is both morning and afternoon - override the choice with it
-        if (sessionMoreThanOnce(session2)) {
-            session4 = session2;
-        } else if (sessionMoreThanOnce(session4)) {
-            session2 = session4;
+        UsersDao.User user = attendee(ctx);
+        WaitingRoom.Admission admission = waitingRoom.enter(user.getHash());
+        if (!admission.isAdmitted()) {
+            rejected.get(admission.getStatus() == WaitingRoom.Admission.Status.THROTTLED
+                    ? Rejection.THROTTLED : Rejection.WAITING_ROOM).increment();
+            //the form was opened with a lease that has run out since - do not drop the submission silently
+            retryAfter(ctx, admission);
+            throw new ServiceUnavailableResponse("Registration is busy, you are number " + admission.getPosition()
+                    + " in line. Submit again in a moment");
+        }
+        ScheduleIndex index = this.agenda.getIndex();
+
+        int[] chosen = new int[index.timeslotCount() + 1];
+        for (int timeslot = 1; timeslot <= index.timeslotCount(); timeslot++) {
+            String title = ctx.formParam("session-" + timeslot);
+            chosen[timeslot] = title == null ? ScheduleIndex.NONE : index.workshopId(title);
+            if (title != null && chosen[timeslot] == ScheduleIndex.NONE) {
+                throw new BadRequestResponse("Invalid data. Unknown workshop");
+            }
         }
 
-        List<SessionsDao.SessionDto> sessionDTOS = Arrays.asList(SessionsDao.SessionDto.builder()
-                        .sessionId(2)
-                        .title(session2)
-                        .build(),
-                SessionsDao.SessionDto.builder()
-                        .sessionId(4)
-                        .title(session4)
-                        .build()
-        );
-
-        //validation
-        Map<String, SessionCapacity> sessionCapacityMap = sessionsPopularityWithCapacity(user.getHash());
-        Predicate<SessionsDao.SessionDto> isAboveCapacity = dto -> {
-            SessionCapacity sessionCapacity = sessionCapacityMap.get(dto.getTitle());
-            return (sessionCapacity.getCurrent() + 1 > sessionCapacity.getMax());
-        };
-
-
-        if (sessionDTOS.stream()
-                .filter(isAboveCapacity)
-                .count() > 0) {
-            throw new BadRequestResponse("Invalid data. Some sessions might already got full");
+        //a workshop taking several timeslots may be chosen in one of them only
+        index.fillMultiSlot(chosen);
+        if (!index.isConsistent(chosen)) {
+            throw new BadRequestResponse("Invalid data. Choose one workshop for every timeslot, without overlaps");
         }
 
-        int[] results = jdbi.withExtension(SessionsDao.class, dao -> dao.insertSessions(user.getHash(), sessionDTOS));
+        List<SessionsDao.SessionDto> sessionDTOS = new ArrayList<>();
+        Set<String> titles = new HashSet<>();
+        for (int timeslot = 1; timeslot < chosen.length; timeslot++) {
+            if (chosen[timeslot] != ScheduleIndex.NONE) {
+                String title = index.workshop(chosen[timeslot]);
+                sessionDTOS.add(SessionsDao.SessionDto.builder()
+                        .sessionId(timeslot)
+                        .title(title)
+                        .build());
+                titles.add(title);
+            }
+        }
 
-        log.info("Insert successful [rowCount={}, hash={}, data={}]", results, user, sessionDTOS);
+        String location = "/" + ctx.pathParam("hash");
+        CompletableFuture<Object> saved;
+        try {
+            saved = database.supply(() -> {
+                try {
+                    SessionsDao.Moved moved = seatReservations.register(user, sessionDTOS);
+                    if (moved.isWaiting()) {
+                        waitlisted.increment();
+                    } else if (!UserDataParser.TEST_USER.equals(user)) {
+                        popularityView.apply(moved.getPrevious(), titles, moved.getSequence());
+                    }
+                    for (SessionsDao.Promotion promotion : moved.getPromotions()) {
+                        promoted.increment();
+                        popularityView.apply(promotion.getPrevious(), promotion.getChosen(), promotion.getSequence());
+                    }
+                } catch (SeatsUnavailableException e) {
+                    rejected.get(Rejection.SEATS_UNAVAILABLE).increment();
+                    log.info("Registration rejected [hash={}, data={}]: {}", user.getHash(), sessionDTOS, e.getMessage());
+                    throw new BadRequestResponse("Invalid data. Some sessions might already got full");
+                }
+
+                ctx.redirect(location);
+                return null;
+            });
+        } catch (DatabaseBusyException e) {
+            rejected.get(Rejection.DATABASE_BUSY).increment();
+            throw e;
+        }
+        ctx.result(saved);
+    }
 
-        ctx.redirect("/" + ctx.pathParam("hash"));
+    /**
+     * Sets Retry-After for a turned away attendee; rate limited ones get 429 right away.
+     */
+    private static long retryAfter(Context ctx, WaitingRoom.Admission admission) {
+        long seconds = Math.max(1, (admission.getRetryAfter().toMillis() + 999) / 1000);
+        ctx.header("Retry-After", String.valueOf(seconds));
+        if (admission.getStatus() == WaitingRoom.Admission.Status.THROTTLED) {
+            throw new HttpResponseException(429, "Too many requests, slow down", Map.of());
+        }
+        return seconds;
     }
 
-    private boolean sessionMoreThanOnce(String sessionTitle) {
-        return schedule.getSecondDay().getAllSessions().stream().filter(s -> sessionTitle.equals(s.getTitle())).count() > 1;
+    private UsersDao.User attendee(Context ctx) {
+        UsersDao.User user = attendees.find(ctx.pathParam("hash"));
+        if (user == null) {
+            throw new ForbiddenResponse("Invalid hash");
+        }
+        return user;
     }
 
     public void getAllRegistrations(Context ctx) {
-        List<SessionsDao.RegistrationDto> registrationDtos = jdbi.withExtension(SessionsDao.class,
-                dao -> dao.allRegistrations(List.of(UserDataParser.TEST_USER.getHash())));
-
-        ctx.contentType("text/plain")
-                .result(registrationDtos.stream()
-                        .map(dto -> String.join("###", dto.getHash(), dto.getTitle(), dto.getDate().format(DateTimeFormatter.ISO_DATE_TIME)))
-                        .map(str -> new StringBuilder()
-                                        .append("=SPLIT(\"").append(str)
-                                .append("\"; \"###\"; TRUE; TRUE)")
-                                .toString()
-                        )
-                        .reduce("", (l, r) -> String.join("\n", l, r)));
+        RegistrationsExport.Format format = RegistrationsExport.Format
+                .negotiate(ctx.queryParam("format"), ctx.header("Accept"))
+                .orElseThrow(() -> new BadRequestResponse("Unknown format, use one of: split, csv, ndjson"));
+
+        ctx.contentType(format.getContentType());
+        ctx.result(database.supply(() -> {
+            Writer out = new BufferedWriter(new OutputStreamWriter(ctx.res.getOutputStream(), StandardCharsets.UTF_8));
+            RegistrationsExport export = new RegistrationsExport(format, out);
+            storage.forEachRegistration(List.of(UserDataParser.TEST_USER.getHash()), export::write);
+            export.finish();
+            return null;
+        }));
     }
 
     public void updateUserData(Context ctx) {
-        UserDataParser userDataParser = new UserDataParser();
-        List<UsersDao.User> userList = userDataParser.parse(ctx.body());
-
-        int[] rowCount = jdbi.withExtension(UsersDao.class, dao -> dao.insertUserHash(userList));
-        log.info("Insert successful users.size()={}", rowCount.length);
-
-        ctx.status(201).json(Map.of(
-                "posted", rowCount.length,
-                "total", jdbi.withExtension(UsersDao.class, dao -> dao.allUsers().size())));
+        ctx.contentType("application/json");
+        ctx.result(database.supply(() -> {
+            AttendeeImport.Result result;
+            try (BufferedReader body = new BufferedReader(new InputStreamReader(ctx.req.getInputStream(), StandardCharsets.UTF_8))) {
+                result = attendeeImport.load(body);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestResponse(e.getMessage());
+            }
+            attendees.reload();
+
+            ctx.status(201);
+            return JavalinJson.toJson(Map.of(
+                    "posted", result.getRead(),
+                    "inserted", result.getInserted(),
+                    "updated", result.getUpdated(),
+                    "skipped", result.getSkipped(),
+                    "total", attendees.size()));
+        }));
     }
 
-    private Map<String, SessionCapacity> sessionsPopularityWithCapacity(String... filter_out_hash) {
-        Map<String, SessionsDao.PopularityRank> popularity = popularity(filter_out_hash).stream()
-                .collect(Collectors.toMap(
-                        SessionsDao.PopularityRank::getTitle,
-                        Function.identity()
-                ));
-
-        return schedule.getAllSessions().stream()
-                .filter(Session::isWorkshop)
-                .collect(Collectors.toMap(
-                        Session::getTitle,
-                        session -> {
-                            SessionsDao.PopularityRank popularityRank = popularity.getOrDefault(
-                                    session.getTitle(),
-                                    new SessionsDao.PopularityRank(session.getTitle(), 0)
-                            );
+    public void poolMetrics(Context ctx) {
+        Map<String, Object> metrics = new LinkedHashMap<>(storage.toMap());
+        metrics.put("executor", database.toMap());
+        ctx.json(metrics);
+    }
 
-                            return SessionCapacity.builder().current(popularityRank.getCount()).max(session.getSeats()).build();
-                        },
-                        (s1, s2) -> s1
-                ));
+    public void metrics(Context ctx) {
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8").result(metrics.toPrometheus());
     }
 
-    private List<SessionsDao.PopularityRank> popularity(String... filter_out_hash) {
-        List<String> filtered_out_hashes = new ArrayList<>(List.of(filter_out_hash));
-        filtered_out_hashes.add(UserDataParser.TEST_USER.getHash());
+    public void slowQueries(Context ctx) {
+        ctx.json(statements.slowStatements());
+    }
 
-        return jdbi.withExtension(SessionsDao.class, dao -> dao.sessionsPopularity(filtered_out_hashes));
+    public void explainSlowQuery(Context ctx) {
+        long id = ctx.pathParam("id", Long.class).get();
+        ctx.contentType("text/plain;charset=UTF-8");
+        ctx.result(database.supply(() -> {
+            try {
+                return statements.explain(id)
+                        .orElseThrow(() -> new NotFoundResponse("No slow query #" + id + " kept, see /admin/slow-queries"));
+            } catch (SQLException | JdbiException e) {
+                throw new BadRequestResponse("Could not explain slow query #" + id + ": " + e.getMessage());
+            }
+        }));
     }
 
 }
 
+/**
+ * Everything handlers derive from one schedule version, published as a whole.
+ */
 @Value
-@Builder
-class SessionCapacity {
-    final Integer current;
-    final Integer max;
-}
\ No newline at end of file
+class Agenda {
+    final ScheduleIndex index;
+    final IndexPage indexPage;
+
+    static Agenda of(Schedule schedule) {
+        ScheduleIndex index = ScheduleIndex.of(schedule);
+        return new Agenda(index, new IndexPage(index.getRegistrationDays()));
+    }
+}
@@ -4,8 +4,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.StringReader;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.function.Predicate.not;
 import static patterns42.workshops.dao.UsersDao.User;
@@ -17,11 +19,7 @@ public class UserDataParser {
 
     public List<User> parse(String values) {
 
-        List<User> collect = values.lines()
-                .map(String::strip)
-                .filter(not(String::isBlank))
-                .map(l -> l.split("\t"))
-                .map(a -> new User(a[0], a[1]))
+        List<User> collect = stream(new BufferedReader(new StringReader(values)))
                 .collect(Collectors.toList());
 
         collect.add(TEST_USER);
@@ -30,4 +28,24 @@ public class UserDataParser {
                 collect.size(), TEST_USER);
         return collect;
     }
+
+    /**
+     * Lazily parses {@code name<TAB>hash} lines as they are read - the test account is not added.
+     *
+     * @throws IllegalArgumentException (when consumed) for a line without a hash
+     */
+    public Stream<User> stream(BufferedReader values) {
+        return values.lines()
+                .map(String::strip)
+                .filter(not(String::isBlank))
+                .map(UserDataParser::user);
+    }
+
+    private static User user(String line) {
+        String[] a = line.split("\t");
+        if (a.length < 2) {
+            throw new IllegalArgumentException("Expected name and hash separated with a tab, got: " + line);
+        }
+        return new User(a[0], a[1]);
+    }
 }
@@ -0,0 +1,44 @@
+package patterns42.workshops.admission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single "theoretical arrival time" (the GCRA form), so taking a token is one CAS and
+ * no lock. Refills one token every {@code interval} nanos and holds at most {@code burst} tokens.
+ */
+class TokenBucket {
+
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong arrival;
+
+    TokenBucket(long intervalNanos, int burst, long now) {
+        this.interval = intervalNanos;
+        this.tolerance = intervalNanos * (burst - 1);
+        this.arrival = new AtomicLong(now);
+    }
+
+    /**
+     * @return 0 when a token was taken, otherwise nanos until the next one is available
+     */
+    long tryTake(long now) {
+        while (true) {
+            long current = arrival.get();
+            long start = Math.max(current, now);
+            long wait = start - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (arrival.compareAndSet(current, start + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * A full bucket carries no state worth keeping.
+     */
+    boolean isFull(long now) {
+        return arrival.get() <= now;
+    }
+}
@@ -0,0 +1,231 @@
+package patterns42.workshops.admission;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Admission gate in front of the registration pages. At most {@code limit} attendees hold a lease at a time,
+ * everybody else gets a ticket and is let in first come, first served as leases expire. Each hash also has
+ * a token bucket, so refreshing or re-submitting in a loop does not cost more than the configured rate.
+ * <p>
+ * All state lives in concurrent maps and atomics - no request ever waits for a lock held by another one.
+ */
+@Slf4j
+public class WaitingRoom {
+
+    private final Settings settings;
+    private final LongSupplier clock;
+    private final AtomicInteger free;
+    private final AtomicLong tickets = new AtomicLong();
+    private final AtomicLong served = new AtomicLong(-1);
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Waiter> waiters = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Waiter> queue = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    public WaitingRoom(Settings settings) {
+        this(settings, System::nanoTime);
+    }
+
+    WaitingRoom(Settings settings, LongSupplier clock) {
+        this.settings = settings;
+        this.clock = clock;
+        this.free = new AtomicInteger(settings.getLimit());
+    }
+
+    /**
+     * Lets the attendee in when they hold a lease or their turn has come, otherwise keeps their place in line.
+     * Every call counts against the attendee's token bucket.
+     */
+    public Admission enter(String hash) {
+        long now = clock.getAsLong();
+        long wait = buckets
+                .computeIfAbsent(hash, h -> new TokenBucket(settings.getRefill().toNanos(), settings.getBurst(), now))
+                .tryTake(now);
+        if (wait > 0) {
+            throttled.increment();
+            return Admission.throttled(Duration.ofNanos(wait));
+        }
+
+        Lease lease = leases.get(hash);
+        if (lease != null) {
+            if (lease.expiresAt - now > 0) {
+                lease.expiresAt = now + settings.getLease().toNanos();
+                return Admission.admitted();
+            }
+            expire(hash, lease);
+        }
+
+        Waiter waiter = waiters.computeIfAbsent(hash, h -> {
+            Waiter created = new Waiter(tickets.getAndIncrement());
+            queue.put(created.ticket, created);
+            return created;
+        });
+        waiter.lastSeen = now;
+        advance();
+
+        if (waiter.granted && waiters.remove(hash, waiter)) {
+            leases.put(hash, new Lease(now + settings.getLease().toNanos()));
+            admitted.increment();
+            return Admission.admitted();
+        }
+        return Admission.waiting(Math.max(1, waiter.ticket - served.get()), settings.getPoll());
+    }
+
+    /**
+     * Hands free slots to the oldest tickets. A slot is reserved first and then given to the head of the queue,
+     * so concurrent callers never hand out more slots than there are.
+     */
+    private void advance() {
+        while (!queue.isEmpty()) {
+            int slots = free.get();
+            if (slots <= 0) {
+                return;
+            }
+            if (!free.compareAndSet(slots, slots - 1)) {
+                continue;
+            }
+            Map.Entry<Long, Waiter> next = queue.pollFirstEntry();
+            if (next == null) {
+                free.incrementAndGet();
+                return;
+            }
+            next.getValue().granted = true;
+            served.accumulateAndGet(next.getKey(), Math::max);
+        }
+    }
+
+    private void expire(String hash, Lease lease) {
+        if (leases.remove(hash, lease)) {
+            free.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops expired leases, waiters that stopped polling and idle token buckets, then lets the next ones in.
+     */
+    void sweep() {
+        long now = clock.getAsLong();
+        leases.forEach((hash, lease) -> {
+            if (lease.expiresAt - now <= 0) {
+                expire(hash, lease);
+            }
+        });
+        long abandoned = settings.getPoll().toNanos() * 3;
+        waiters.forEach((hash, waiter) -> {
+            if (now - waiter.lastSeen > abandoned && waiters.remove(hash, waiter)) {
+                if (!queue.remove(waiter.ticket, waiter)) {
+                    //its turn came, but nobody showed up to take the slot
+                    free.incrementAndGet();
+                }
+            }
+        });
+        buckets.entrySet().removeIf(bucket -> bucket.getValue().isFull(now));
+        advance();
+    }
+
+    public void sweepEvery(Duration period) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "waiting-room");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                log.warn("Waiting room sweep failed", e);
+            }
+        }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Waiting room started {}", settings);
+    }
+
+    public int getInside() {
+        return leases.size();
+    }
+
+    public int getWaiting() {
+        return queue.size();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    private static class Lease {
+        volatile long expiresAt;
+
+        Lease(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Waiter {
+        final long ticket;
+        volatile long lastSeen;
+        volatile boolean granted;
+
+        Waiter(long ticket) {
+            this.ticket = ticket;
+        }
+    }
+
+    @Value
+    public static class Admission {
+        public enum Status {ADMITTED, WAITING, THROTTLED}
+
+        Status status;
+        long position;
+        Duration retryAfter;
+
+        static Admission admitted() {
+            return new Admission(Status.ADMITTED, 0, Duration.ZERO);
+        }
+
+        static Admission waiting(long position, Duration retryAfter) {
+            return new Admission(Status.WAITING, position, retryAfter);
+        }
+
+        static Admission throttled(Duration retryAfter) {
+            return new Admission(Status.THROTTLED, 0, retryAfter);
+        }
+
+        public boolean isAdmitted() {
+            return status == Status.ADMITTED;
+        }
+    }
+
+    @Value
+    @Builder
+    public static class Settings {
+        @Builder.Default
+        final int limit = 500;
+        @Builder.Default
+        final Duration lease = Duration.ofMinutes(2);
+        @Builder.Default
+        final Duration poll = Duration.ofSeconds(5);
+        @Builder.Default
+        final Duration refill = Duration.ofSeconds(1);
+        @Builder.Default
+        final int burst = 5;
+    }
+}
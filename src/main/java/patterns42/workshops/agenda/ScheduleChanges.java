@@ -0,0 +1,45 @@
+package patterns42.workshops.agenda;
+
+import lombok.Value;
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.agenda.model.Session;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Sessions, identified by title, that differ between two versions of the schedule.
+ */
+@Value
+public class ScheduleChanges {
+    Set<String> added;
+    Set<String> removed;
+    Set<String> changed;
+
+    public static ScheduleChanges between(Schedule before, Schedule after) {
+        Map<String, Session> previous = byTitle(before);
+        Map<String, Session> current = byTitle(after);
+
+        Set<String> added = new TreeSet<>(current.keySet());
+        added.removeAll(previous.keySet());
+        Set<String> removed = new TreeSet<>(previous.keySet());
+        removed.removeAll(current.keySet());
+        Set<String> changed = current.keySet().stream()
+                .filter(previous::containsKey)
+                .filter(title -> !current.get(title).equals(previous.get(title)))
+                .collect(Collectors.toCollection(TreeSet::new));
+        return new ScheduleChanges(added, removed, changed);
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    private static Map<String, Session> byTitle(Schedule schedule) {
+        return schedule.getAllSessions().stream()
+                .collect(Collectors.toMap(Session::getTitle, Function.identity(), (s1, s2) -> s1));
+    }
+}
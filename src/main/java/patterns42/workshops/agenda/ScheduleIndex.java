@@ -0,0 +1,256 @@
+package patterns42.workshops.agenda;
+
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.agenda.model.ScheduleDay;
+import patterns42.workshops.agenda.model.Session;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Lookups needed at request time, computed once per schedule version so that handlers never walk the agenda.
+ * Workshops get dense ids (in agenda order) and timeslots of the registration days are numbered from 1, continuing
+ * from one day to the next, the same way the form names its fields. Immutable.
+ * <p>
+ * Which workshops each timeslot offers, and which workshops overlap (share a timeslot), are kept as bitsets of
+ * workshop ids, so {@link #isConsistent} checks a whole choice without allocating.
+ */
+public final class ScheduleIndex {
+
+    /**
+     * No workshop chosen for a timeslot.
+     */
+    public static final int NONE = -1;
+
+    private final Schedule schedule;
+    private final List<ScheduleDay> registrationDays;
+    private final Map<String, Session> sessions;
+    private final Map<String, Integer> workshopIds;
+    private final String[] workshops;
+    private final int[] seats;
+    private final String[][] timeslots;
+    /**
+     * Workshop ids offered at a timeslot, indexed by timeslot number - 1.
+     */
+    private final long[][] offered;
+    /**
+     * Timeslot numbers a workshop takes, indexed by workshop id.
+     */
+    private final int[][] occupied;
+    /**
+     * Ids of other workshops sharing a timeslot with a workshop, indexed by workshop id.
+     */
+    private final long[][] overlapping;
+    /**
+     * Numbers of the timeslots offering any workshop.
+     */
+    private final int[] choices;
+
+    private ScheduleIndex(Schedule schedule) {
+        this.schedule = schedule;
+        this.registrationDays = schedule.getDays().stream()
+                .filter(day -> day.getAllSessions().stream().anyMatch(Session::isWorkshop))
+                .collect(Collectors.toUnmodifiableList());
+
+        Map<String, Session> sessions = new LinkedHashMap<>();
+        schedule.getAllSessions().forEach(session -> sessions.putIfAbsent(session.getTitle(), session));
+        this.sessions = Map.copyOf(sessions);
+
+        List<Session> workshops = sessions.values().stream()
+                .filter(Session::isWorkshop)
+                .collect(Collectors.toList());
+        Map<String, Integer> workshopIds = new HashMap<>();
+        this.workshops = new String[workshops.size()];
+        this.seats = new int[workshops.size()];
+        for (int id = 0; id < workshops.size(); id++) {
+            Session workshop = workshops.get(id);
+            workshopIds.put(workshop.getTitle(), id);
+            this.workshops[id] = workshop.getTitle();
+            this.seats[id] = Optional.ofNullable(workshop.getSeats()).orElse(0);
+        }
+        this.workshopIds = Map.copyOf(workshopIds);
+
+        List<String[]> timeslots = new ArrayList<>();
+        for (ScheduleDay day : registrationDays) {
+            for (List<Session> timeslot : day.getTimeslots().values()) {
+                //continuation of a multi-slot workshop is listed again by title, not always typed as a workshop
+                timeslots.add(timeslot.stream()
+                        .map(Session::getTitle)
+                        .filter(workshopIds::containsKey)
+                        .distinct()
+                        .toArray(String[]::new));
+            }
+        }
+        this.timeslots = timeslots.toArray(new String[0][]);
+
+        int words = (workshops.size() + 63) / 64;
+        this.offered = new long[this.timeslots.length][words];
+        List<List<Integer>> occupied = new ArrayList<>();
+        workshops.forEach(workshop -> occupied.add(new ArrayList<>()));
+        List<Integer> choices = new ArrayList<>();
+        for (int timeslot = 1; timeslot <= this.timeslots.length; timeslot++) {
+            for (String title : this.timeslots[timeslot - 1]) {
+                int id = workshopIds.get(title);
+                set(offered[timeslot - 1], id);
+                occupied.get(id).add(timeslot);
+            }
+            if (this.timeslots[timeslot - 1].length > 0) {
+                choices.add(timeslot);
+            }
+        }
+        this.occupied = occupied.stream()
+                .map(numbers -> numbers.stream().mapToInt(Integer::intValue).toArray())
+                .toArray(int[][]::new);
+        this.choices = choices.stream().mapToInt(Integer::intValue).toArray();
+
+        this.overlapping = new long[workshops.size()][words];
+        for (int id = 0; id < workshops.size(); id++) {
+            for (int timeslot : this.occupied[id]) {
+                for (int word = 0; word < words; word++) {
+                    overlapping[id][word] |= offered[timeslot - 1][word];
+                }
+            }
+            overlapping[id][id >>> 6] &= ~(1L << id);
+        }
+    }
+
+    public static ScheduleIndex of(Schedule schedule) {
+        return new ScheduleIndex(schedule);
+    }
+
+    public Schedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * The days attendees choose workshops for - those with any workshop, in agenda order.
+     */
+    public List<ScheduleDay> getRegistrationDays() {
+        return registrationDays;
+    }
+
+    /**
+     * @return session with given title, {@code null} for unknown titles and services
+     */
+    public Session session(String title) {
+        return sessions.get(title);
+    }
+
+    public boolean isWorkshop(String title) {
+        return workshopIds.containsKey(title);
+    }
+
+    public Set<String> workshops() {
+        return workshopIds.keySet();
+    }
+
+    public int workshopCount() {
+        return workshops.length;
+    }
+
+    /**
+     * @return id between 0 and {@link #workshopCount()} (exclusive), or {@link #NONE} when there is no such workshop
+     */
+    public int workshopId(String title) {
+        Integer id = workshopIds.get(title);
+        return id == null ? NONE : id;
+    }
+
+    public String workshop(int id) {
+        return workshops[id];
+    }
+
+    public int seats(int id) {
+        return seats[id];
+    }
+
+    /**
+     * Workshop taking more than one timeslot - choosing it fills all of them.
+     */
+    public boolean isMultiSlot(String title) {
+        Integer id = workshopIds.get(title);
+        return id != null && occupied[id].length > 1;
+    }
+
+    /**
+     * Timeslots of all registration days, services only ones included.
+     */
+    public int timeslotCount() {
+        return timeslots.length;
+    }
+
+    /**
+     * @param timeslot number of the timeslot, starting from 1
+     */
+    public List<String> workshopsAt(int timeslot) {
+        return List.of(timeslots[timeslot - 1]);
+    }
+
+    /**
+     * @param timeslot number of the timeslot, starting from 1
+     */
+    public boolean offers(int timeslot, String title) {
+        Integer id = workshopIds.get(title);
+        return id != null && timeslot >= 1 && timeslot <= timeslots.length && has(offered[timeslot - 1], id);
+    }
+
+    /**
+     * Puts a multi-slot workshop chosen in one of its timeslots into the others nothing was chosen for.
+     *
+     * @param chosen workshop id per timeslot number (index 0 unused), {@link #NONE} where nothing was chosen
+     */
+    public void fillMultiSlot(int[] chosen) {
+        for (int timeslot : choices) {
+            int id = chosen[timeslot];
+            if (id >= 0 && id < workshops.length) {
+                for (int other : occupied[id]) {
+                    if (chosen[other] == NONE) {
+                        chosen[other] = id;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A consistent choice has a workshop for every timeslot offering any, each offered at its timeslot, and no two
+     * different workshops overlapping - which also keeps a multi-slot workshop chosen for all of its timeslots.
+     *
+     * @param chosen workshop id per timeslot number (index 0 unused), {@link #NONE} where nothing was chosen
+     */
+    public boolean isConsistent(int[] chosen) {
+        if (chosen.length != timeslots.length + 1) {
+            return false;
+        }
+        for (int timeslot = 1; timeslot < chosen.length; timeslot++) {
+            int id = chosen[timeslot];
+            if (id == NONE ? timeslots[timeslot - 1].length > 0
+                    : id < 0 || id >= workshops.length || !has(offered[timeslot - 1], id)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < choices.length; i++) {
+            int id = chosen[choices[i]];
+            for (int j = i + 1; j < choices.length; j++) {
+                if (has(overlapping[id], chosen[choices[j]])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void set(long[] bits, int id) {
+        bits[id >>> 6] |= 1L << id;
+    }
+
+    private static boolean has(long[] bits, int id) {
+        return (bits[id >>> 6] & 1L << id) != 0;
+    }
+}
@@ -1,16 +1,17 @@
 package patterns42.workshops.agenda;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import patterns42.workshops.agenda.model.Schedule;
@@ -19,9 +20,12 @@ import patterns42.workshops.agenda.model.Session;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.net.UnknownHostException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -29,6 +33,9 @@ import java.util.Optional;
 @Slf4j
 public class ScheduleParser {
     private static final String LOCAL_SCHEDULE = "schedule.yml";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration READ_TIMEOUT = Duration.ofSeconds(10);
+    private static final ObjectMapper MAPPER = mapper();
     private final URL path;
 
     public ScheduleParser(Optional<String> maybeAgendaUrl) throws MalformedURLException {
@@ -44,27 +51,93 @@ public class ScheduleParser {
     @SneakyThrows
     public Schedule schedule() {
         try {
-            return getScheduleFrom(path.openStream());
+            return getScheduleFrom(open(path).getInputStream());
         } catch (IOException e) {
             log.warn("Error parsing Schedule {}", path, e);
-            log.info("Parsing local schedule copy {}", getClass().getResource("/session-data/" + LOCAL_SCHEDULE).toURI());
-            return getScheduleFrom(getClass().getResourceAsStream("/session-data/" + LOCAL_SCHEDULE));
+            return localSchedule();
         }
     }
 
+    /**
+     * Copy of the agenda bundled with the application.
+     */
+    @SneakyThrows
+    public Schedule localSchedule() {
+        log.info("Parsing local schedule copy {}", getClass().getResource("/session-data/" + LOCAL_SCHEDULE).toURI());
+        return getScheduleFrom(getClass().getResourceAsStream("/session-data/" + LOCAL_SCHEDULE));
+    }
+
+    /**
+     * Conditional GET of the agenda - sends validators of the previously fetched version, if there is one.
+     * Unlike {@link #schedule()} there is no fallback to the local copy.
+     *
+     * @return empty when the agenda was not modified
+     */
+    public Optional<Fetched> fetchIfModified(Fetched previous) throws IOException {
+        URLConnection connection = open(path);
+        if (previous != null && previous.getEtag() != null) {
+            connection.setRequestProperty("If-None-Match", previous.getEtag());
+        }
+        if (previous != null && previous.getLastModified() > 0) {
+            connection.setIfModifiedSince(previous.getLastModified());
+        }
+
+        if (connection instanceof HttpURLConnection) {
+            int status = ((HttpURLConnection) connection).getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return Optional.empty();
+            }
+            if (status >= 400) {
+                throw new IOException("Agenda " + path + " responded with " + status);
+            }
+        } else if (previous != null && previous.getLastModified() > 0
+                && connection.getLastModified() == previous.getLastModified()) {
+            //file: and jar: connections ignore If-Modified-Since
+            return Optional.empty();
+        }
+
+        try (InputStream stream = connection.getInputStream()) {
+            return Optional.of(new Fetched(getScheduleFrom(stream),
+                    connection.getHeaderField("ETag"),
+                    connection.getLastModified()));
+        }
+    }
+
+    private static URLConnection open(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout((int) CONNECT_TIMEOUT.toMillis());
+        connection.setReadTimeout((int) READ_TIMEOUT.toMillis());
+        return connection;
+    }
+
     private Schedule getScheduleFrom(InputStream stream) throws IOException {
+        ScheduleDay[] scheduleDays = MAPPER.readValue(stream, AgendaDocument.class).agenda;
+        return new Schedule(scheduleDays);
+    }
+
+    private static ObjectMapper mapper() {
         SimpleModule module = new SimpleModule();
         module.addDeserializer(ScheduleDay.class, new ScheduleDayDeserializer());
 
-        ObjectMapper mapper = new ObjectMapper(new YAMLFactory())
+        return new ObjectMapper(new YAMLFactory())
                 .registerModule(new JavaTimeModule())
                 .registerModule(module)
                 .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
 
-        JsonNode days = mapper.readTree(stream)
-                .at("/agenda");
-        ScheduleDay[] scheduleDays = mapper.treeToValue(days, ScheduleDay[].class);
-        return new Schedule(scheduleDays);
+    /**
+     * Binds the days straight from the YAML stream, without building a tree of the whole document first.
+     */
+    private static class AgendaDocument {
+        @JsonProperty("agenda")
+        ScheduleDay[] agenda;
+    }
+
+    @Value
+    public static class Fetched {
+        Schedule schedule;
+        String etag;
+        long lastModified;
     }
 }
 
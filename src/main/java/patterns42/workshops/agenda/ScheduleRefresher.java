@@ -0,0 +1,111 @@
+package patterns42.workshops.agenda;
+
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.agenda.model.Session;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Polls the agenda in the background and publishes every valid new version to the listeners, in the order
+ * they were registered. Requests keep using the last published schedule, however slow or broken the agenda
+ * endpoint is.
+ */
+@Slf4j
+public class ScheduleRefresher {
+
+    private final ScheduleParser parser;
+    private final List<Consumer<Schedule>> listeners = new CopyOnWriteArrayList<>();
+    private volatile Schedule current;
+    private ScheduleParser.Fetched lastFetched;
+
+    public ScheduleRefresher(ScheduleParser parser, Schedule initial) {
+        this.parser = parser;
+        this.current = initial;
+    }
+
+    public Schedule current() {
+        return current;
+    }
+
+    public void onChange(Consumer<Schedule> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return true when a new schedule was published
+     */
+    public synchronized boolean refresh() {
+        Optional<ScheduleParser.Fetched> fetched;
+        try {
+            fetched = parser.fetchIfModified(lastFetched);
+        } catch (Exception e) {
+            log.warn("Agenda not refreshed, keeping the current schedule", e);
+            return false;
+        }
+        if (fetched.isEmpty()) {
+            log.debug("Agenda not modified");
+            return false;
+        }
+
+        Schedule schedule = fetched.get().getSchedule();
+        try {
+            validate(schedule);
+        } catch (IllegalStateException e) {
+            log.warn("Agenda rejected, keeping the current schedule: {}", e.getMessage());
+            return false;
+        }
+        lastFetched = fetched.get();
+        if (schedule.equals(current)) {
+            return false;
+        }
+
+        log.info("Publishing new schedule {}", ScheduleChanges.between(current, schedule));
+        this.current = schedule;
+        for (Consumer<Schedule> listener : listeners) {
+            try {
+                listener.accept(schedule);
+            } catch (RuntimeException e) {
+                log.error("Schedule listener failed", e);
+            }
+        }
+        return true;
+    }
+
+    public void refreshEvery(Duration period) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "schedule-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registration needs some workshops, every one with a title and a seat limit.
+     */
+    public static void validate(Schedule schedule) {
+        List<Session> workshops = schedule.getAllSessions().stream()
+                .filter(Session::isWorkshop)
+                .collect(Collectors.toList());
+        if (workshops.isEmpty()) {
+            throw new IllegalStateException("no workshops");
+        }
+        for (Session workshop : workshops) {
+            if (workshop.getTitle() == null || workshop.getTitle().isBlank()) {
+                throw new IllegalStateException("workshop without a title");
+            }
+            if (workshop.getSeats() == null || workshop.getSeats() <= 0) {
+                throw new IllegalStateException("no seat limit for " + workshop.getTitle());
+            }
+        }
+    }
+}
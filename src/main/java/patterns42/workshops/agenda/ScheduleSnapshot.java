@@ -0,0 +1,201 @@
+package patterns42.workshops.agenda;
+
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.agenda.model.ScheduleDay;
+import patterns42.workshops.agenda.model.Session;
+import patterns42.workshops.agenda.model.Speaker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Last good schedule in a small binary file, read back in milliseconds when the agenda endpoint is slow at
+ * startup. Written to a temporary file and moved in place; a truncated or foreign file fails the checksum and is
+ * ignored.
+ */
+@Slf4j
+public class ScheduleSnapshot {
+
+    private static final int MAGIC = 0x53465553;
+    private static final int FORMAT = 1;
+    private static final int MAX_STRING_BYTES = 1 << 20;
+    private static final int MAX_COUNT = 1 << 16;
+
+    private final Path file;
+
+    public ScheduleSnapshot(Path file) {
+        this.file = file;
+    }
+
+    public void save(Schedule schedule) {
+        try {
+            Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), "schedule", ".tmp");
+            try (OutputStream stream = Files.newOutputStream(temporary)) {
+                write(schedule, stream);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Schedule snapshot saved [file={}, bytes={}]", file, Files.size(file));
+        } catch (IOException e) {
+            log.warn("Schedule snapshot not saved [file={}]", file, e);
+        }
+    }
+
+    public Optional<Schedule> load() {
+        try (InputStream stream = Files.newInputStream(file)) {
+            Schedule schedule = read(stream);
+            log.info("Schedule snapshot loaded [file={}]", file);
+            return Optional.of(schedule);
+        } catch (NoSuchFileException e) {
+            log.info("No schedule snapshot [file={}]", file);
+        } catch (IOException e) {
+            log.warn("Schedule snapshot unreadable [file={}]", file, e);
+        }
+        return Optional.empty();
+    }
+
+    static void write(Schedule schedule, OutputStream stream) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream), new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeInt(schedule.getDays().size());
+        for (ScheduleDay day : schedule.getDays()) {
+            out.writeInt(day.getTimeslots().size());
+            for (Map.Entry<String, List<Session>> timeslot : day.getTimeslots().entrySet()) {
+                writeString(out, timeslot.getKey());
+                out.writeInt(timeslot.getValue().size());
+                for (Session session : timeslot.getValue()) {
+                    writeSession(out, session);
+                }
+            }
+        }
+        out.flush();
+        out.writeLong(checked.getChecksum().getValue());
+        out.flush();
+    }
+
+    static Schedule read(InputStream stream) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(stream), new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+            throw new IOException("Not a schedule snapshot");
+        }
+        ScheduleDay[] days = new ScheduleDay[readCount(in)];
+        for (int d = 0; d < days.length; d++) {
+            int timeslotCount = readCount(in);
+            Map<String, List<Session>> timeslots = new LinkedHashMap<>();
+            for (int t = 0; t < timeslotCount; t++) {
+                String hour = readString(in);
+                int sessionCount = readCount(in);
+                List<Session> sessions = new ArrayList<>(sessionCount);
+                for (int s = 0; s < sessionCount; s++) {
+                    sessions.add(readSession(in));
+                }
+                timeslots.put(hour, sessions);
+            }
+            days[d] = new ScheduleDay(timeslots);
+        }
+        long expected = checked.getChecksum().getValue();
+        if (in.readLong() != expected) {
+            throw new IOException("Schedule snapshot checksum mismatch");
+        }
+        return new Schedule(days);
+    }
+
+    private static void writeSession(DataOutputStream out, Session session) throws IOException {
+        writeString(out, session.getTitle());
+        writeString(out, session.getDescription());
+        out.writeInt(session.getSeats() == null ? -1 : session.getSeats());
+        out.writeByte(session.getType() == null ? -1 : session.getType().ordinal());
+        List<Speaker> speakers = session.getSpeakers();
+        out.writeInt(speakers == null ? -1 : speakers.size());
+        if (speakers != null) {
+            for (Speaker speaker : speakers) {
+                writeString(out, speaker.getName());
+                writeString(out, speaker.getBio());
+                writeString(out, speaker.getPhoto());
+            }
+        }
+    }
+
+    private static Session readSession(DataInputStream in) throws IOException {
+        Session session = new Session();
+        session.setTitle(readString(in));
+        session.setDescription(readString(in));
+        int seats = in.readInt();
+        session.setSeats(seats < 0 ? null : seats);
+        byte type = in.readByte();
+        if (type >= Session.SessionType.values().length) {
+            throw new IOException("Schedule snapshot corrupted, unknown session type " + type);
+        }
+        session.setType(type < 0 ? null : Session.SessionType.values()[type]);
+        int speakerCount = in.readInt();
+        if (speakerCount < 0) {
+            session.setSpeakers(null);
+        } else {
+            if (speakerCount > MAX_COUNT) {
+                throw new IOException("Schedule snapshot corrupted, " + speakerCount + " speakers");
+            }
+            List<Speaker> speakers = new ArrayList<>(speakerCount);
+            for (int i = 0; i < speakerCount; i++) {
+                Speaker speaker = new Speaker();
+                speaker.setName(readString(in));
+                speaker.setBio(readString(in));
+                speaker.setPhoto(readString(in));
+                speakers.add(speaker);
+            }
+            session.setSpeakers(speakers);
+        }
+        return session;
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_COUNT) {
+            throw new IOException("Schedule snapshot corrupted, count of " + count);
+        }
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_STRING_BYTES) {
+            throw new IOException("Schedule snapshot corrupted, string of " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
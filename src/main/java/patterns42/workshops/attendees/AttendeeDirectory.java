@@ -0,0 +1,117 @@
+package patterns42.workshops.attendees;
+
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * All attendees kept in memory, so resolving a hash from the URL - known or not - never reaches the database.
+ * The index is immutable and replaced as a whole on {@link #reload()}.
+ */
+@Slf4j
+public class AttendeeDirectory {
+
+    private final Supplier<List<User>> loader;
+    private volatile Index index = Index.of(List.of());
+
+    public AttendeeDirectory(Supplier<List<User>> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * @return attendee with given hash or {@code null} when there is none
+     */
+    public User find(String hash) {
+        return index.find(hash);
+    }
+
+    public int size() {
+        return index.size;
+    }
+
+    public void reload() {
+        long start = System.currentTimeMillis();
+        Index fresh = Index.of(loader.get());
+        this.index = fresh;
+        log.info("Attendee directory loaded [attendees={}, took={}ms]", fresh.size, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Picks up attendees imported through other application nodes.
+     */
+    public void reloadEvery(Duration period) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "attendees-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reload();
+            } catch (RuntimeException e) {
+                log.warn("Attendee directory reload failed, keeping previous one", e);
+            }
+        }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open addressing hash table with linear probing, at most half full.
+     */
+    static class Index {
+        final String[] hashes;
+        final User[] users;
+        final int mask;
+        final int size;
+
+        private Index(String[] hashes, User[] users, int size) {
+            this.hashes = hashes;
+            this.users = users;
+            this.mask = hashes.length - 1;
+            this.size = size;
+        }
+
+        static Index of(List<User> attendees) {
+            int capacity = Integer.highestOneBit(Math.max(2, attendees.size()) * 2 - 1) << 1;
+            String[] hashes = new String[capacity];
+            User[] users = new User[capacity];
+            int size = 0;
+            for (User user : attendees) {
+                int slot = spread(user.getHash().hashCode()) & (capacity - 1);
+                while (hashes[slot] != null && !hashes[slot].equals(user.getHash())) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                if (hashes[slot] == null) {
+                    size++;
+                }
+                hashes[slot] = user.getHash();
+                users[slot] = user;
+            }
+            return new Index(hashes, users, size);
+        }
+
+        User find(String hash) {
+            if (hash == null) {
+                return null;
+            }
+            int slot = spread(hash.hashCode()) & mask;
+            String candidate;
+            while ((candidate = hashes[slot]) != null) {
+                if (candidate.equals(hash)) {
+                    return users[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+    }
+}
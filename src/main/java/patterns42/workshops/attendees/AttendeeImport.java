@@ -0,0 +1,97 @@
+package patterns42.workshops.attendees;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.UserDataParser;
+import patterns42.workshops.dao.Storage;
+import patterns42.workshops.dao.UsersDao.ImportCounts;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Loads a tab separated attendee list while it is still being received: lines are parsed one at a time and
+ * repeated hashes are dropped on the way to {@link Storage#importUsers}.
+ */
+@Slf4j
+public class AttendeeImport {
+
+    private final Storage storage;
+    private final UserDataParser parser;
+
+    public AttendeeImport(Storage storage, UserDataParser parser) {
+        this.storage = storage;
+        this.parser = parser;
+    }
+
+    /**
+     * The test account is always imported along with the list.
+     *
+     * @throws IllegalArgumentException when a line can't be parsed, nothing is imported then
+     */
+    public Result load(BufferedReader body) throws IOException {
+        long start = System.currentTimeMillis();
+        Unique unique = new Unique(Stream.concat(parser.stream(body), Stream.of(UserDataParser.TEST_USER)).iterator());
+        ImportCounts counts = storage.importUsers(unique);
+        Result result = Result.builder()
+                .read(unique.read)
+                .inserted(counts.getInserted())
+                .updated(counts.getUpdated())
+                .skipped(counts.getSkipped() + unique.read - unique.hashes.size())
+                .build();
+        log.info("Attendees imported [{}, took={}ms]", result, System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * First occurrence of every hash, counting all of them.
+     */
+    private static class Unique implements Iterator<User> {
+        private final Iterator<User> users;
+        private final Set<String> hashes = new HashSet<>();
+        private int read;
+        private User next;
+
+        Unique(Iterator<User> users) {
+            this.users = users;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && users.hasNext()) {
+                User user = users.next();
+                read++;
+                if (hashes.add(user.getHash())) {
+                    next = user;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public User next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            User user = next;
+            next = null;
+            return user;
+        }
+    }
+
+    @Value
+    @Builder
+    public static class Result {
+        int read;
+        int inserted;
+        int updated;
+        int skipped;
+    }
+}
@@ -0,0 +1,292 @@
+package patterns42.workshops.dao;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.JdbiException;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import patterns42.workshops.metrics.LatencyHistogram;
+import patterns42.workshops.metrics.Metrics;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps caches of several application nodes in step. A node publishes a small change event with
+ * {@code pg_notify} in the transaction that stores a registration or an attendee import; every node listens on the
+ * same channel and applies changes of the others to its caches as deltas.
+ * <p>
+ * Changes are numbered by a database sequence. A committed one that does not show up in time (the listening
+ * connection dropped, a notification was lost) makes the node reload its caches from the database - as does every
+ * (re)connect, since nothing was heard while not listening. Numbers of committed changes are recorded for
+ * {@code retention}, so that one taken by a transaction that rolled back is told apart.
+ */
+@Slf4j
+public class ChangeFeed {
+
+    static final String CHANNEL = "workshops_changes";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Jdbi jdbi;
+    private final Settings settings;
+    private final String node = UUID.randomUUID().toString().substring(0, 8);
+    private final SequenceGaps gaps;
+    private final LatencyHistogram latency;
+    private final Map<Change.Type, LongAdder> received = new EnumMap<>(Change.Type.class);
+    private final Map<Resync, LongAdder> resyncs = new EnumMap<>(Resync.class);
+    private final LongAdder rolledBackNumbers;
+
+    /**
+     * @param jdbcUrl the listening connection is kept open for good, so it doesn't come from the pool
+     */
+    public ChangeFeed(String jdbcUrl, Settings settings, Metrics metrics) {
+        this.jdbi = Jdbi.create(jdbcUrl);
+        this.jdbi.installPlugin(new SqlObjectPlugin());
+        this.settings = settings;
+        this.gaps = new SequenceGaps(settings.getGapGrace(), settings.getMaxGap());
+        this.latency = metrics.histogram("workshops_change_feed_latency_seconds",
+                "Time from a change being published on one node to its caches being updated on another");
+        for (Change.Type type : Change.Type.values()) {
+            received.put(type, metrics.counter("workshops_change_feed_received_total",
+                    "Changes received from the feed, own ones included", "type", type.name().toLowerCase()));
+        }
+        for (Resync reason : Resync.values()) {
+            resyncs.put(reason, metrics.counter("workshops_change_feed_resyncs_total",
+                    "Caches reloaded from the database instead of updated by changes", "reason", reason.name().toLowerCase()));
+        }
+        this.rolledBackNumbers = metrics.counter("workshops_change_feed_rolled_back_total",
+                "Missing change sequence numbers taken by transactions that rolled back");
+        metrics.gauge("workshops_change_feed_sequence", "Highest change sequence number seen", this::getHighest);
+    }
+
+    /**
+     * Publishes a registration in the transaction of {@code handle}.
+     *
+     * @return sequence number of the change
+     */
+    public long registered(Handle handle, String hash, Set<String> previous, Set<String> chosen) {
+        return publish(handle, Change.builder()
+                .type(Change.Type.REGISTRATION)
+                .hash(hash)
+                .previous(previous)
+                .chosen(chosen)
+                .build());
+    }
+
+    /**
+     * Publishes an import that changed some attendees in the transaction of {@code handle}. The attendees
+     * themselves are not sent, a notification carries at most 8000 bytes - nodes reload the list.
+     */
+    public void attendeesChanged(Handle handle) {
+        publish(handle, Change.builder()
+                .type(Change.Type.ATTENDEES)
+                .build());
+    }
+
+    private long publish(Handle handle, Change change) {
+        change.setNode(node);
+        change.setPublishedMillis(System.currentTimeMillis());
+        try {
+            return handle.attach(ChangesDao.class).publish(MAPPER.writeValueAsString(change));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Can't serialize change " + change, e);
+        }
+    }
+
+    public void start(Subscriber subscriber) {
+        Thread thread = new Thread(() -> listen(subscriber), "change-feed");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Change feed started [node={}, {}]", node, settings);
+    }
+
+    private void listen(Subscriber subscriber) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Handle handle = jdbi.open()) {
+                handle.execute("LISTEN " + CHANNEL);
+                resync(handle, subscriber, Resync.CONNECT);
+                PGConnection connection = handle.getConnection().unwrap(PGConnection.class);
+                long pruned = System.nanoTime();
+                while (!Thread.currentThread().isInterrupted()) {
+                    PGNotification[] notifications = connection.getNotifications((int) settings.getPoll().toMillis());
+                    boolean inOrder = true;
+                    for (PGNotification notification : notifications == null ? new PGNotification[0] : notifications) {
+                        inOrder &= receive(notification.getParameter(), subscriber);
+                    }
+                    if ((!inOrder || gaps.expired(System.nanoTime())) && !rolledBack(handle)) {
+                        resync(handle, subscriber, Resync.GAP);
+                    }
+                    if (System.nanoTime() - pruned > settings.getRetention().toNanos()) {
+                        handle.attach(ChangesDao.class).prune(settings.getRetention().toSeconds());
+                        pruned = System.nanoTime();
+                    }
+                }
+            } catch (SQLException | JdbiException e) {
+                log.warn("Change feed connection lost, reconnecting in {}ms", settings.getReconnect().toMillis(), e);
+                try {
+                    Thread.sleep(settings.getReconnect().toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false when a missed change was detected
+     */
+    boolean receive(String payload, Subscriber subscriber) {
+        Change change;
+        long sequence;
+        try {
+            int space = payload.indexOf(' ');
+            sequence = Long.parseLong(payload.substring(0, space));
+            change = MAPPER.readValue(payload.substring(space + 1), Change.class);
+            Objects.requireNonNull(change.getType(), "type");
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring malformed change [payload={}]", payload, e);
+            return true;
+        }
+        received.get(change.getType()).increment();
+        boolean inOrder = gaps.accept(sequence, System.nanoTime());
+        if (!node.equals(change.getNode())) {
+            //own changes are already in the caches of this node
+            apply(change, sequence, subscriber);
+            latency.record(Math.max(0, System.currentTimeMillis() - change.getPublishedMillis()), TimeUnit.MILLISECONDS);
+        }
+        return inOrder;
+    }
+
+    private static void apply(Change change, long sequence, Subscriber subscriber) {
+        try {
+            switch (change.getType()) {
+                case REGISTRATION:
+                    subscriber.registered(change.getHash(), change.getPrevious(), change.getChosen(), sequence);
+                    break;
+                case ATTENDEES:
+                    subscriber.attendeesChanged();
+                    break;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not apply change {}", change, e);
+        }
+    }
+
+    /**
+     * Forgets overdue sequence numbers that no committed change has.
+     *
+     * @return true when nothing was lost after all
+     */
+    private boolean rolledBack(Handle handle) {
+        long now = System.nanoTime();
+        List<Long> overdue = gaps.overdue(now);
+        if (overdue.isEmpty()) {
+            //a gap too big to wait for
+            return false;
+        }
+        if (!handle.attach(ChangesDao.class).committed(overdue).isEmpty()) {
+            return false;
+        }
+        gaps.forget(overdue);
+        rolledBackNumbers.add(overdue.size());
+        return !gaps.expired(now);
+    }
+
+    /**
+     * Reloads caches, gap tracking starts over from the current sequence number. Notifications already buffered
+     * may carry changes the reload has read - or, numbered below it but committed later, has not - so it is the
+     * subscriber that skips them by the change numbers its reload included.
+     */
+    private void resync(Handle handle, Subscriber subscriber, Resync reason) {
+        long sequence = handle.attach(ChangesDao.class).lastSequence();
+        gaps.reset(sequence);
+        resyncs.get(reason).increment();
+        log.info("Change feed resync [reason={}, sequence={}]", reason, sequence);
+        try {
+            subscriber.resync();
+        } catch (RuntimeException e) {
+            log.warn("Change feed resync failed, caches catch up on their next reload", e);
+        }
+    }
+
+    private long getHighest() {
+        return gaps.getHighest();
+    }
+
+    /**
+     * Caches kept in step by the feed.
+     */
+    public interface Subscriber {
+        /**
+         * @param sequence number of the change, one a preceding {@link #resync} may have loaded already
+         */
+        void registered(String hash, Set<String> previous, Set<String> chosen, long sequence);
+
+        void attendeesChanged();
+
+        /**
+         * Changes might have been missed, everything has to be loaded again.
+         */
+        void resync();
+    }
+
+    private enum Resync {CONNECT, GAP}
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    static class Change {
+        Type type;
+        String node;
+        long publishedMillis;
+        String hash;
+        Set<String> previous;
+        Set<String> chosen;
+
+        enum Type {REGISTRATION, ATTENDEES}
+    }
+
+    @Value
+    @Builder
+    public static class Settings {
+        /**
+         * How long a missing sequence number may be outrun by later ones before it counts as lost.
+         */
+        @Builder.Default
+        final Duration gapGrace = Duration.ofSeconds(2);
+        /**
+         * Bigger gaps are not waited for.
+         */
+        @Builder.Default
+        final int maxGap = 1000;
+        @Builder.Default
+        final Duration poll = Duration.ofMillis(500);
+        @Builder.Default
+        final Duration reconnect = Duration.ofSeconds(1);
+        /**
+         * How long numbers of committed changes are kept - far longer than {@code gapGrace}.
+         */
+        @Builder.Default
+        final Duration retention = Duration.ofMinutes(10);
+    }
+}
@@ -0,0 +1,50 @@
+package patterns42.workshops.dao;
+
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface ChangesDao {
+
+    /**
+     * Numbers {@code change}, records the number and sends the change to every node listening on
+     * {@code workshops_changes}. Delivered and recorded when the surrounding transaction commits, dropped with it
+     * on rollback - the number is used up either way.
+     *
+     * @return sequence number of the change
+     */
+    @SqlQuery("with next as (select nextval('workshops_change_seq') as seq), " +
+            "recorded as (insert into workshops_changes (seq) select seq from next returning seq) " +
+            "select seq from recorded, pg_notify('" + ChangeFeed.CHANNEL + "', seq || ' ' || :change)")
+    long publish(@Bind("change") String change);
+
+    /**
+     * Which of {@code sequences} belong to committed changes.
+     */
+    @SqlQuery("select seq from workshops_changes where seq in (<sequences>)")
+    List<Long> committed(@BindList("sequences") Collection<Long> sequences);
+
+    @SqlUpdate("delete from workshops_changes where insert_date < now() - make_interval(secs => :seconds)")
+    int prune(@Bind("seconds") long seconds);
+
+    /**
+     * Highest number of a change committed and still recorded, 0 when none is.
+     */
+    @SqlQuery("select coalesce(max(seq), 0) from workshops_changes")
+    long lastCommitted();
+
+    /**
+     * Numbers among the {@code window} up to {@code sequence} that no committed change has: taken by a
+     * transaction still in flight, one that rolled back, or pruned already.
+     */
+    @SqlQuery("select s from generate_series(greatest(:sequence - :window + 1, 1), :sequence) s " +
+            "where not exists (select 1 from workshops_changes where seq = s)")
+    List<Long> uncommitted(@Bind("sequence") long sequence, @Bind("window") int window);
+
+    @SqlQuery("select case when is_called then last_value else 0 end from workshops_change_seq")
+    long lastSequence();
+}
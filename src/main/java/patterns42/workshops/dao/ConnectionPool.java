@@ -0,0 +1,59 @@
+package patterns42.workshops.dao;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/**
+ * Bounded pool of PostgreSQL connections, so requests reuse connections instead of opening a new one per call.
+ */
+@Slf4j
+public class ConnectionPool {
+
+    private final HikariDataSource dataSource;
+    private final PoolMetrics metrics = new PoolMetrics();
+
+    public ConnectionPool(String jdbcUrl, Settings settings) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("workshops");
+        config.setJdbcUrl(jdbcUrl);
+        config.setMaximumPoolSize(settings.getSize());
+        config.setMinimumIdle(settings.getSize());
+        config.setConnectionTimeout(settings.getAcquireTimeout().toMillis());
+        config.setValidationTimeout(settings.getValidationTimeout().toMillis());
+        config.setKeepaliveTime(settings.getKeepalive().toMillis());
+        config.setMetricsTrackerFactory(metrics);
+        this.dataSource = new HikariDataSource(config);
+        log.info("Connection pool started {}", settings);
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void close() {
+        dataSource.close();
+    }
+
+    @Value
+    @Builder
+    public static class Settings {
+        @Builder.Default
+        final int size = 10;
+        @Builder.Default
+        final Duration acquireTimeout = Duration.ofSeconds(5);
+        @Builder.Default
+        final Duration validationTimeout = Duration.ofSeconds(1);
+        @Builder.Default
+        final Duration keepalive = Duration.ofMinutes(2);
+    }
+}
@@ -0,0 +1,42 @@
+package patterns42.workshops.dao;
+
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.Handler;
+import org.jdbi.v3.sqlobject.HandlerDecorator;
+import org.jdbi.v3.sqlobject.HandlerDecorators;
+import patterns42.workshops.metrics.LatencyHistogram;
+import patterns42.workshops.metrics.Metrics;
+
+import java.lang.reflect.Method;
+
+/**
+ * Times every SqlObject method ({@link SessionsDao}, {@link UsersDao}, ...). The histogram is looked up once,
+ * when Jdbi builds the method's handler - a call only reads the clock twice and records.
+ */
+public class DaoTimers implements HandlerDecorator {
+
+    private final Metrics metrics;
+
+    DaoTimers(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public static void install(Jdbi jdbi, Metrics metrics) {
+        jdbi.getConfig(HandlerDecorators.class).register(new DaoTimers(metrics));
+    }
+
+    @Override
+    public Handler decorateHandler(Handler base, Class<?> sqlObjectType, Method method) {
+        LatencyHistogram histogram = metrics.histogram("workshops_dao_duration_seconds",
+                "Duration of DAO method calls, including their transaction when they open one",
+                "dao", sqlObjectType.getSimpleName(), "method", method.getName());
+        return (target, args, handle) -> {
+            long start = System.nanoTime();
+            try {
+                return base.invoke(target, args, handle);
+            } finally {
+                histogram.recordNanos(System.nanoTime() - start);
+            }
+        };
+    }
+}
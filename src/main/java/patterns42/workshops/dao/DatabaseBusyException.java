@@ -0,0 +1,8 @@
+package patterns42.workshops.dao;
+
+public class DatabaseBusyException extends RuntimeException {
+
+    public DatabaseBusyException(int capacity) {
+        super("Database executor saturated, " + capacity + " tasks already admitted");
+    }
+}
@@ -0,0 +1,171 @@
+package patterns42.workshops.dao;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.metrics.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs blocking database work away from the HTTP threads. At most {@code threads} tasks run at once and at most
+ * {@code queue} more wait for their turn; anything beyond that is refused right away with
+ * {@link DatabaseBusyException} instead of piling up behind a slow database.
+ * <p>
+ * Uses virtual threads when the JDK has them (looked up reflectively, the build targets Java 11), a fixed pool
+ * of platform threads otherwise.
+ */
+@Slf4j
+public class DatabaseExecutor {
+
+    private final Settings settings;
+    private final ExecutorService executor;
+    private final Semaphore admitted;
+    private final Semaphore running;
+    private final boolean virtual;
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LatencyHistogram queueTime = new LatencyHistogram();
+
+    public DatabaseExecutor(Settings settings) {
+        this.settings = settings;
+        this.admitted = new Semaphore(settings.getThreads() + settings.getQueue());
+        ExecutorService virtualThreads = settings.isVirtualThreads() ? virtualThreadExecutor() : null;
+        if (virtualThreads != null) {
+            this.executor = virtualThreads;
+            this.running = new Semaphore(settings.getThreads(), true);
+            this.virtual = true;
+        } else {
+            AtomicInteger counter = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(settings.getThreads(), settings.getThreads(),
+                    0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(settings.getQueue() + settings.getThreads()),
+                    r -> {
+                        Thread thread = new Thread(r, "db-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            this.running = null;
+            this.virtual = false;
+        }
+        log.info("Database executor started {} [virtualThreads={}]", settings, virtual);
+    }
+
+    /**
+     * @return future completed with the result of {@code work} or with the exception it threw, unwrapped
+     * @throws DatabaseBusyException when {@code threads + queue} tasks are already admitted
+     */
+    public <T> CompletableFuture<T> supply(Callable<T> work) {
+        if (!admitted.tryAcquire()) {
+            rejected.increment();
+            throw new DatabaseBusyException(settings.getThreads() + settings.getQueue());
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        try {
+            executor.execute(() -> run(work, result, submitted));
+        } catch (RuntimeException e) {
+            admitted.release();
+            throw e;
+        }
+        return result;
+    }
+
+    public CompletableFuture<Void> run(Runnable work) {
+        return supply(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    private <T> void run(Callable<T> work, CompletableFuture<T> result, long submitted) {
+        T value = null;
+        Throwable failure = null;
+        try {
+            if (running != null) {
+                running.acquireUninterruptibly();
+            }
+            queueTime.recordNanos(System.nanoTime() - submitted);
+            active.incrementAndGet();
+            try {
+                value = work.call();
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                active.decrementAndGet();
+                if (running != null) {
+                    running.release();
+                }
+            }
+        } finally {
+            //free the slot before completing, so whatever the caller chains next can be admitted
+            admitted.release();
+        }
+        if (failure == null) {
+            result.complete(value);
+        } else {
+            result.completeExceptionally(failure);
+        }
+    }
+
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public int getQueued() {
+        return settings.getThreads() + settings.getQueue() - admitted.availablePermits() - active.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("virtualThreads", virtual);
+        result.put("threads", settings.getThreads());
+        result.put("queue", settings.getQueue());
+        result.put("active", getActive());
+        result.put("queued", Math.max(0, getQueued()));
+        result.put("rejected", getRejected());
+        Map<String, Object> waited = new LinkedHashMap<>();
+        waited.put("p50", queueTime.valueAtPercentile(50));
+        waited.put("p99", queueTime.valueAtPercentile(99));
+        waited.put("max", queueTime.valueAtPercentile(100));
+        result.put("queueMicros", waited);
+        return result;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Value
+    @Builder
+    public static class Settings {
+        @Builder.Default
+        final int threads = 10;
+        @Builder.Default
+        final int queue = 100;
+        @Builder.Default
+        final boolean virtualThreads = true;
+    }
+}
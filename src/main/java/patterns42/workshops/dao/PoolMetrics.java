@@ -0,0 +1,104 @@
+package patterns42.workshops.dao;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import patterns42.workshops.metrics.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection pool gauges and timings collected through HikariCP's metrics tracker hooks.
+ */
+public class PoolMetrics implements MetricsTrackerFactory {
+
+    private final LatencyHistogram acquireTime = new LatencyHistogram();
+    private final LatencyHistogram usageTime = new LatencyHistogram();
+    private final LatencyHistogram creationTime = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private volatile PoolStats poolStats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                creationTime.record(connectionCreatedMillis, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquireTime.recordNanos(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageTime.record(elapsedBorrowedMillis, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    public int getActive() {
+        return poolStats == null ? 0 : poolStats.getActiveConnections();
+    }
+
+    public int getIdle() {
+        return poolStats == null ? 0 : poolStats.getIdleConnections();
+    }
+
+    public int getWaiting() {
+        return poolStats == null ? 0 : poolStats.getPendingThreads();
+    }
+
+    public int getMax() {
+        return poolStats == null ? 0 : poolStats.getMaxConnections();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public LatencyHistogram getAcquireTime() {
+        return acquireTime;
+    }
+
+    public LatencyHistogram getUsageTime() {
+        return usageTime;
+    }
+
+    public LatencyHistogram getCreationTime() {
+        return creationTime;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("active", getActive());
+        result.put("idle", getIdle());
+        result.put("waiting", getWaiting());
+        result.put("max", getMax());
+        result.put("timeouts", getTimeouts());
+        result.put("acquireMicros", summary(acquireTime));
+        result.put("usageMicros", summary(usageTime));
+        result.put("creationMicros", summary(creationTime));
+        return result;
+    }
+
+    private static Map<String, Object> summary(LatencyHistogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("count", histogram.getCount());
+        result.put("p50", histogram.valueAtPercentile(50));
+        result.put("p99", histogram.valueAtPercentile(99));
+        result.put("p999", histogram.valueAtPercentile(99.9));
+        result.put("max", histogram.valueAtPercentile(100));
+        return result;
+    }
+}
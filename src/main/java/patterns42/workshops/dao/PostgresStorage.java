@@ -0,0 +1,311 @@
+package patterns42.workshops.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.result.ResultIterator;
+import org.jdbi.v3.core.statement.UnableToExecuteStatementException;
+import org.jdbi.v3.core.transaction.TransactionIsolationLevel;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import patterns42.workshops.dao.SessionsDao.Moved;
+import patterns42.workshops.dao.SessionsDao.Popularity;
+import patterns42.workshops.dao.SessionsDao.PopularityRank;
+import patterns42.workshops.dao.SessionsDao.Promotion;
+import patterns42.workshops.dao.SessionsDao.RegistrationDto;
+import patterns42.workshops.dao.SessionsDao.SeatCounter;
+import patterns42.workshops.dao.SessionsDao.SessionDto;
+import patterns42.workshops.dao.SessionsDao.WaitlistEntry;
+import patterns42.workshops.dao.UsersDao.ImportCounts;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Storage shared by any number of application nodes: {@link SessionsDao} and {@link UsersDao} over the
+ * connection pool, choices written through the {@link RegistrationWriter} group commit. Registrations and imports
+ * are announced to the other nodes on the {@link ChangeFeed}.
+ */
+@Slf4j
+public class PostgresStorage implements Storage {
+
+    private static final int COPY_CHUNK_BYTES = 64 * 1024;
+    /**
+     * How far below the last committed change numbers taken by transactions still in flight are looked for.
+     */
+    private static final int PENDING_CHANGES = 1000;
+    /**
+     * Transactions a write may spend on attendees it had to skip, before leaving the rest to the next write.
+     */
+    private static final int BUSY_ROUNDS = 3;
+
+    private final Jdbi jdbi;
+    private final ConnectionPool pool;
+    private final RegistrationWriter writer;
+    private final ChangeFeed changes;
+    private final Set<String> deferredBusy = ConcurrentHashMap.newKeySet();
+
+    public PostgresStorage(Jdbi jdbi, ConnectionPool pool, RegistrationWriter writer, ChangeFeed changes) {
+        this.jdbi = jdbi;
+        this.pool = pool;
+        this.writer = writer;
+        this.changes = changes;
+    }
+
+    public ChangeFeed getChanges() {
+        return changes;
+    }
+
+    @Override
+    public List<User> latestUsers() {
+        return jdbi.withExtension(UsersDao.class, UsersDao::latestUsers);
+    }
+
+    /**
+     * Streams {@code users} through {@code COPY} into a temporary table, which is then merged into {@code users}
+     * with a single statement.
+     */
+    @Override
+    public ImportCounts importUsers(Iterator<User> users) {
+        return jdbi.inTransaction(handle -> {
+            UsersDao dao = handle.attach(UsersDao.class);
+            dao.createImportTable();
+            copy(handle, users);
+            dao.analyzeImportTable();
+            ImportCounts counts = dao.mergeImport();
+            if (counts.getInserted() + counts.getUpdated() > 0) {
+                changes.attendeesChanged(handle);
+            }
+            return counts;
+        });
+    }
+
+    private static void copy(Handle handle, Iterator<User> users) {
+        CopyIn copy;
+        try {
+            copy = handle.getConnection().unwrap(PGConnection.class).getCopyAPI()
+                    .copyIn("COPY users_import (username, hash) FROM STDIN");
+        } catch (SQLException e) {
+            throw new UnableToExecuteStatementException("Can't start COPY into users_import", e, null);
+        }
+
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream(COPY_CHUNK_BYTES + 1024);
+        try {
+            while (users.hasNext()) {
+                chunk.writeBytes(row(users.next()));
+                if (chunk.size() >= COPY_CHUNK_BYTES) {
+                    copy.writeToCopy(chunk.toByteArray(), 0, chunk.size());
+                    chunk.reset();
+                }
+            }
+            copy.writeToCopy(chunk.toByteArray(), 0, chunk.size());
+            copy.endCopy();
+        } catch (SQLException e) {
+            throw new UnableToExecuteStatementException("COPY into users_import failed", e, null);
+        } finally {
+            if (copy.isActive()) {
+                try {
+                    copy.cancelCopy();
+                } catch (SQLException e) {
+                    log.warn("Can't cancel COPY into users_import", e);
+                }
+            }
+        }
+    }
+
+    private static byte[] row(User user) {
+        return (escape(user.getName()) + '\t' + escape(user.getHash()) + '\n').getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Text format of COPY: backslash starts an escape sequence, tab and newline are delimiters.
+     */
+    static String escape(String value) {
+        if (value == null) {
+            return "\\N";
+        }
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '\\':
+                    escaped.append("\\\\");
+                    break;
+                case '\t':
+                    escaped.append("\\t");
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    escaped.append("\\r");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    @Override
+    public List<String> previousSessions(String hash) {
+        return jdbi.withExtension(SessionsDao.class, dao -> dao.previousSessions(hash));
+    }
+
+    @Override
+    public List<PopularityRank> sessionsPopularity(List<String> exclusions) {
+        return jdbi.withExtension(SessionsDao.class, dao -> dao.sessionsPopularity(exclusions));
+    }
+
+    /**
+     * Counts and change numbers from one snapshot: a change committed after it is either numbered above the
+     * last committed one or among the pending.
+     */
+    @Override
+    public Popularity popularity(List<String> exclusions) {
+        return jdbi.inTransaction(TransactionIsolationLevel.REPEATABLE_READ, handle -> {
+            ChangesDao changesDao = handle.attach(ChangesDao.class);
+            long sequence = changesDao.lastCommitted();
+            Set<Long> pending = new HashSet<>(changesDao.uncommitted(sequence, PENDING_CHANGES));
+            return new Popularity(handle.attach(SessionsDao.class).sessionsPopularity(exclusions), sequence, pending);
+        });
+    }
+
+    @Override
+    public List<RegistrationDto> allRegistrations(List<String> exclusions) {
+        return jdbi.withExtension(SessionsDao.class, dao -> dao.allRegistrations(exclusions));
+    }
+
+    /**
+     * Reads through a server-side cursor, hence the transaction.
+     */
+    @Override
+    public void forEachRegistration(List<String> exclusions, RegistrationConsumer consumer) throws IOException {
+        jdbi.useTransaction(handle -> {
+            try (ResultIterator<RegistrationDto> rows = handle.attach(SessionsDao.class).streamRegistrations(exclusions)) {
+                while (rows.hasNext()) {
+                    consumer.accept(rows.next());
+                }
+            }
+        });
+    }
+
+    @Override
+    public void seedSeatCounters(List<SeatCounter> counters) {
+        jdbi.useExtension(SessionsDao.class, dao -> dao.seedSeatCounters(counters));
+    }
+
+    @Override
+    public Moved moveSeats(String hash, List<SessionDto> sessions) {
+        return promoteBusy(writer.write(hash, sessions,
+                dao -> publish(dao, hash, sessions, dao.moveSeatsAndPromote(hash, sessions))));
+    }
+
+    @Override
+    public Moved moveSeatsOrWait(String hash, List<SessionDto> sessions) {
+        return promoteBusy(writer.write(hash, sessions,
+                dao -> publish(dao, hash, sessions, dao.moveSeatsOrWait(hash, sessions)),
+                moved -> !moved.isWaiting()));
+    }
+
+    /**
+     * Offers freed seats once more to waiting attendees the committed write had to skip, as they were busy in a
+     * transaction of their own - which could have put them on the waitlist without seeing the seats. Attendees
+     * still busy after {@code BUSY_ROUNDS} are left to the next write, so that one attendee in a hurry can't keep
+     * the submitting one waiting for good.
+     */
+    private Moved promoteBusy(Moved moved) {
+        List<Promotion> promotions = new ArrayList<>(moved.getPromotions());
+        Set<String> busy = new TreeSet<>(moved.getBusy());
+        for (Iterator<String> deferred = deferredBusy.iterator(); deferred.hasNext(); ) {
+            busy.add(deferred.next());
+            deferred.remove();
+        }
+        try {
+            for (int round = 0; round < BUSY_ROUNDS && !busy.isEmpty(); round++) {
+                Set<String> skipped = busy;
+                Moved promoted = jdbi.inTransaction(handle -> {
+                    SessionsDao dao = handle.attach(SessionsDao.class);
+                    Moved retried = dao.promoteBusy(skipped);
+                    return new Moved(Set.of(), false, publish(dao, retried.getPromotions()), retried.getBusy());
+                });
+                promotions.addAll(promoted.getPromotions());
+                busy = promoted.getBusy();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Promoting waiting attendees {} failed", busy, e);
+            busy = Set.of();
+        }
+        deferredBusy.addAll(busy);
+        return new Moved(moved.getPrevious(), moved.isWaiting(), promotions, Set.of(), moved.getSequence());
+    }
+
+    /**
+     * Promoted attendees are announced like registrations of their own.
+     *
+     * @return {@code moved} with the numbers of the published changes
+     */
+    private Moved publish(SessionsDao dao, String hash, List<SessionDto> sessions, Moved moved) {
+        long sequence = 0;
+        if (!moved.isWaiting()) {
+            Set<String> chosen = sessions.stream().map(SessionDto::getTitle).collect(Collectors.toSet());
+            sequence = changes.registered(dao.getHandle(), hash, moved.getPrevious(), chosen);
+        }
+        return new Moved(moved.getPrevious(), moved.isWaiting(), publish(dao, moved.getPromotions()),
+                moved.getBusy(), sequence);
+    }
+
+    private List<Promotion> publish(SessionsDao dao, List<Promotion> promotions) {
+        List<Promotion> published = new ArrayList<>();
+        for (Promotion promotion : promotions) {
+            published.add(promotion.numbered(changes.registered(dao.getHandle(),
+                    promotion.getHash(), promotion.getPrevious(), promotion.getChosen())));
+        }
+        return published;
+    }
+
+    @Override
+    public List<WaitlistEntry> waitlist(String hash) {
+        return jdbi.withExtension(SessionsDao.class, dao -> dao.waitlist(hash));
+    }
+
+    @Override
+    public void storeIfSeatsLeft(String hash, List<SessionDto> sessions) {
+        Set<String> titles = sessions.stream().map(SessionDto::getTitle).collect(Collectors.toSet());
+        writer.write(hash, sessions, dao -> {
+            if (dao.workshopsWithSeatsLeft(titles) < titles.size()) {
+                throw new SeatsUnavailableException(String.join(", ", titles));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void storeChoices(String hash, List<SessionDto> sessions) {
+        writer.write(hash, sessions, dao -> null);
+    }
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>(pool.getMetrics().toMap());
+        result.put("groupCommit", writer.toMap());
+        return result;
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
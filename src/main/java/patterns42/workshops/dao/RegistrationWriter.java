@@ -0,0 +1,279 @@
+package patterns42.workshops.dao;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import patterns42.workshops.dao.SessionsDao.SessionDto;
+import patterns42.workshops.dao.SessionsDao.SessionRow;
+import patterns42.workshops.metrics.LatencyHistogram;
+import patterns42.workshops.metrics.Metrics;
+import patterns42.workshops.metrics.ValueSummary;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Group commit for registrations: writes submitted at about the same time are collected for up to
+ * {@code maxWait}, or until {@code maxBatch} of them are waiting, and stored in one transaction with one
+ * multi-row insert - one commit for the whole group instead of one per attendee.
+ * <p>
+ * Each write may first do its own checks (seat counters) inside a savepoint, so a full workshop fails only
+ * that attendee and not the whole group. Callers are released after the commit, i.e. once their rows are durable.
+ */
+@Slf4j
+public class RegistrationWriter {
+
+    private final Settings settings;
+    private final Flush flush;
+    private final BlockingQueue<Write<?>> submitted = new LinkedBlockingQueue<>();
+    private final ValueSummary batchSize;
+    private final LatencyHistogram waitTime;
+    private final LatencyHistogram flushTime;
+    private final LongAdder failedBatches;
+
+    public RegistrationWriter(Jdbi jdbi, Settings settings, Metrics metrics) {
+        this(settings, batch -> jdbi.useTransaction(handle -> store(handle, batch)), metrics);
+    }
+
+    RegistrationWriter(Settings settings, Flush flush, Metrics metrics) {
+        this.settings = settings;
+        this.flush = flush;
+        this.batchSize = metrics.summary("workshops_group_commit_batch_size", "Writes stored with one commit");
+        this.waitTime = metrics.histogram("workshops_group_commit_wait_seconds",
+                "Time from a write being submitted to its group being stored");
+        this.flushTime = metrics.histogram("workshops_group_commit_flush_seconds",
+                "Time to store and commit one group");
+        this.failedBatches = metrics.counter("workshops_group_commit_failed_total",
+                "Groups that failed and were retried write by write");
+    }
+
+    /**
+     * Stores {@code sessions} as current choices of {@code hash} in the next group, after {@code prepare} succeeded
+     * in the same transaction. Blocks until the group is committed.
+     *
+     * @return result of {@code prepare}
+     */
+    public <T> T write(String hash, List<SessionDto> sessions, Function<SessionsDao, T> prepare) {
+        return write(hash, sessions, prepare, value -> true);
+    }
+
+    /**
+     * Same as {@link #write(String, List, Function)}, except that {@code sessions} are stored only when
+     * {@code store} accepts the result of {@code prepare}.
+     */
+    public <T> T write(String hash, List<SessionDto> sessions, Function<SessionsDao, T> prepare, Predicate<T> store) {
+        Write<T> write = new Write<>(hash, sessions, prepare, store);
+        submitted.add(write);
+        try {
+            return write.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::drain, "group-commit");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Group commit started {}", settings);
+    }
+
+    private void drain() {
+        Queue<Write<?>> deferred = new ArrayDeque<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<Write<?>> batch = collect(deferred);
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.error("Group commit loop failed", e);
+            }
+        }
+    }
+
+    /**
+     * Takes writes of distinct attendees only - a second write of the same hash waits for the next group,
+     * since it has to see the first one's rows.
+     */
+    List<Write<?>> collect(Queue<Write<?>> deferred) throws InterruptedException {
+        List<Write<?>> batch = new ArrayList<>();
+        Set<String> hashes = new HashSet<>();
+        int carried = deferred.size();
+        for (int i = 0; i < carried && batch.size() < settings.getMaxBatch(); i++) {
+            add(deferred.poll(), batch, hashes, deferred);
+        }
+        if (batch.isEmpty()) {
+            Write<?> first = submitted.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                return batch;
+            }
+            add(first, batch, hashes, deferred);
+        }
+        long deadline = batch.get(0).submitted + settings.getMaxWait().toNanos();
+        while (batch.size() < settings.getMaxBatch()) {
+            long remaining = deadline - System.nanoTime();
+            Write<?> next = remaining > 0 ? submitted.poll(remaining, TimeUnit.NANOSECONDS) : submitted.poll();
+            if (next == null) {
+                break;
+            }
+            add(next, batch, hashes, deferred);
+        }
+        return batch;
+    }
+
+    private static void add(Write<?> write, List<Write<?>> batch, Set<String> hashes, Queue<Write<?>> deferred) {
+        if (hashes.add(write.hash)) {
+            batch.add(write);
+        } else {
+            deferred.add(write);
+        }
+    }
+
+    void flush(List<Write<?>> batch) {
+        long started = System.nanoTime();
+        batch.forEach(write -> waitTime.recordNanos(started - write.submitted));
+        batchSize.record(batch.size());
+        try {
+            flush.flush(batch);
+        } catch (RuntimeException e) {
+            failedBatches.increment();
+            if (batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(e);
+                return;
+            }
+            //one bad write (or a deadlock with another node) must not fail the others - retry them one by one
+            log.warn("Group of {} writes failed, retrying separately", batch.size(), e);
+            batch.forEach(write -> flush(List.of(write)));
+            return;
+        } finally {
+            flushTime.recordNanos(System.nanoTime() - started);
+        }
+        batch.forEach(Write::complete);
+    }
+
+    private static void store(Handle handle, List<Write<?>> batch) {
+        SessionsDao dao = handle.attach(SessionsDao.class);
+        List<SessionRow> rows = new ArrayList<>();
+        for (Write<?> write : batch) {
+            handle.savepoint("write");
+            try {
+                write.prepare(dao);
+                handle.release("write");
+            } catch (RuntimeException e) {
+                handle.rollbackToSavepoint("write");
+                write.failure = e;
+                continue;
+            }
+            if (!write.stores()) {
+                continue;
+            }
+            write.sessions.forEach(session ->
+                    rows.add(new SessionRow(write.hash, session.getSessionId(), session.getTitle())));
+        }
+        if (!rows.isEmpty()) {
+            dao.insertSessionRows(rows);
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("queued", submitted.size());
+        result.put("batches", batchSize.getCount());
+        result.put("failedBatches", failedBatches.sum());
+        result.put("batchSize", summary(batchSize));
+        result.put("waitMicros", summary(waitTime));
+        result.put("flushMicros", summary(flushTime));
+        return result;
+    }
+
+    private static Map<String, Object> summary(LatencyHistogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("p50", histogram.valueAtPercentile(50));
+        result.put("p99", histogram.valueAtPercentile(99));
+        result.put("max", histogram.valueAtPercentile(100));
+        return result;
+    }
+
+    private static Map<String, Object> summary(ValueSummary summary) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("p50", summary.valueAtPercentile(50));
+        result.put("p99", summary.valueAtPercentile(99));
+        result.put("max", summary.valueAtPercentile(100));
+        return result;
+    }
+
+    interface Flush {
+        void flush(List<Write<?>> batch);
+    }
+
+    static class Write<T> {
+        final String hash;
+        final List<SessionDto> sessions;
+        final Function<SessionsDao, T> prepare;
+        final Predicate<T> store;
+        final long submitted = System.nanoTime();
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        T value;
+        RuntimeException failure;
+
+        Write(String hash, List<SessionDto> sessions, Function<SessionsDao, T> prepare) {
+            this(hash, sessions, prepare, value -> true);
+        }
+
+        Write(String hash, List<SessionDto> sessions, Function<SessionsDao, T> prepare, Predicate<T> store) {
+            this.hash = hash;
+            this.sessions = sessions;
+            this.prepare = prepare;
+            this.store = store;
+        }
+
+        void prepare(SessionsDao dao) {
+            failure = null;
+            value = prepare.apply(dao);
+        }
+
+        boolean stores() {
+            return store.test(value);
+        }
+
+        void complete() {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(value);
+            }
+        }
+    }
+
+    @Value
+    @Builder
+    public static class Settings {
+        @Builder.Default
+        final int maxBatch = 64;
+        @Builder.Default
+        final Duration maxWait = Duration.ofMillis(2);
+    }
+}
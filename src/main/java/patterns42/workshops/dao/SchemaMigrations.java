@@ -0,0 +1,162 @@
+package patterns42.workshops.dao;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Versioned schema changes applied at startup. Every applied version is recorded in {@code schema_version},
+ * so each migration runs once per database; nodes starting together wait for each other on an advisory lock.
+ * <p>
+ * Migrations are append-only - never edit one that has been released, add a new version instead.
+ */
+@Slf4j
+public class SchemaMigrations {
+
+    private static final long LOCK_KEY = 4242_0001L;
+    private static final long LOCK_POLL_MILLIS = 200;
+
+    static final List<Migration> MIGRATIONS = List.of(
+            Migration.transactional(1, "sessions and users tables",
+                    "CREATE TABLE IF NOT EXISTS sessions (" +
+                            "id SERIAL CONSTRAINT firstkey PRIMARY KEY, " +
+                            "hash VARCHAR(40)," +
+                            "sessionid SMALLINT," +
+                            "title VARCHAR(255)," +
+                            "insert_date TIMESTAMP DEFAULT now()" +
+                        ")",
+                    "CREATE TABLE IF NOT EXISTS users (" +
+                            "id SERIAL CONSTRAINT userkey PRIMARY KEY, " +
+                            "username VARCHAR(40)," +
+                            "hash VARCHAR(40)," +
+                            "insert_date TIMESTAMP DEFAULT now()" +
+                        ")"),
+            Migration.transactional(2, "seat counters",
+                    "CREATE TABLE IF NOT EXISTS seat_counters (" +
+                            "title VARCHAR(255) CONSTRAINT seatkey PRIMARY KEY, " +
+                            "seats INTEGER NOT NULL," +
+                            "taken INTEGER NOT NULL DEFAULT 0 CHECK (taken >= 0)" +
+                        ")"),
+            Migration.transactional(3, "current sessions projection",
+                    "CREATE TABLE IF NOT EXISTS current_sessions (" +
+                            "hash VARCHAR(40)," +
+                            "sessionid SMALLINT," +
+                            "title VARCHAR(255)," +
+                            "insert_date TIMESTAMP DEFAULT now()," +
+                            "CONSTRAINT currentkey PRIMARY KEY (hash, sessionid)" +
+                        ")",
+                    "insert into current_sessions (hash, sessionid, title, insert_date) " +
+                            "select distinct on (hash, sessionid) hash, sessionid, title, insert_date from sessions " +
+                            "where not exists (select 1 from current_sessions) " +
+                            "order by hash, sessionid, insert_date desc, id desc"),
+            //latest choice of an attendee per timeslot - history lookups and the projection backfill
+            Migration.concurrentIndex(4, "sessions history index", "sessions_hash_sessionid_date_idx",
+                    "CREATE INDEX CONCURRENTLY IF NOT EXISTS sessions_hash_sessionid_date_idx " +
+                            "ON sessions (hash, sessionid, insert_date DESC)"),
+            //UsersDao.getUser: where hash=? order by insert_date desc limit 1
+            Migration.concurrentIndex(5, "users hash index", "users_hash_date_idx",
+                    "CREATE INDEX CONCURRENTLY IF NOT EXISTS users_hash_date_idx ON users (hash, insert_date DESC)"),
+            //ChangeFeed: numbers every published change, so nodes notice the ones they missed
+            Migration.transactional(6, "change feed sequence",
+                    "CREATE SEQUENCE IF NOT EXISTS workshops_change_seq"),
+            //SessionsDao.moveSeatsOrWait: choices waiting for a seat, taken in position order
+            Migration.transactional(7, "waitlist",
+                    "CREATE SEQUENCE IF NOT EXISTS waitlist_position_seq",
+                    "CREATE TABLE IF NOT EXISTS waitlist (" +
+                            "hash VARCHAR(40)," +
+                            "sessionid SMALLINT," +
+                            "title VARCHAR(255)," +
+                            "full_when_joined BOOLEAN NOT NULL DEFAULT false," +
+                            "position BIGINT NOT NULL," +
+                            "insert_date TIMESTAMP DEFAULT now()," +
+                            "promoted_date TIMESTAMP," +
+                            "CONSTRAINT waitlistkey PRIMARY KEY (hash, sessionid)" +
+                        ")",
+                    "CREATE INDEX IF NOT EXISTS waitlist_title_position_idx ON waitlist (title, position)"),
+            //ChangeFeed: tells a change lost on the way from a sequence number its transaction never committed
+            Migration.transactional(8, "published changes",
+                    "CREATE TABLE IF NOT EXISTS workshops_changes (" +
+                            "seq BIGINT PRIMARY KEY," +
+                            "insert_date TIMESTAMP NOT NULL DEFAULT now()" +
+                        ")")
+    );
+
+    private final Jdbi jdbi;
+
+    public SchemaMigrations(Jdbi jdbi) {
+        this.jdbi = jdbi;
+    }
+
+    public void migrate() {
+        jdbi.useHandle(handle -> {
+            SchemaVersionDao dao = handle.attach(SchemaVersionDao.class);
+            lock(dao);
+            try {
+                dao.createSchemaVersionTable();
+                Set<Integer> applied = dao.appliedVersions();
+                for (Migration migration : MIGRATIONS) {
+                    if (!applied.contains(migration.getVersion())) {
+                        apply(handle, dao, migration);
+                    }
+                }
+            } finally {
+                dao.unlock(LOCK_KEY);
+            }
+        });
+    }
+
+    private static void lock(SchemaVersionDao dao) {
+        while (!dao.tryLock(LOCK_KEY)) {
+            try {
+                Thread.sleep(LOCK_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for schema migrations of another node", e);
+            }
+        }
+    }
+
+    private void apply(Handle handle, SchemaVersionDao dao, Migration migration) {
+        long start = System.currentTimeMillis();
+        if (migration.isTransactional()) {
+            handle.useTransaction(h -> {
+                migration.getStatements().forEach(h::execute);
+                dao.markApplied(migration.getVersion(), migration.getDescription());
+            });
+        } else {
+            //CREATE INDEX CONCURRENTLY can't run inside a transaction block, so statements run one by one
+            if (migration.getIndex() != null && dao.isInvalidIndex(migration.getIndex())) {
+                //a valid index from an attempt that died before being marked applied is kept by IF NOT EXISTS
+                handle.execute("DROP INDEX CONCURRENTLY " + migration.getIndex());
+            }
+            migration.getStatements().forEach(handle::execute);
+            dao.markApplied(migration.getVersion(), migration.getDescription());
+        }
+        log.info("Applied schema migration [version={}, description={}, took={}ms]",
+                migration.getVersion(), migration.getDescription(), System.currentTimeMillis() - start);
+    }
+
+    @Value
+    static class Migration {
+        final int version;
+        final String description;
+        final boolean transactional;
+        final List<String> statements;
+        /**
+         * Index built by a non-transactional migration, dropped first when an earlier attempt left it invalid.
+         */
+        final String index;
+
+        static Migration transactional(int version, String description, String... statements) {
+            return new Migration(version, description, true, List.of(statements), null);
+        }
+
+        static Migration concurrentIndex(int version, String description, String index, String statement) {
+            return new Migration(version, description, false, List.of(statement), index);
+        }
+    }
+}
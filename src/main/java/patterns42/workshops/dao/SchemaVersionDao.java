@@ -0,0 +1,41 @@
+package patterns42.workshops.dao;
+
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlScript;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+
+import java.util.Set;
+
+public interface SchemaVersionDao {
+
+    @SqlScript("CREATE TABLE IF NOT EXISTS schema_version (" +
+                "version INTEGER CONSTRAINT versionkey PRIMARY KEY, " +
+                "description VARCHAR(255)," +
+                "applied_date TIMESTAMP DEFAULT now()" +
+            ")")
+    void createSchemaVersionTable();
+
+    /**
+     * Never blocks: a session waiting in {@code pg_advisory_lock} keeps a snapshot open, which a
+     * {@code CREATE INDEX CONCURRENTLY} of the lock holder would wait for - a deadlock.
+     */
+    @SqlQuery("select pg_try_advisory_lock(:key)")
+    boolean tryLock(@Bind("key") long key);
+
+    @SqlQuery("select pg_advisory_unlock(:key)")
+    boolean unlock(@Bind("key") long key);
+
+    /**
+     * Left behind by a {@code CREATE INDEX CONCURRENTLY} that failed or was interrupted.
+     */
+    @SqlQuery("select exists (select 1 from pg_index i join pg_class c on c.oid = i.indexrelid " +
+            "where c.relname = :name and not i.indisvalid)")
+    boolean isInvalidIndex(@Bind("name") String name);
+
+    @SqlQuery("select version from schema_version")
+    Set<Integer> appliedVersions();
+
+    @SqlUpdate("insert into schema_version (version, description) values (:version, :description)")
+    void markApplied(@Bind("version") int version, @Bind("description") String description);
+}
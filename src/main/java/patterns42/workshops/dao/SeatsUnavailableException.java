@@ -0,0 +1,8 @@
+package patterns42.workshops.dao;
+
+public class SeatsUnavailableException extends RuntimeException {
+
+    public SeatsUnavailableException(String title) {
+        super("No seats left for workshop " + title);
+    }
+}
@@ -0,0 +1,86 @@
+package patterns42.workshops.dao;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Tells a lost change from a late one. Sequence numbers are taken before commit, so two transactions may
+ * deliver theirs out of order, and one that rolls back - a group commit retried one write at a time does - leaves
+ * its number unused for good. A missing number only counts as lost once it stays missing for {@code grace}, and
+ * the {@link ChangeFeed} then checks whether it was committed at all, {@link #forget forgetting} those that weren't.
+ * Updated by the single thread receiving changes only; {@link #getHighest} may be read from anywhere.
+ */
+class SequenceGaps {
+
+    private final long graceNanos;
+    private final int maxMissing;
+    private final NavigableMap<Long, Long> missing = new TreeMap<>();
+    private volatile long highest;
+
+    SequenceGaps(Duration grace, int maxMissing) {
+        this.graceNanos = grace.toNanos();
+        this.maxMissing = maxMissing;
+    }
+
+    /**
+     * Starts over after a resync: everything up to {@code sequence} is accounted for.
+     */
+    void reset(long sequence) {
+        highest = sequence;
+        missing.clear();
+    }
+
+    /**
+     * @return false when a resync is due - a gap outlived the grace period, or is too big to wait for
+     */
+    boolean accept(long sequence, long nowNanos) {
+        if (sequence > highest) {
+            if (sequence - highest - 1 + missing.size() > maxMissing) {
+                return false;
+            }
+            for (long skipped = highest + 1; skipped < sequence; skipped++) {
+                missing.put(skipped, nowNanos);
+            }
+            highest = sequence;
+        } else {
+            missing.remove(sequence);
+        }
+        return !expired(nowNanos);
+    }
+
+    /**
+     * Gaps are noticed in sequence order, so the lowest missing number is the one waited for the longest.
+     */
+    boolean expired(long nowNanos) {
+        return !missing.isEmpty() && nowNanos - missing.firstEntry().getValue() >= graceNanos;
+    }
+
+    /**
+     * @return numbers missing for {@code grace} or longer, lowest first
+     */
+    List<Long> overdue(long nowNanos) {
+        List<Long> overdue = new ArrayList<>();
+        for (Map.Entry<Long, Long> entry : missing.entrySet()) {
+            if (nowNanos - entry.getValue() >= graceNanos) {
+                overdue.add(entry.getKey());
+            }
+        }
+        return overdue;
+    }
+
+    /**
+     * Stops waiting for numbers known not to belong to any change.
+     */
+    void forget(Collection<Long> sequences) {
+        sequences.forEach(missing::remove);
+    }
+
+    long getHighest() {
+        return highest;
+    }
+}
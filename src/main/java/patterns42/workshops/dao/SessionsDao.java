@@ -1,58 +1,336 @@
 package patterns42.workshops.dao;
 
 import lombok.Builder;
+import lombok.EqualsAndHashCode;
 import lombok.Value;
+import org.jdbi.v3.core.result.ResultIterator;
+import org.jdbi.v3.sqlobject.SqlObject;
 import org.jdbi.v3.sqlobject.config.RegisterConstructorMapper;
 import org.jdbi.v3.sqlobject.customizer.Bind;
 import org.jdbi.v3.sqlobject.customizer.BindBean;
+import org.jdbi.v3.sqlobject.customizer.BindBeanList;
 import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.customizer.FetchSize;
 import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
-import org.jdbi.v3.sqlobject.statement.SqlScript;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+import org.jdbi.v3.sqlobject.transaction.Transaction;
 
 import java.beans.ConstructorProperties;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
-public interface SessionsDao {
+/**
+ * A {@link SqlObject}, so that a write prepared with it can publish to the {@link ChangeFeed} on the same handle.
+ */
+public interface SessionsDao extends SqlObject {
 
-    @SqlScript("CREATE TABLE IF NOT EXISTS sessions (" +
-            "id SERIAL CONSTRAINT firstkey PRIMARY KEY, " +
-            "hash VARCHAR(40)," +
-            "sessionid SMALLINT," +
-            "title VARCHAR(255)," +
-            "insert_date TIMESTAMP DEFAULT now()" +
-        ")")
-    void createSessionsTable();
+    /**
+     * Waiting attendees read per query while looking for one who can take a freed seat.
+     */
+    int PROMOTION_BATCH = 20;
 
     @SqlBatch("insert into " +
+            "seat_counters " +
+                "(title, seats, taken) " +
+            "values " +
+                "(:title, :seats, :taken) " +
+            "on conflict (title) do update set seats = excluded.seats")
+    int[] seedSeatCounters(@BindBean Iterable<SeatCounter> counters);
+
+    @SqlQuery("select 1 from pg_advisory_xact_lock(hashtext(:hash))")
+    int lockAttendee(@Bind("hash") String hash);
+
+    /**
+     * Like {@link #lockAttendee}, without waiting for an attendee busy in another transaction.
+     */
+    @SqlQuery("select pg_try_advisory_xact_lock(hashtext(:hash))")
+    boolean tryLockAttendee(@Bind("hash") String hash);
+
+    @SqlUpdate("update seat_counters set taken = taken + 1 where title=:title and taken < seats")
+    int reserveSeat(@Bind("title") String title);
+
+    @SqlUpdate("update seat_counters set taken = taken - 1 where title=:title and taken > 0")
+    int releaseSeat(@Bind("title") String title);
+
+    @SqlQuery("select count(*) from seat_counters where title in (<titles>) and taken < seats")
+    int workshopsWithSeatsLeft(@BindList("titles") Set<String> titles);
+
+    /**
+     * Moves attendee's seats from previous choices to {@code sessions}, holding the attendee's lock until the
+     * surrounding transaction ends. Counters are touched in title order so that concurrent submissions can't
+     * deadlock on each other. The choices themselves are stored with {@link #insertSessionRows}.
+     *
+     * @return titles chosen by the attendee before
+     * @throws SeatsUnavailableException when any of the newly chosen workshops is full
+     */
+    @Transaction
+    default Set<String> moveSeats(String hash, List<SessionDto> sessions) {
+        lockAttendee(hash);
+
+        Set<String> chosen = sessions.stream().map(SessionDto::getTitle).collect(Collectors.toSet());
+        Set<String> previous = new HashSet<>(previousSessions(hash));
+
+        SortedSet<String> touched = new TreeSet<>(chosen);
+        touched.addAll(previous);
+        for (String title : touched) {
+            if (!previous.contains(title)) {
+                if (reserveSeat(title) == 0) {
+                    throw new SeatsUnavailableException(title);
+                }
+            } else if (!chosen.contains(title)) {
+                releaseSeat(title);
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * {@link #moveSeats}, then the seats given back go to attendees waiting for them.
+     */
+    @Transaction
+    default Moved moveSeatsAndPromote(String hash, List<SessionDto> sessions) {
+        Set<String> previous = moveSeats(hash, sessions);
+        leaveWaitlist(hash);
+        Set<String> busy = new TreeSet<>();
+        List<Promotion> promotions = promoteWaiting(released(previous, sessions), busy);
+        return new Moved(previous, false, promotions, busy);
+    }
+
+    /**
+     * {@link #moveSeatsAndPromote}, or - when any of the newly chosen workshops is full - leaves the attendee's
+     * current choices as they are and puts {@code sessions} on the waitlist instead. Submitting the same choices
+     * again keeps the place in line.
+     */
+    @Transaction
+    default Moved moveSeatsOrWait(String hash, List<SessionDto> sessions) {
+        lockAttendee(hash);
+        getHandle().savepoint("move");
+        try {
+            Moved moved = moveSeatsAndPromote(hash, sessions);
+            getHandle().release("move");
+            return moved;
+        } catch (SeatsUnavailableException e) {
+            getHandle().rollbackToSavepoint("move");
+        }
+
+        Set<String> previous = new HashSet<>(previousSessions(hash));
+        Set<SessionRow> waiting = waitlisted(hash).stream()
+                .map(row -> new SessionRow(hash, row.getSessionId(), row.getTitle()))
+                .collect(Collectors.toSet());
+        Set<SessionRow> wanted = rows(hash, sessions).stream().collect(Collectors.toSet());
+        if (!waiting.equals(wanted)) {
+            leaveWaitlist(hash);
+            long position = nextWaitlistPosition();
+            for (SessionDto session : sessions) {
+                boolean full = !previous.contains(session.getTitle())
+                        && workshopsWithSeatsLeft(Set.of(session.getTitle())) == 0;
+                joinWaitlist(hash, session.getSessionId(), session.getTitle(), full, position);
+            }
+        }
+        return new Moved(previous, true, List.of());
+    }
+
+    /**
+     * Gives seats freed in {@code released} workshops to attendees waiting for them, first come first served.
+     * A promoted attendee gets all of their waiting choices or stays in line, and the seats they give back
+     * are passed on in turn - all in the surrounding transaction. The line is read page by page until the seat
+     * is taken or nobody is left. Attendees busy in another transaction are skipped and added to {@code busy},
+     * to be offered the seats again with {@link #promoteBusy} once that transaction is over.
+     *
+     * @return promotions in the order they were made
+     */
+    default List<Promotion> promoteWaiting(Collection<String> released, Set<String> busy) {
+        List<Promotion> promotions = new ArrayList<>();
+        Deque<String> freed = new ArrayDeque<>(new TreeSet<>(released));
+        while (!freed.isEmpty()) {
+            String title = freed.poll();
+            long after = 0;
+            List<Waiter> page;
+            do {
+                page = waitingFor(title, after, PROMOTION_BATCH);
+                for (Waiter waiter : page) {
+                    after = waiter.getPosition();
+                    if (workshopsWithSeatsLeft(Set.of(title)) == 0) {
+                        break;
+                    }
+                    promote(waiter.getHash(), busy).ifPresent(promotion -> {
+                        promotions.add(promotion);
+                        freed.addAll(released(promotion.getPrevious(), promotion.getChosen()));
+                    });
+                }
+            } while (page.size() == PROMOTION_BATCH && workshopsWithSeatsLeft(Set.of(title)) > 0);
+        }
+        return promotions;
+    }
+
+    /**
+     * Follow-up of a transaction that had to skip {@code busy} attendees: waits for their own transactions
+     * before touching any seat counter - so it can't deadlock with them - and offers them the seats again.
+     */
+    @Transaction
+    default Moved promoteBusy(Set<String> busy) {
+        Set<String> titles = new TreeSet<>();
+        for (String hash : new TreeSet<>(busy)) {
+            lockAttendee(hash);
+            waitlisted(hash).forEach(row -> titles.add(row.getTitle()));
+        }
+        Set<String> skipped = new TreeSet<>();
+        List<Promotion> promotions = promoteWaiting(titles, skipped);
+        return new Moved(Set.of(), false, promotions, skipped);
+    }
+
+    /**
+     * Gives {@code hash} all of their waiting choices, if there are seats for all of them.
+     */
+    private Optional<Promotion> promote(String hash, Set<String> busy) {
+        if (!tryLockAttendee(hash)) {
+            busy.add(hash);
+            return Optional.empty();
+        }
+        List<SessionDto> wanted = waitlisted(hash).stream()
+                .map(row -> SessionDto.builder().sessionId(row.getSessionId()).title(row.getTitle()).build())
+                .collect(Collectors.toList());
+        if (wanted.isEmpty()) {
+            return Optional.empty();
+        }
+        Set<String> previous;
+        getHandle().savepoint("promotion");
+        try {
+            previous = moveSeats(hash, wanted);
+            getHandle().release("promotion");
+        } catch (SeatsUnavailableException e) {
+            getHandle().rollbackToSavepoint("promotion");
+            return Optional.empty();
+        }
+        insertSessionRows(rows(hash, wanted));
+        markPromoted(hash);
+        return Optional.of(new Promotion(hash, previous,
+                wanted.stream().map(SessionDto::getTitle).collect(Collectors.toSet())));
+    }
+
+    private static SortedSet<String> released(Set<String> previous, List<SessionDto> sessions) {
+        return released(previous, sessions.stream().map(SessionDto::getTitle).collect(Collectors.toSet()));
+    }
+
+    private static SortedSet<String> released(Set<String> previous, Set<String> chosen) {
+        SortedSet<String> released = new TreeSet<>(previous);
+        released.removeAll(chosen);
+        return released;
+    }
+
+    private static List<SessionRow> rows(String hash, List<SessionDto> sessions) {
+        return sessions.stream()
+                .map(session -> new SessionRow(hash, session.getSessionId(), session.getTitle()))
+                .collect(Collectors.toList());
+    }
+
+    @SqlQuery("select nextval('waitlist_position_seq')")
+    long nextWaitlistPosition();
+
+    @SqlUpdate("insert into " +
+            "waitlist " +
+                "(hash, sessionid, title, full_when_joined, position) " +
+            "values " +
+                "(:hash, :sessionId, :title, :full, :position)")
+    int joinWaitlist(@Bind("hash") String hash, @Bind("sessionId") int sessionId, @Bind("title") String title,
+                     @Bind("full") boolean full, @Bind("position") long position);
+
+    @SqlUpdate("delete from waitlist where hash=:hash")
+    int leaveWaitlist(@Bind("hash") String hash);
+
+    @SqlUpdate("update waitlist set promoted_date = now() where hash=:hash and promoted_date is null")
+    int markPromoted(@Bind("hash") String hash);
+
+    @SqlQuery("select hash, sessionid, title, full_when_joined from waitlist " +
+            "where hash=:hash and promoted_date is null order by sessionid")
+    @RegisterConstructorMapper(WaitlistRow.class)
+    List<WaitlistRow> waitlisted(@Bind("hash") String hash);
+
+    /**
+     * Attendees waiting for {@code title} who don't hold it yet, in the order they joined, starting after
+     * place {@code after} in line.
+     */
+    @SqlQuery("select hash, min(position) as position from waitlist w " +
+            "where title=:title and promoted_date is null " +
+            "and not exists (select 1 from current_sessions c where c.hash = w.hash and c.title = w.title) " +
+            "group by hash having min(position) > :after order by min(position) limit :limit")
+    @RegisterConstructorMapper(Waiter.class)
+    List<Waiter> waitingFor(@Bind("title") String title, @Bind("after") long after, @Bind("limit") int limit);
+
+    /**
+     * Full workshops the attendee waits for with their place in line, or was given a seat in.
+     */
+    @SqlQuery("select w.title, w.promoted_date is not null as promoted, " +
+                "(select count(distinct o.hash) from waitlist o " +
+                    "where o.title = w.title and o.promoted_date is null and o.position < w.position " +
+                    "and not exists (select 1 from current_sessions c where c.hash = o.hash and c.title = o.title)" +
+                ") + 1 as place " +
+            "from waitlist w where hash=:hash and full_when_joined " +
+            "group by w.title, w.position, w.promoted_date order by min(w.sessionid)")
+    @RegisterConstructorMapper(WaitlistEntry.class)
+    List<WaitlistEntry> waitlist(@Bind("hash") String hash);
+
+    @SqlUpdate("insert into " +
             "sessions " +
                 "(hash, sessionid, title) " +
-            "values " +
-                "(:hash, :sessionId, :title)")
-    int[] insertSessions(@Bind("hash") String hash, @BindBean Iterable<SessionDto> sessions);
-
-    @SqlQuery("select ranked.title from (" +
-                "select " +
-                    "title, hash, rank() over (partition by hash, sessionid order by insert_date desc) as rank " +
-                "from sessions" +
-            ") as ranked where hash=:hash and rank=1")
+            "values <rows>")
+    int insertSessionsHistory(@BindBeanList(value = "rows", propertyNames = {"hash", "sessionId", "title"})
+                                      List<SessionRow> rows);
+
+    /**
+     * At most one row per (hash, sessionid) - Postgres refuses to update the same row twice in one statement.
+     */
+    @SqlUpdate("insert into " +
+            "current_sessions " +
+                "(hash, sessionid, title) " +
+            "values <rows> " +
+            "on conflict (hash, sessionid) do update set title = excluded.title, insert_date = excluded.insert_date")
+    int upsertCurrentSessions(@BindBeanList(value = "rows", propertyNames = {"hash", "sessionId", "title"})
+                                      List<SessionRow> rows);
+
+    /**
+     * Appends choices of any number of attendees to the history and makes them their current ones,
+     * one multi-row statement per table.
+     */
+    @Transaction
+    default int insertSessionRows(List<SessionRow> rows) {
+        upsertCurrentSessions(rows);
+        return insertSessionsHistory(rows);
+    }
+
+    @SqlQuery("select title from current_sessions where hash=:hash")
     List<String> previousSessions(@Bind("hash") String hash);
 
-    @SqlQuery("select distinct popularity.title, count(*) as count from (" +
-                "select " +
-                    "sessionid, title, rank() over (partition by hash, sessionid order by insert_date desc) as rank " +
-                "from sessions where hash not in (<exclusions>)" +
-            ") as popularity where rank=1 group by sessionid, title order by count desc")
+    @SqlQuery("select distinct title, count(*) as count " +
+            "from current_sessions where hash not in (<exclusions>) " +
+            "group by sessionid, title order by count desc")
     @RegisterConstructorMapper(PopularityRank.class)
     List<PopularityRank> sessionsPopularity(@BindList("exclusions") List<String> exclusions);
 
-    @SqlQuery("select ranked.hash, title, insert_date from (" +
-                "select *, rank() over (partition by hash order by insert_date desc) as rank from sessions where hash not in (<exclusions>)" +
-            ") as ranked where rank=1")
+    @SqlQuery("select hash, title, insert_date from current_sessions where hash not in (<exclusions>)")
     @RegisterConstructorMapper(RegistrationDto.class)
     List<RegistrationDto> allRegistrations(@BindList("exclusions") List<String> exclusions);
 
+    /**
+     * Same rows as {@link #allRegistrations} read through a server-side cursor - must be consumed (and closed)
+     * inside a transaction, otherwise the driver ignores the fetch size and buffers everything.
+     */
+    @SqlQuery("select hash, title, insert_date from current_sessions where hash not in (<exclusions>)")
+    @FetchSize(500)
+    @RegisterConstructorMapper(RegistrationDto.class)
+    ResultIterator<RegistrationDto> streamRegistrations(@BindList("exclusions") List<String> exclusions);
+
     @Value
     class RegistrationDto {
         final String hash;
@@ -79,6 +357,140 @@ public interface SessionsDao {
         }
     }
 
+    /**
+     * Popularity as of change {@code sequence}: the ranks include every change numbered up to it except the
+     * {@code pending} ones, still uncommitted when the ranks were read. Sequence 0 - changes are not numbered.
+     */
+    @Value
+    class Popularity {
+        final List<PopularityRank> ranks;
+        final long sequence;
+        final Set<Long> pending;
+
+        public static Popularity unnumbered(List<PopularityRank> ranks) {
+            return new Popularity(ranks, 0, Set.of());
+        }
+
+        public boolean includes(long change) {
+            return change != 0 && change <= sequence && !pending.contains(change);
+        }
+    }
+
+    /**
+     * Outcome of a submission: titles the attendee held before, whether the choices wait for seats instead of
+     * being stored, waiting attendees given the seats that were freed, and waiting attendees skipped because
+     * they were busy in another transaction. The number of the change that stored the choices is 0 until
+     * published, see {@link Popularity}.
+     */
+    @Value
+    class Moved {
+        final Set<String> previous;
+        final boolean waiting;
+        final List<Promotion> promotions;
+        final Set<String> busy;
+        final long sequence;
+
+        public Moved(Set<String> previous, boolean waiting, List<Promotion> promotions) {
+            this(previous, waiting, promotions, Set.of());
+        }
+
+        public Moved(Set<String> previous, boolean waiting, List<Promotion> promotions, Set<String> busy) {
+            this(previous, waiting, promotions, busy, 0);
+        }
+
+        public Moved(Set<String> previous, boolean waiting, List<Promotion> promotions, Set<String> busy,
+                     long sequence) {
+            this.previous = previous;
+            this.waiting = waiting;
+            this.promotions = promotions;
+            this.busy = busy;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Equal regardless of the change number, which only tells when the promotion was published.
+     */
+    @Value
+    class Promotion {
+        final String hash;
+        final Set<String> previous;
+        final Set<String> chosen;
+        @EqualsAndHashCode.Exclude
+        final long sequence;
+
+        public Promotion(String hash, Set<String> previous, Set<String> chosen) {
+            this(hash, previous, chosen, 0);
+        }
+
+        public Promotion(String hash, Set<String> previous, Set<String> chosen, long sequence) {
+            this.hash = hash;
+            this.previous = previous;
+            this.chosen = chosen;
+            this.sequence = sequence;
+        }
+
+        public Promotion numbered(long sequence) {
+            return new Promotion(hash, previous, chosen, sequence);
+        }
+    }
+
+    @Value
+    class Waiter {
+        final String hash;
+        final long position;
+
+        @ConstructorProperties({"hash", "position"})
+        public Waiter(String hash, long position) {
+            this.hash = hash;
+            this.position = position;
+        }
+    }
+
+    @Value
+    class WaitlistRow {
+        final String hash;
+        final Integer sessionId;
+        final String title;
+        final boolean full;
+
+        @ConstructorProperties({"hash", "sessionid", "title", "full_when_joined"})
+        public WaitlistRow(String hash, Integer sessionId, String title, boolean full) {
+            this.hash = hash;
+            this.sessionId = sessionId;
+            this.title = title;
+            this.full = full;
+        }
+    }
+
+    @Value
+    class WaitlistEntry {
+        final String title;
+        final boolean promoted;
+        final int place;
+
+        @ConstructorProperties({"title", "promoted", "place"})
+        public WaitlistEntry(String title, boolean promoted, int place) {
+            this.title = title;
+            this.promoted = promoted;
+            this.place = place;
+        }
+    }
+
+    @Value @Builder
+    class SeatCounter {
+        final String title;
+        final Integer seats;
+        final Integer taken;
+    }
+
+    @Value
+    class SessionRow {
+        final String hash;
+        final Integer sessionId;
+        final String title;
+    }
+
     @Value @Builder
     class SessionDto {
         final Integer sessionId;
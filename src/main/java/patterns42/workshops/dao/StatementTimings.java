@@ -0,0 +1,437 @@
+package patterns42.workshops.dao;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.jdbi.v3.core.ConnectionFactory;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.core.extension.ExtensionMethod;
+import org.jdbi.v3.core.statement.DefaultStatementBuilder;
+import org.jdbi.v3.core.statement.SqlLogger;
+import org.jdbi.v3.core.statement.SqlStatements;
+import org.jdbi.v3.core.statement.StatementBuilder;
+import org.jdbi.v3.core.statement.StatementContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import patterns42.workshops.metrics.LatencyHistogram;
+import patterns42.workshops.metrics.Metrics;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Duration, row count and connection acquire time of every statement Jdbi runs, tagged with the SqlObject method
+ * that issued it. Statements over {@code threshold} go to the {@value #SLOW_LOG} log - SQL with placeholders and
+ * parameter names only, never the values - and the latest {@code samples} of them are kept, with their values,
+ * so {@link #explain} can show their plans.
+ * <p>
+ * Rows are counted by a thin wrapper around each prepared statement: {@code next()} calls for queries,
+ * the update count for everything else.
+ */
+@Slf4j
+public class StatementTimings implements SqlLogger {
+
+    static final String SLOW_LOG = "patterns42.workshops.sql.slow";
+
+    private static final Logger slowLog = LoggerFactory.getLogger(SLOW_LOG);
+    private static final String TRACKED = StatementTimings.class.getName();
+    /**
+     * Calls that change something even in a transaction that is rolled back - a sequence value, an advisory lock
+     * held until the session ends, a notification - or that lock rows.
+     */
+    private static final Pattern SIDE_EFFECTS = Pattern.compile(
+            "\\b(nextval|setval|pg_(try_)?advisory_\\w+|pg_notify)\\s*\\(|\\bfor\\s+(no\\s+key\\s+|key\\s+)?(update|share)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Settings settings;
+    private final Metrics metrics;
+    private final Map<Method, MethodStats> methods = new ConcurrentHashMap<>();
+    private final MethodStats adHoc;
+    private final Map<Connection, Long> acquireMicros = new ConcurrentHashMap<>();
+    private final Deque<SlowStatement> samples = new ConcurrentLinkedDeque<>();
+    private final AtomicLong sampleIds = new AtomicLong();
+    private final LongAdder slow;
+    private volatile Jdbi jdbi;
+
+    public StatementTimings(Settings settings, Metrics metrics) {
+        this.settings = settings;
+        this.metrics = metrics;
+        //statements run on a handle directly, outside any DAO
+        this.adHoc = new MethodStats(metrics, "handle", "");
+        this.slow = metrics.counter("workshops_sql_slow_statements_total",
+                "Statements slower than the slow query threshold");
+    }
+
+    /**
+     * Connections for {@link Jdbi#create(ConnectionFactory)}, remembering how long each one took to get.
+     */
+    public ConnectionFactory connections(DataSource dataSource) {
+        return new ConnectionFactory() {
+            @Override
+            public Connection openConnection() throws SQLException {
+                long start = System.nanoTime();
+                Connection connection = dataSource.getConnection();
+                acquireMicros.put(connection, (System.nanoTime() - start) / 1000);
+                return connection;
+            }
+
+            @Override
+            public void closeConnection(Connection connection) throws SQLException {
+                acquireMicros.remove(connection);
+                connection.close();
+            }
+        };
+    }
+
+    public void install(Jdbi jdbi) {
+        jdbi.getConfig(SqlStatements.class).setSqlLogger(this);
+        jdbi.setStatementBuilderFactory(connection -> new TrackingStatementBuilder());
+        this.jdbi = jdbi;
+        log.info("Statement timings enabled {}", settings);
+    }
+
+    @Override
+    public void logBeforeExecution(StatementContext ctx) {
+        Tracked tracked = tracked(ctx);
+        if (tracked != null) {
+            tracked.started = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void logAfterExecution(StatementContext ctx) {
+        executed(ctx, false);
+    }
+
+    @Override
+    public void logException(StatementContext ctx, SQLException ex) {
+        executed(ctx, true);
+    }
+
+    private void executed(StatementContext ctx, boolean failed) {
+        Tracked tracked = tracked(ctx);
+        if (tracked == null) {
+            return;
+        }
+        tracked.elapsedMicros = (System.nanoTime() - tracked.started) / 1000;
+        tracked.failed = failed;
+        //rows of a query are known once it is read to the end and closed
+        ctx.addCleanable(() -> record(ctx, tracked));
+    }
+
+    private static Tracked tracked(StatementContext ctx) {
+        Object tracked = ctx.getAttribute(TRACKED);
+        return tracked instanceof Tracked ? (Tracked) tracked : null;
+    }
+
+    void record(StatementContext ctx, Tracked tracked) {
+        ExtensionMethod extension = ctx.getExtensionMethod();
+        MethodStats stats = adHoc;
+        if (extension != null) {
+            stats = methods.get(extension.getMethod());
+            if (stats == null) {
+                stats = methods.computeIfAbsent(extension.getMethod(), method ->
+                        new MethodStats(metrics, extension.getType().getSimpleName(), method.getName()));
+            }
+        }
+        stats.duration.recordMicros(tracked.elapsedMicros);
+        stats.rows.add(tracked.rows);
+
+        if (tracked.elapsedMicros >= settings.getThreshold().toNanos() / 1000) {
+            slow.increment();
+            Long acquired = ctx.getConnection() == null ? null : acquireMicros.get(ctx.getConnection());
+            SlowStatement statement = new SlowStatement(sampleIds.incrementAndGet(), Instant.now(), stats.name,
+                    ctx.getParsedSql().getSql(), ctx.getParsedSql().getParameters().getParameterNames(),
+                    tracked.elapsedMicros, tracked.rows, acquired == null ? -1 : acquired, tracked.failed,
+                    tracked.parameters);
+            slowLog.warn("{}", statement);
+            samples.addFirst(statement);
+            while (samples.size() > settings.getSamples()) {
+                samples.pollLast();
+            }
+        }
+    }
+
+    /**
+     * Latest slow statements, newest first.
+     */
+    public List<Map<String, Object>> slowStatements() {
+        return samples.stream().map(SlowStatement::toMap).collect(Collectors.toList());
+    }
+
+    /**
+     * Plan of sampled slow statement {@code id} with its original values. A plain {@code SELECT} is run again under
+     * {@code EXPLAIN (ANALYZE, BUFFERS)}, in a transaction that is always rolled back; anything else - writes,
+     * sequences, advisory locks - only under {@code EXPLAIN}, as running it would leave traces behind.
+     *
+     * @return the plan, headed by the form of EXPLAIN used, empty when no such sample is kept anymore
+     * (or none was ever taken - embedded storage)
+     */
+    public Optional<String> explain(long id) throws SQLException {
+        Optional<SlowStatement> sample = samples.stream().filter(s -> s.id == id).findFirst();
+        if (sample.isEmpty() || jdbi == null) {
+            return Optional.empty();
+        }
+        return Optional.of(jdbi.withHandle(handle -> explain(handle, sample.get())));
+    }
+
+    private String explain(Handle handle, SlowStatement sample) throws SQLException {
+        handle.begin();
+        try {
+            Connection connection = handle.getConnection();
+            try (Statement timeout = connection.createStatement()) {
+                timeout.execute("set local statement_timeout = " + settings.getExplainTimeout().toMillis());
+            }
+            String form = analyzable(sample.sql) ? "explain (analyze, buffers)" : "explain";
+            try (PreparedStatement explain = connection.prepareStatement(form + " " + sample.sql)) {
+                for (Bound bound : sample.parameters) {
+                    bound.apply(explain);
+                }
+                StringJoiner plan = new StringJoiner("\n", "", "\n");
+                plan.add("-- " + form.toUpperCase() + (form.equals("explain") ? ", not executed" : ""));
+                try (ResultSet lines = explain.executeQuery()) {
+                    while (lines.next()) {
+                        plan.add(lines.getString(1));
+                    }
+                }
+                return plan.toString();
+            }
+        } finally {
+            handle.rollback();
+        }
+    }
+
+    /**
+     * Only plain reads can be executed again safely.
+     */
+    static boolean analyzable(String sql) {
+        return sql.stripLeading().regionMatches(true, 0, "select", 0, "select".length())
+                && !SIDE_EFFECTS.matcher(sql).find();
+    }
+
+    private class TrackingStatementBuilder implements StatementBuilder {
+        private final StatementBuilder delegate = new DefaultStatementBuilder();
+
+        @Override
+        public Statement create(Connection conn, StatementContext ctx) throws SQLException {
+            return delegate.create(conn, ctx);
+        }
+
+        @Override
+        public PreparedStatement create(Connection conn, String sql, StatementContext ctx) throws SQLException {
+            Tracked tracked = new Tracked(delegate.create(conn, sql, ctx));
+            ctx.define(TRACKED, tracked);
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, tracked);
+        }
+
+        @Override
+        public CallableStatement createCall(Connection conn, String sql, StatementContext ctx) throws SQLException {
+            return delegate.createCall(conn, sql, ctx);
+        }
+
+        @Override
+        public void close(Connection conn, String sql, Statement stmt) throws SQLException {
+            delegate.close(conn, sql, stmt);
+        }
+
+        @Override
+        public void close(Connection conn) {
+            delegate.close(conn);
+        }
+    }
+
+    /**
+     * Prepared statement wrapper keeping the bound values and counting rows.
+     */
+    static class Tracked implements InvocationHandler {
+        final PreparedStatement statement;
+        final List<Bound> parameters = new ArrayList<>();
+        long started;
+        long elapsedMicros;
+        long rows;
+        boolean failed;
+        private ResultSet results;
+
+        Tracked(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameters.add(new Bound(method, args));
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            }
+            Object result;
+            try {
+                result = method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            switch (name) {
+                case "executeQuery":
+                case "getResultSet":
+                    return counting((ResultSet) result);
+                case "execute":
+                    if (!(Boolean) result) {
+                        rows += Math.max(0, statement.getUpdateCount());
+                    }
+                    return result;
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                    rows += ((Number) result).longValue();
+                    return result;
+                case "executeBatch":
+                    for (int count : (int[]) result) {
+                        rows += Math.max(0, count);
+                    }
+                    return result;
+                default:
+                    return result;
+            }
+        }
+
+        private ResultSet counting(ResultSet resultSet) {
+            if (resultSet == null) {
+                return null;
+            }
+            if (results == null) {
+                results = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                            try {
+                                Object result = method.invoke(resultSet, args);
+                                if (method.getName().equals("next") && (Boolean) result) {
+                                    rows++;
+                                }
+                                return result;
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        });
+            }
+            return results;
+        }
+    }
+
+    static class Bound {
+        final Method setter;
+        final Object[] args;
+
+        Bound(Method setter, Object[] args) {
+            this.setter = setter;
+            this.args = args;
+        }
+
+        void apply(PreparedStatement statement) throws SQLException {
+            try {
+                setter.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new SQLException(e);
+            }
+        }
+    }
+
+    private static class MethodStats {
+        final String name;
+        final LatencyHistogram duration;
+        final LongAdder rows;
+
+        MethodStats(Metrics metrics, String dao, String method) {
+            this.name = method.isEmpty() ? dao : dao + "." + method;
+            this.duration = metrics.histogram("workshops_sql_statement_duration_seconds",
+                    "Execution time of SQL statements, per issuing DAO method", "dao", dao, "method", method);
+            this.rows = metrics.counter("workshops_sql_rows_total",
+                    "Rows returned or changed by SQL statements, per issuing DAO method", "dao", dao, "method", method);
+        }
+    }
+
+    private static class SlowStatement {
+        final long id;
+        final Instant at;
+        final String method;
+        final String sql;
+        final List<String> parameterNames;
+        final long micros;
+        final long rows;
+        final long acquireMicros;
+        final boolean failed;
+        final List<Bound> parameters;
+
+        SlowStatement(long id, Instant at, String method, String sql, List<String> parameterNames, long micros,
+                      long rows, long acquireMicros, boolean failed, List<Bound> parameters) {
+            this.id = id;
+            this.at = at;
+            this.method = method;
+            this.sql = sql;
+            this.parameterNames = parameterNames;
+            this.micros = micros;
+            this.rows = rows;
+            this.acquireMicros = acquireMicros;
+            this.failed = failed;
+            this.parameters = parameters;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("id", id);
+            result.put("at", at.toString());
+            result.put("method", method);
+            result.put("millis", micros / 1000.0);
+            result.put("rows", rows);
+            result.put("acquireMillis", acquireMicros < 0 ? null : acquireMicros / 1000.0);
+            result.put("failed", failed);
+            result.put("sql", sql);
+            result.put("parameters", parameterNames);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Slow statement #%d [method=%s, millis=%.1f, rows=%d, acquireMillis=%s%s]: %s"
+                            + " -- values of %s redacted",
+                    id, method, micros / 1000.0, rows, acquireMicros < 0 ? "?" : String.format("%.1f", acquireMicros / 1000.0),
+                    failed ? ", failed" : "", sql.replaceAll("\\s+", " ").trim(), parameterNames);
+        }
+    }
+
+    @Value
+    @Builder
+    public static class Settings {
+        @Builder.Default
+        final Duration threshold = Duration.ofMillis(200);
+        @Builder.Default
+        final int samples = 20;
+        @Builder.Default
+        final Duration explainTimeout = Duration.ofSeconds(30);
+    }
+}
@@ -0,0 +1,115 @@
+package patterns42.workshops.dao;
+
+import patterns42.workshops.dao.SessionsDao.Moved;
+import patterns42.workshops.dao.SessionsDao.Popularity;
+import patterns42.workshops.dao.SessionsDao.PopularityRank;
+import patterns42.workshops.dao.SessionsDao.RegistrationDto;
+import patterns42.workshops.dao.SessionsDao.SeatCounter;
+import patterns42.workshops.dao.SessionsDao.SessionDto;
+import patterns42.workshops.dao.SessionsDao.WaitlistEntry;
+import patterns42.workshops.dao.UsersDao.ImportCounts;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Attendees, their choices and seat counters - everything the application keeps. Backed by PostgreSQL
+ * ({@link PostgresStorage}) or, for a single node, by a local append-only log
+ * ({@link patterns42.workshops.dao.embedded.EmbeddedStorage}); chosen with {@code STORAGE}.
+ * <p>
+ * A write is durable once its method returns.
+ */
+public interface Storage {
+
+    /**
+     * Latest name of every attendee, ordered by hash.
+     */
+    List<User> latestUsers();
+
+    /**
+     * Appends attendees that are new or changed their name, everybody else is left as it is.
+     * All of them are stored or none.
+     *
+     * @param users each hash at most once
+     * @throws IllegalArgumentException when {@code users} fails while being read, nothing is stored then
+     */
+    ImportCounts importUsers(Iterator<User> users);
+
+    /**
+     * Titles currently chosen by the attendee.
+     */
+    List<String> previousSessions(String hash);
+
+    /**
+     * Current choices per timeslot and title, most popular first.
+     */
+    List<PopularityRank> sessionsPopularity(List<String> exclusions);
+
+    /**
+     * {@link #sessionsPopularity} with the changes it includes, read at once so that caches updated by
+     * {@link Moved} deltas can tell which ones it already has.
+     */
+    Popularity popularity(List<String> exclusions);
+
+    List<RegistrationDto> allRegistrations(List<String> exclusions);
+
+    /**
+     * Same rows as {@link #allRegistrations}, handed over one at a time instead of collected in memory.
+     */
+    void forEachRegistration(List<String> exclusions, RegistrationConsumer consumer) throws IOException;
+
+    /**
+     * Creates missing counters; existing ones keep their {@code taken} value and only get the new limit.
+     */
+    void seedSeatCounters(List<SeatCounter> counters);
+
+    /**
+     * Stores {@code sessions} as the attendee's current choices, taking seats in newly chosen workshops and
+     * giving back the ones no longer chosen - all or nothing. Seats given back go to attendees on the waitlist
+     * right away, in the same write; the attendee's own waitlist entry is dropped.
+     *
+     * @return titles chosen by the attendee before, and the promotions made
+     * @throws SeatsUnavailableException when any of the newly chosen workshops is full, nothing is stored then
+     */
+    Moved moveSeats(String hash, List<SessionDto> sessions);
+
+    /**
+     * {@link #moveSeats}, except that choices including a full workshop are put on the waitlist - replacing the
+     * attendee's previous entry - while the current choices stay as they are. Waiting attendees are promoted in
+     * the order they joined, as soon as all of their newly chosen workshops have a seat for them.
+     */
+    Moved moveSeatsOrWait(String hash, List<SessionDto> sessions);
+
+    /**
+     * Full workshops the attendee waits for, with the place in line, and the ones they were given a seat in.
+     */
+    List<WaitlistEntry> waitlist(String hash);
+
+    /**
+     * Stores {@code sessions} without taking seats, provided each of the workshops still has some - the test account.
+     *
+     * @throws SeatsUnavailableException when any of them is full
+     */
+    void storeIfSeatsLeft(String hash, List<SessionDto> sessions);
+
+    /**
+     * Stores {@code sessions} as they are, for seats counted elsewhere ({@code SEAT_LEDGER=memory}).
+     */
+    void storeChoices(String hash, List<SessionDto> sessions);
+
+    /**
+     * Internals worth watching under load, for {@code /admin/pool}.
+     */
+    Map<String, Object> toMap();
+
+    void close();
+
+    @FunctionalInterface
+    interface RegistrationConsumer {
+        void accept(RegistrationDto registration) throws IOException;
+    }
+}
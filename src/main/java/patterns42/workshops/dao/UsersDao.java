@@ -7,21 +7,14 @@ import org.jdbi.v3.sqlobject.customizer.Bind;
 import org.jdbi.v3.sqlobject.customizer.BindBean;
 import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
-import org.jdbi.v3.sqlobject.statement.SqlScript;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 
 import java.beans.ConstructorProperties;
+import java.util.List;
 import java.util.Map;
 
 public interface UsersDao {
 
-    @SqlScript("CREATE TABLE IF NOT EXISTS users (" +
-                "id SERIAL CONSTRAINT userkey PRIMARY KEY, " +
-                "username VARCHAR(40)," +
-                "hash VARCHAR(40)," +
-                "insert_date TIMESTAMP DEFAULT now()" +
-            ")")
-    void createUsersTable();
-
     @SqlBatch("insert into " +
             "users " +
             "(username, hash) " +
@@ -29,6 +22,34 @@ public interface UsersDao {
             "(:name, :hash)")
     int[] insertUserHash(@BindBean Iterable<User> users);
 
+    @SqlUpdate("create temporary table users_import (username text, hash text) on commit drop")
+    void createImportTable();
+
+    @SqlUpdate("analyze users_import")
+    void analyzeImportTable();
+
+    /**
+     * Appends imported attendees that are new or changed their name, everybody else is left as it is.
+     */
+    @SqlQuery("with incoming as ( " +
+                "select i.username, i.hash, latest.hash is null as new, " +
+                    "latest.username is not distinct from i.username as unchanged " +
+                "from users_import i left join lateral ( " +
+                    "select u.username, u.hash from users u where u.hash = i.hash " +
+                    "order by u.insert_date desc limit 1 " +
+                ") latest on true " +
+            "), appended as ( " +
+                "insert into users (username, hash) " +
+                "select username, hash from incoming where not unchanged " +
+            ") " +
+            "select " +
+                "count(*) filter (where new) as inserted, " +
+                "count(*) filter (where not new and not unchanged) as updated, " +
+                "count(*) filter (where unchanged) as skipped " +
+            "from incoming")
+    @RegisterConstructorMapper(ImportCounts.class)
+    ImportCounts mergeImport();
+
     @SqlQuery("select username, hash from ( " +
                 "select " +
                     "username, hash, rank() over (partition by username, hash order by insert_date desc) as rank " +
@@ -38,6 +59,11 @@ public interface UsersDao {
     @KeyColumn("hash")
     Map<String, User> allUsers();
 
+    @SqlQuery("select distinct on (hash) username, hash from users " +
+            "order by hash, insert_date desc")
+    @RegisterConstructorMapper(User.class)
+    List<User> latestUsers();
+
     @SqlQuery("select username, hash, insert_date from users " +
             "where hash=:hash order by insert_date desc " +
             "limit 1")
@@ -55,4 +81,18 @@ public interface UsersDao {
             this.hash = hash;
         }
     }
+
+    @Value
+    class ImportCounts {
+        final int inserted;
+        final int updated;
+        final int skipped;
+
+        @ConstructorProperties({"inserted", "updated", "skipped"})
+        public ImportCounts(int inserted, int updated, int skipped) {
+            this.inserted = inserted;
+            this.updated = updated;
+            this.skipped = skipped;
+        }
+    }
 }
@@ -0,0 +1,736 @@
+package patterns42.workshops.dao.embedded;
+
+import lombok.Builder;
+import lombok.Value;
+import patterns42.workshops.dao.SeatsUnavailableException;
+import patterns42.workshops.dao.SessionsDao.Moved;
+import patterns42.workshops.dao.SessionsDao.Popularity;
+import patterns42.workshops.dao.SessionsDao.PopularityRank;
+import patterns42.workshops.dao.SessionsDao.Promotion;
+import patterns42.workshops.dao.SessionsDao.RegistrationDto;
+import patterns42.workshops.dao.SessionsDao.SeatCounter;
+import patterns42.workshops.dao.SessionsDao.SessionDto;
+import patterns42.workshops.dao.SessionsDao.WaitlistEntry;
+import patterns42.workshops.dao.Storage;
+import patterns42.workshops.dao.UsersDao.ImportCounts;
+import patterns42.workshops.dao.UsersDao.User;
+import patterns42.workshops.metrics.Metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Storage for a single application node without a database: every change is one record appended to a
+ * {@link RegistrationLog}, queries are answered from in-memory indexes - attendees by hash, current choices per
+ * attendee, seats taken and choices per workshop, the waitlist in join order. Opening replays the log into the
+ * indexes.
+ * <p>
+ * Changes are checked and appended under one write lock, in the order they are applied; the lock is released
+ * before the log is synced, so attendees submitting together share one flush.
+ */
+public class EmbeddedStorage implements Storage {
+
+    private static final byte USERS = 1;
+    private static final byte SEATS = 2;
+    private static final byte CHOICES = 3;
+    private static final byte WAITING = 4;
+    private static final byte PROMOTION = 5;
+
+    private final RegistrationLog registrationLog;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, User> users = new HashMap<>();
+    private final Map<String, Map<Integer, Choice>> current = new HashMap<>();
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final Map<Slot, Integer> chosen = new HashMap<>();
+    private final Map<String, Waiting> waitlist = new HashMap<>();
+    private final NavigableMap<Long, Waiting> waitlistOrder = new TreeMap<>();
+    private long changes;
+
+    public EmbeddedStorage(Settings settings, Metrics metrics) throws IOException {
+        this.registrationLog = new RegistrationLog(settings.getPath(), RegistrationLog.Settings.builder()
+                .sync(settings.isSync())
+                .build(), this::replay, metrics);
+    }
+
+    private void replay(byte[] record) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            byte type = in.readByte();
+            switch (type) {
+                case USERS:
+                    applyUsers(readUsers(in));
+                    break;
+                case SEATS:
+                    applySeats(readSeats(in));
+                    break;
+                case CHOICES:
+                case PROMOTION:
+                    apply(type, Choices.read(in));
+                    break;
+                case WAITING:
+                    applyWaiting(Waiting.read(in));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown registration log record type " + type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt registration log record", e);
+        }
+    }
+
+    @Override
+    public List<User> latestUsers() {
+        lock.readLock().lock();
+        try {
+            List<User> result = new ArrayList<>(users.values());
+            result.sort(Comparator.comparing(User::getHash));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ImportCounts importUsers(Iterator<User> incoming) {
+        List<User> all = new ArrayList<>();
+        incoming.forEachRemaining(all::add);
+
+        int inserted = 0;
+        int updated = 0;
+        List<User> appended = new ArrayList<>();
+        long end;
+        lock.writeLock().lock();
+        try {
+            for (User user : all) {
+                User latest = users.get(user.getHash());
+                if (latest == null) {
+                    inserted++;
+                } else if (!Objects.equals(latest.getName(), user.getName())) {
+                    updated++;
+                } else {
+                    continue;
+                }
+                appended.add(user);
+            }
+            if (appended.isEmpty()) {
+                return new ImportCounts(0, 0, all.size());
+            }
+            end = append(out -> {
+                out.writeByte(USERS);
+                out.writeInt(appended.size());
+                for (User user : appended) {
+                    writeNullable(out, user.getName());
+                    out.writeUTF(user.getHash());
+                }
+            });
+            applyUsers(appended);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        registrationLog.sync(end);
+        return new ImportCounts(inserted, updated, all.size() - appended.size());
+    }
+
+    private static List<User> readUsers(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<User> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new User(readNullable(in), in.readUTF()));
+        }
+        return result;
+    }
+
+    private void applyUsers(List<User> imported) {
+        imported.forEach(user -> users.put(user.getHash(), user));
+    }
+
+    @Override
+    public List<String> previousSessions(String hash) {
+        lock.readLock().lock();
+        try {
+            return previousTitles(hash);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts of all attendees, less the choices of excluded ones.
+     */
+    @Override
+    public List<PopularityRank> sessionsPopularity(List<String> exclusions) {
+        return popularity(exclusions).getRanks();
+    }
+
+    /**
+     * Changes are numbered in the order they are made under the write lock, none is ever pending.
+     */
+    @Override
+    public Popularity popularity(List<String> exclusions) {
+        Map<Slot, Integer> counts;
+        long sequence;
+        lock.readLock().lock();
+        try {
+            counts = new HashMap<>(chosen);
+            for (String hash : new HashSet<>(exclusions)) {
+                current.getOrDefault(hash, Map.of()).forEach((sessionId, choice) ->
+                        counts.computeIfPresent(new Slot(sessionId, choice.title), (slot, count) -> count - 1));
+            }
+            sequence = changes;
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new Popularity(ranks(counts), sequence, Set.of());
+    }
+
+    private static List<PopularityRank> ranks(Map<Slot, Integer> counts) {
+        Set<PopularityRank> distinct = new LinkedHashSet<>();
+        counts.entrySet().stream()
+                .filter(entry -> entry.getValue() > 0)
+                .sorted(Map.Entry.<Slot, Integer>comparingByValue().reversed())
+                .forEach(entry -> distinct.add(new PopularityRank(entry.getKey().title, entry.getValue())));
+        return new ArrayList<>(distinct);
+    }
+
+    @Override
+    public List<RegistrationDto> allRegistrations(List<String> exclusions) {
+        Set<String> excluded = new HashSet<>(exclusions);
+        List<RegistrationDto> result = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            current.forEach((hash, choices) -> {
+                if (!excluded.contains(hash)) {
+                    choices.values().forEach(choice -> result.add(new RegistrationDto(hash, choice.title,
+                            LocalDateTime.ofInstant(Instant.ofEpochMilli(choice.epochMillis), ZoneId.systemDefault()))));
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Everything is in memory already - a snapshot is taken first, so a slow reader doesn't hold up writes.
+     */
+    @Override
+    public void forEachRegistration(List<String> exclusions, RegistrationConsumer consumer) throws IOException {
+        for (RegistrationDto registration : allRegistrations(exclusions)) {
+            consumer.accept(registration);
+        }
+    }
+
+    @Override
+    public void seedSeatCounters(List<SeatCounter> seeded) {
+        long end;
+        lock.writeLock().lock();
+        try {
+            //an unchanged agenda must not grow the log on every restart
+            List<SeatCounter> changed = seeded.stream()
+                    .filter(counter -> !counters.containsKey(counter.getTitle())
+                            || counters.get(counter.getTitle()).seats != counter.getSeats())
+                    .collect(Collectors.toList());
+            if (changed.isEmpty()) {
+                return;
+            }
+            end = append(out -> {
+                out.writeByte(SEATS);
+                out.writeInt(changed.size());
+                for (SeatCounter counter : changed) {
+                    out.writeUTF(counter.getTitle());
+                    out.writeInt(counter.getSeats());
+                    out.writeInt(counter.getTaken());
+                }
+            });
+            applySeats(changed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        registrationLog.sync(end);
+    }
+
+    private static List<SeatCounter> readSeats(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<SeatCounter> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(SeatCounter.builder()
+                    .title(in.readUTF())
+                    .seats(in.readInt())
+                    .taken(in.readInt())
+                    .build());
+        }
+        return result;
+    }
+
+    private void applySeats(List<SeatCounter> seeded) {
+        for (SeatCounter counter : seeded) {
+            Counter existing = counters.get(counter.getTitle());
+            if (existing != null) {
+                existing.seats = counter.getSeats();
+            } else {
+                counters.put(counter.getTitle(), new Counter(counter.getSeats(), counter.getTaken()));
+            }
+        }
+    }
+
+    @Override
+    public Moved moveSeats(String hash, List<SessionDto> sessions) {
+        return register(hash, sessions, false);
+    }
+
+    @Override
+    public Moved moveSeatsOrWait(String hash, List<SessionDto> sessions) {
+        return register(hash, sessions, true);
+    }
+
+    private Moved register(String hash, List<SessionDto> sessions, boolean wait) {
+        Moved moved;
+        long end;
+        lock.writeLock().lock();
+        try {
+            Set<String> previous = new HashSet<>(previousTitles(hash));
+            Choices choices = null;
+            try {
+                choices = move(hash, sessions, previous);
+            } catch (SeatsUnavailableException e) {
+                if (!wait) {
+                    throw e;
+                }
+            }
+            if (choices == null) {
+                end = join(hash, sessions, previous);
+                moved = new Moved(previous, true, List.of());
+            } else {
+                List<Promotion> promotions = new ArrayList<>();
+                end = store(CHOICES, choices);
+                long sequence = ++changes;
+                end = promote(choices.released, promotions, end);
+                moved = new Moved(previous, false, promotions, Set.of(), sequence);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        registrationLog.sync(end);
+        return moved;
+    }
+
+    /**
+     * Same steps as {@link patterns42.workshops.dao.SessionsDao#moveSeats}, with the write lock in place of the
+     * attendee's advisory lock.
+     *
+     * @throws SeatsUnavailableException when any of the newly chosen workshops is full
+     */
+    private Choices move(String hash, List<SessionDto> sessions, Set<String> previous) {
+        Set<String> chosenTitles = sessions.stream().map(SessionDto::getTitle).collect(Collectors.toSet());
+        SortedSet<String> touched = new TreeSet<>(chosenTitles);
+        touched.addAll(previous);
+        List<String> reserved = new ArrayList<>();
+        List<String> released = new ArrayList<>();
+        for (String title : touched) {
+            Counter counter = counters.get(title);
+            if (!previous.contains(title)) {
+                if (counter == null || counter.taken >= counter.seats) {
+                    throw new SeatsUnavailableException(title);
+                }
+                reserved.add(title);
+            } else if (!chosenTitles.contains(title) && counter != null && counter.taken > 0) {
+                released.add(title);
+            }
+        }
+        return new Choices(hash, System.currentTimeMillis(), sessions, reserved, released);
+    }
+
+    /**
+     * Puts {@code sessions} on the waitlist, unless the attendee already waits for exactly these.
+     *
+     * @return end of the appended record, 0 when there was nothing to append
+     */
+    private long join(String hash, List<SessionDto> sessions, Set<String> previous) {
+        Waiting current = waitlist.get(hash);
+        if (current != null && !current.promoted && Set.copyOf(current.sessions).equals(Set.copyOf(sessions))) {
+            return 0;
+        }
+        Set<String> full = sessions.stream()
+                .map(SessionDto::getTitle)
+                .filter(title -> !previous.contains(title))
+                .filter(title -> !counters.containsKey(title) || counters.get(title).taken >= counters.get(title).seats)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        long position = waitlistOrder.isEmpty() ? 1 : waitlistOrder.lastKey() + 1;
+        Waiting waiting = new Waiting(hash, position, List.copyOf(sessions), List.copyOf(full));
+        long end = append(out -> {
+            out.writeByte(WAITING);
+            waiting.write(out);
+        });
+        applyWaiting(waiting);
+        return end;
+    }
+
+    /**
+     * Same rules as {@link patterns42.workshops.dao.SessionsDao#promoteWaiting}, each promotion a record of
+     * its own.
+     *
+     * @return end of the last appended record
+     */
+    private long promote(List<String> released, List<Promotion> promotions, long end) {
+        Deque<String> freed = new ArrayDeque<>(new TreeSet<>(released));
+        while (!freed.isEmpty()) {
+            String title = freed.poll();
+            for (Waiting waiting : List.copyOf(waitlistOrder.values())) {
+                Counter counter = counters.get(title);
+                if (counter == null || counter.taken >= counter.seats) {
+                    break;
+                }
+                if (waiting.promoted || !waiting.wants(title) || holds(waiting.hash, title)) {
+                    continue;
+                }
+                Set<String> previous = new HashSet<>(previousTitles(waiting.hash));
+                Choices choices;
+                try {
+                    choices = move(waiting.hash, waiting.sessions, previous);
+                } catch (SeatsUnavailableException e) {
+                    continue;
+                }
+                end = store(PROMOTION, choices);
+                promotions.add(new Promotion(waiting.hash, previous, waiting.titles(), ++changes));
+                freed.addAll(choices.released);
+            }
+        }
+        return end;
+    }
+
+    private boolean holds(String hash, String title) {
+        return current.getOrDefault(hash, Map.of()).values().stream().anyMatch(choice -> choice.title.equals(title));
+    }
+
+    @Override
+    public List<WaitlistEntry> waitlist(String hash) {
+        lock.readLock().lock();
+        try {
+            Waiting waiting = waitlist.get(hash);
+            if (waiting == null) {
+                return List.of();
+            }
+            List<WaitlistEntry> entries = new ArrayList<>();
+            for (String title : waiting.full) {
+                int place = 1;
+                for (Waiting ahead : waitlistOrder.headMap(waiting.position).values()) {
+                    if (!ahead.promoted && ahead.wants(title) && !holds(ahead.hash, title)) {
+                        place++;
+                    }
+                }
+                entries.add(new WaitlistEntry(title, waiting.promoted, place));
+            }
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void storeIfSeatsLeft(String hash, List<SessionDto> sessions) {
+        Set<String> titles = sessions.stream().map(SessionDto::getTitle).collect(Collectors.toSet());
+        long end;
+        lock.writeLock().lock();
+        try {
+            for (String title : titles) {
+                Counter counter = counters.get(title);
+                if (counter == null || counter.taken >= counter.seats) {
+                    throw new SeatsUnavailableException(String.join(", ", titles));
+                }
+            }
+            end = store(CHOICES, new Choices(hash, System.currentTimeMillis(), sessions, List.of(), List.of()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        registrationLog.sync(end);
+    }
+
+    @Override
+    public void storeChoices(String hash, List<SessionDto> sessions) {
+        long end;
+        lock.writeLock().lock();
+        try {
+            end = store(CHOICES, new Choices(hash, System.currentTimeMillis(), sessions, List.of(), List.of()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        registrationLog.sync(end);
+    }
+
+    private List<String> previousTitles(String hash) {
+        return current.getOrDefault(hash, Map.of()).values().stream()
+                .map(Choice::getTitle)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param type {@code CHOICES} of the attendee's own, which end their wait, or a {@code PROMOTION}
+     */
+    private long store(byte type, Choices choices) {
+        long end = append(out -> {
+            out.writeByte(type);
+            choices.write(out);
+        });
+        apply(type, choices);
+        return end;
+    }
+
+    private void apply(byte type, Choices choices) {
+        applyChoices(choices);
+        if (type == PROMOTION) {
+            waitlist.get(choices.hash).promoted = true;
+        } else {
+            Waiting left = waitlist.remove(choices.hash);
+            if (left != null) {
+                waitlistOrder.remove(left.position);
+            }
+        }
+    }
+
+    /**
+     * Replaces the attendee's previous entry, if any.
+     */
+    private void applyWaiting(Waiting waiting) {
+        Waiting replaced = waitlist.put(waiting.hash, waiting);
+        if (replaced != null) {
+            waitlistOrder.remove(replaced.position);
+        }
+        waitlistOrder.put(waiting.position, waiting);
+    }
+
+    /**
+     * Seats move as recorded, not as recomputed - replay ends up with exactly the counters the writer saw.
+     */
+    private void applyChoices(Choices choices) {
+        Map<Integer, Choice> attendee = current.computeIfAbsent(choices.hash, hash -> new TreeMap<>());
+        for (SessionDto session : choices.sessions) {
+            Choice replaced = attendee.put(session.getSessionId(), new Choice(session.getTitle(), choices.epochMillis));
+            if (replaced != null) {
+                chosen.computeIfPresent(new Slot(session.getSessionId(), replaced.title),
+                        (slot, count) -> count > 1 ? count - 1 : null);
+            }
+            chosen.merge(new Slot(session.getSessionId(), session.getTitle()), 1, Integer::sum);
+        }
+        choices.reserved.forEach(title -> counters.computeIfPresent(title, (t, counter) -> counter.take(1)));
+        choices.released.forEach(title -> counters.computeIfPresent(title, (t, counter) -> counter.take(-1)));
+    }
+
+    private long append(RecordWriter record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            record.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return registrationLog.append(bytes.toByteArray());
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            result.put("attendees", users.size());
+            result.put("registered", current.size());
+            result.put("workshops", counters.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        result.put("log", registrationLog.toMap());
+        return result;
+    }
+
+    @Override
+    public void close() {
+        try {
+            registrationLog.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    @Value
+    private static class Choice {
+        String title;
+        long epochMillis;
+    }
+
+    @Value
+    private static class Slot {
+        int sessionId;
+        String title;
+    }
+
+    private static class Counter {
+        int seats;
+        int taken;
+
+        Counter(int seats, int taken) {
+            this.seats = seats;
+            this.taken = taken;
+        }
+
+        Counter take(int seats) {
+            taken = Math.max(0, taken + seats);
+            return this;
+        }
+    }
+
+    /**
+     * Current choices of one attendee, with the seats they took and gave back.
+     */
+    @Value
+    private static class Choices {
+        String hash;
+        long epochMillis;
+        List<SessionDto> sessions;
+        List<String> reserved;
+        List<String> released;
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(hash);
+            out.writeLong(epochMillis);
+            out.writeInt(sessions.size());
+            for (SessionDto session : sessions) {
+                out.writeInt(session.getSessionId());
+                out.writeUTF(session.getTitle());
+            }
+            writeTitles(out, reserved);
+            writeTitles(out, released);
+        }
+
+        static Choices read(DataInputStream in) throws IOException {
+            String hash = in.readUTF();
+            long epochMillis = in.readLong();
+            int count = in.readInt();
+            List<SessionDto> sessions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                sessions.add(SessionDto.builder()
+                        .sessionId(in.readInt())
+                        .title(in.readUTF())
+                        .build());
+            }
+            return new Choices(hash, epochMillis, sessions, readTitles(in), readTitles(in));
+        }
+
+        private static void writeTitles(DataOutputStream out, List<String> titles) throws IOException {
+            out.writeInt(titles.size());
+            for (String title : titles) {
+                out.writeUTF(title);
+            }
+        }
+
+        private static List<String> readTitles(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            List<String> titles = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                titles.add(in.readUTF());
+            }
+            return titles;
+        }
+    }
+
+    /**
+     * Choices of one attendee waiting for seats; {@code full} are the workshops that had none when they joined.
+     */
+    private static class Waiting {
+        final String hash;
+        final long position;
+        final List<SessionDto> sessions;
+        final List<String> full;
+        boolean promoted;
+
+        Waiting(String hash, long position, List<SessionDto> sessions, List<String> full) {
+            this.hash = hash;
+            this.position = position;
+            this.sessions = sessions;
+            this.full = full;
+        }
+
+        boolean wants(String title) {
+            return sessions.stream().anyMatch(session -> session.getTitle().equals(title));
+        }
+
+        Set<String> titles() {
+            return sessions.stream().map(SessionDto::getTitle).collect(Collectors.toSet());
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(hash);
+            out.writeLong(position);
+            out.writeInt(sessions.size());
+            for (SessionDto session : sessions) {
+                out.writeInt(session.getSessionId());
+                out.writeUTF(session.getTitle());
+            }
+            Choices.writeTitles(out, full);
+        }
+
+        static Waiting read(DataInputStream in) throws IOException {
+            String hash = in.readUTF();
+            long position = in.readLong();
+            int count = in.readInt();
+            List<SessionDto> sessions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                sessions.add(SessionDto.builder()
+                        .sessionId(in.readInt())
+                        .title(in.readUTF())
+                        .build());
+            }
+            return new Waiting(hash, position, sessions, Choices.readTitles(in));
+        }
+    }
+
+    @Value
+    @Builder
+    public static class Settings {
+        final Path path;
+        /**
+         * Flush every write to disk before it returns; off only where losing the last writes is acceptable.
+         */
+        @Builder.Default
+        final boolean sync = true;
+    }
+}
@@ -0,0 +1,244 @@
+package patterns42.workshops.dao.embedded;
+
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.metrics.LatencyHistogram;
+import patterns42.workshops.metrics.Metrics;
+import patterns42.workshops.metrics.ValueSummary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of records, written through a memory mapping. Every record is framed as
+ * {@code [length][crc32][payload]}; the mapping is zero filled ahead of the last record, so a zero length
+ * marks the end. A record cut short by a crash fails its checksum and is dropped, with everything after it.
+ * <p>
+ * Appends only copy bytes into the mapping. {@link #sync} makes them durable, one {@code msync} for every record
+ * appended while the previous one was running - concurrent writers share it (group commit).
+ */
+@Slf4j
+class RegistrationLog implements Closeable {
+
+    private static final int HEADER_BYTES = 8;
+
+    private final Path path;
+    private final Settings settings;
+    private final FileChannel channel;
+    private final Object syncLock = new Object();
+    private final ValueSummary syncBatch;
+    private final LatencyHistogram syncTime;
+    private MappedByteBuffer buffer;
+    private volatile long appended;
+    private volatile long records;
+    private volatile long durable;
+    private long syncedRecords;
+    private volatile IOException failure;
+
+    /**
+     * Opens (or creates) the log at {@code path} and hands every intact record to {@code replay}, in order.
+     */
+    RegistrationLog(Path path, Settings settings, Consumer<byte[]> replay, Metrics metrics) throws IOException {
+        this.path = path;
+        this.settings = settings;
+        this.syncBatch = metrics.summary("workshops_log_sync_batch_size",
+                "Registration log records made durable by one sync");
+        this.syncTime = metrics.histogram("workshops_log_sync_seconds", "Time to sync the registration log");
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, settings.getInitialBytes()));
+        recover(size, replay);
+        this.durable = appended;
+        this.syncedRecords = records;
+    }
+
+    private void recover(long size, Consumer<byte[]> replay) throws IOException {
+        int position = 0;
+        while (position + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + (long) length > buffer.capacity()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.duplicate().position(position + HEADER_BYTES).get(payload);
+            if ((int) checksum(payload) != buffer.getInt(position + 4)) {
+                break;
+            }
+            replay.accept(payload);
+            position += HEADER_BYTES + length;
+            records++;
+        }
+        appended = position;
+
+        //anything past the last intact record is a torn write - clear it, the next append must not look valid
+        //because stale bytes behind it happen to be
+        int dirty = position;
+        while (dirty < Math.min(size, buffer.capacity()) && buffer.get(dirty) == 0) {
+            dirty++;
+        }
+        if (dirty < size) {
+            log.warn("Registration log has a torn write, dropping it [path={}, records={}, offset={}, bytes={}]",
+                    path, records, position, size - position);
+            for (long i = position; i < Math.min(size, buffer.capacity()); i++) {
+                buffer.put((int) i, (byte) 0);
+            }
+            buffer.force();
+        }
+        log.info("Registration log opened [path={}, records={}, bytes={}]", path, records, appended);
+    }
+
+    /**
+     * Copies a record into the log - not durable before {@link #sync}.
+     *
+     * @return offset the record ends at, to {@link #sync} up to
+     */
+    synchronized long append(byte[] payload) {
+        ensureUsable();
+        long end = appended + HEADER_BYTES + payload.length;
+        if (end + HEADER_BYTES > buffer.capacity()) {
+            grow(end + HEADER_BYTES);
+        }
+        int position = (int) appended;
+        buffer.duplicate().position(position + HEADER_BYTES).put(payload);
+        buffer.putInt(position + 4, (int) checksum(payload));
+        //length last: until it is there the record reads as the end of the log
+        buffer.putInt(position, payload.length);
+        records++;
+        appended = end;
+        return end;
+    }
+
+    /**
+     * Doubles the mapping. Whatever was written through the old one is flushed first, so a later
+     * {@link #sync} of the new mapping is enough for all of it.
+     */
+    private void grow(long needed) {
+        long capacity = buffer.capacity();
+        while (capacity < needed) {
+            capacity *= 2;
+        }
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Registration log " + path + " is full");
+        }
+        try {
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            channel.force(true);
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException("Can't grow registration log " + path, e);
+        }
+        log.info("Registration log grown [path={}, bytes={}]", path, capacity);
+    }
+
+    /**
+     * Returns once everything up to {@code offset} is on disk. Whoever gets the lock first flushes for all
+     * appended so far; those waiting behind usually find their record already durable.
+     *
+     * @throws UncheckedIOException when the flush failed - the log takes no more writes then, as it can't tell
+     *                              what reached the disk
+     */
+    void sync(long offset) {
+        if (!settings.isSync()) {
+            return;
+        }
+        synchronized (syncLock) {
+            ensureUsable();
+            if (durable >= offset) {
+                return;
+            }
+            MappedByteBuffer current;
+            long target;
+            long count;
+            synchronized (this) {
+                current = buffer;
+                target = appended;
+                count = records;
+            }
+            long start = System.nanoTime();
+            try {
+                current.force();
+            } catch (RuntimeException e) {
+                failure = new IOException("msync failed", e);
+                throw new UncheckedIOException("Can't sync registration log " + path, failure);
+            }
+            syncTime.recordNanos(System.nanoTime() - start);
+            syncBatch.record(count - syncedRecords);
+            syncedRecords = count;
+            durable = target;
+        }
+    }
+
+    private void ensureUsable() {
+        if (failure != null) {
+            throw new UncheckedIOException("Registration log " + path + " failed before, restart to recover it", failure);
+        }
+    }
+
+    private static long checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("path", path.toString());
+        result.put("records", records);
+        result.put("bytes", appended);
+        result.put("durableBytes", settings.isSync() ? durable : appended);
+        result.put("syncs", syncTime.getCount());
+        result.put("syncBatch", summary(syncBatch));
+        result.put("syncMicros", summary(syncTime));
+        return result;
+    }
+
+    private static Map<String, Object> summary(LatencyHistogram histogram) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("p50", histogram.valueAtPercentile(50));
+        result.put("p99", histogram.valueAtPercentile(99));
+        result.put("max", histogram.valueAtPercentile(100));
+        return result;
+    }
+
+    private static Map<String, Object> summary(ValueSummary summary) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("p50", summary.valueAtPercentile(50));
+        result.put("p99", summary.valueAtPercentile(99));
+        result.put("max", summary.valueAtPercentile(100));
+        return result;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (failure == null) {
+            buffer.force();
+        }
+        channel.close();
+    }
+
+    @Value
+    @Builder
+    static class Settings {
+        /**
+         * Size the file is mapped at (and grows from, doubling).
+         */
+        @Builder.Default
+        final long initialBytes = 16 * 1024 * 1024;
+        /**
+         * Off only where losing the last writes in a crash is acceptable, e.g. tests and load tests.
+         */
+        @Builder.Default
+        final boolean sync = true;
+    }
+}
@@ -0,0 +1,126 @@
+package patterns42.workshops.export;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import patterns42.workshops.dao.SessionsDao.RegistrationDto;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Writes registrations row by row, so an export of any size needs only the writer's buffer.
+ */
+public class RegistrationsExport {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final Format format;
+    private final Writer out;
+    private final JsonGenerator json;
+
+    public RegistrationsExport(Format format, Writer out) throws IOException {
+        this.format = format;
+        this.out = out;
+        if (format == Format.NDJSON) {
+            this.json = JSON.createGenerator(out)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .setRootValueSeparator(null);
+        } else {
+            this.json = null;
+        }
+        if (format == Format.CSV) {
+            out.write("hash,title,insert_date\r\n");
+        }
+    }
+
+    public void write(RegistrationDto registration) throws IOException {
+        switch (format) {
+            case SPLIT:
+                //each row preceded by a newline, as the spreadsheet import has always received it
+                out.write("\n=SPLIT(\"");
+                out.write(String.valueOf(registration.getHash()));
+                out.write("###");
+                out.write(String.valueOf(registration.getTitle()));
+                out.write("###");
+                DateTimeFormatter.ISO_DATE_TIME.formatTo(registration.getDate(), out);
+                out.write("\"; \"###\"; TRUE; TRUE)");
+                break;
+            case CSV:
+                csvField(registration.getHash());
+                out.write(',');
+                csvField(registration.getTitle());
+                out.write(',');
+                DateTimeFormatter.ISO_DATE_TIME.formatTo(registration.getDate(), out);
+                out.write("\r\n");
+                break;
+            case NDJSON:
+                json.writeStartObject();
+                json.writeStringField("hash", registration.getHash());
+                json.writeStringField("title", registration.getTitle());
+                json.writeStringField("date", DateTimeFormatter.ISO_DATE_TIME.format(registration.getDate()));
+                json.writeEndObject();
+                json.writeRaw('\n');
+                break;
+        }
+    }
+
+    public void finish() throws IOException {
+        if (json != null) {
+            json.flush();
+        }
+        out.flush();
+    }
+
+    private void csvField(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    public enum Format {
+        SPLIT("text/plain"), CSV("text/csv"), NDJSON("application/x-ndjson");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * The {@code format} query parameter wins over the {@code Accept} header; the spreadsheet format is the default.
+         *
+         * @return empty when the query parameter names an unknown format
+         */
+        public static Optional<Format> negotiate(String parameter, String accept) {
+            if (parameter != null) {
+                return Arrays.stream(values())
+                        .filter(format -> format.name().equals(parameter.toUpperCase(Locale.ROOT)))
+                        .findFirst();
+            }
+            if (accept != null) {
+                if (accept.contains(CSV.contentType)) {
+                    return Optional.of(CSV);
+                }
+                if (accept.contains("ndjson")) {
+                    return Optional.of(NDJSON);
+                }
+            }
+            return Optional.of(SPLIT);
+        }
+    }
+}
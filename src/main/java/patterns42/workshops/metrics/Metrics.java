@@ -0,0 +1,180 @@
+package patterns42.workshops.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of histograms, summaries, counters and gauges, rendered in the Prometheus text format.
+ * <p>
+ * Callers register once (at startup, or when a handler is built) and keep the returned histogram or counter,
+ * so recording is a plain {@link LatencyHistogram} or {@link LongAdder} update - no lookup, lock or allocation.
+ * Registering the same name and labels again returns the existing instance.
+ */
+public class Metrics {
+
+    /**
+     * Upper bounds of the exported histogram buckets, in microseconds.
+     */
+    private static final long[] BUCKETS_MICROS = {
+            500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000};
+
+    /**
+     * Quantiles of exported summaries, as percentiles.
+     */
+    private static final double[] QUANTILES = {50, 90, 99, 100};
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * @param labels label names and values, alternating
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) register(name, help, Type.HISTOGRAM, labels, LatencyHistogram::new);
+    }
+
+    /**
+     * Exports a histogram owned by someone else, e.g. the connection pool's acquire time.
+     */
+    public void histogram(String name, String help, LatencyHistogram histogram, String... labels) {
+        register(name, help, Type.HISTOGRAM, labels, () -> histogram);
+    }
+
+    /**
+     * For values other than durations, e.g. how many writes share a commit.
+     */
+    public ValueSummary summary(String name, String help, String... labels) {
+        return (ValueSummary) register(name, help, Type.SUMMARY, labels, ValueSummary::new);
+    }
+
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) register(name, help, Type.COUNTER, labels, LongAdder::new);
+    }
+
+    /**
+     * Exports a counter kept elsewhere, read on every scrape.
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, Type.COUNTER, labels, () -> value);
+    }
+
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, Type.GAUGE, labels, () -> value);
+    }
+
+    private synchronized Object register(String name, String help, Type type, String[] labels,
+                                         Supplier<Object> metric) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels of " + name + " must be name and value pairs");
+        }
+        Family family = families.computeIfAbsent(name, n -> new Family(type, help));
+        if (family.type != type) {
+            throw new IllegalArgumentException(name + " is already registered as " + family.type);
+        }
+        return family.children.computeIfAbsent(labels(labels), l -> metric.get());
+    }
+
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : snapshot()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.name().toLowerCase(Locale.ROOT)).append('\n');
+            family.children.forEach((labels, metric) -> {
+                if (metric instanceof LatencyHistogram) {
+                    histogram(out, name, labels, (LatencyHistogram) metric);
+                } else if (metric instanceof ValueSummary) {
+                    summary(out, name, labels, (ValueSummary) metric);
+                } else {
+                    long value = metric instanceof LongAdder ? ((LongAdder) metric).sum() : ((LongSupplier) metric).getAsLong();
+                    sample(out, name, labels, null, value);
+                }
+            });
+        }
+        return out.toString();
+    }
+
+    private synchronized List<Map.Entry<String, Family>> snapshot() {
+        List<Map.Entry<String, Family>> result = new ArrayList<>();
+        families.forEach((name, family) -> result.add(Map.entry(name, family.copy())));
+        return result;
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] cumulative = histogram.cumulativeCounts(BUCKETS_MICROS);
+        for (int i = 0; i < BUCKETS_MICROS.length; i++) {
+            sample(out, name + "_bucket", labels, "le=\"" + seconds(BUCKETS_MICROS[i]) + "\"", cumulative[i]);
+        }
+        long count = cumulative[BUCKETS_MICROS.length];
+        sample(out, name + "_bucket", labels, "le=\"+Inf\"", count);
+        out.append(name).append("_sum").append(labels).append(' ').append(seconds(histogram.getSumMicros())).append('\n');
+        sample(out, name + "_count", labels, null, count);
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, ValueSummary summary) {
+        for (double percentile : QUANTILES) {
+            sample(out, name, labels, "quantile=\"" + percentile / 100 + "\"",
+                    summary.valueAtPercentile(percentile));
+        }
+        sample(out, name + "_sum", labels, null, summary.getSum());
+        sample(out, name + "_count", labels, null, summary.getCount());
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String extra, long value) {
+        out.append(name);
+        if (extra == null) {
+            out.append(labels);
+        } else if (labels.isEmpty()) {
+            out.append('{').append(extra).append('}');
+        } else {
+            out.append(labels, 0, labels.length() - 1).append(',').append(extra).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return Double.toString(micros / 1e6);
+    }
+
+    static String labels(String... labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return result.append('}').toString();
+    }
+
+    private enum Type {HISTOGRAM, SUMMARY, COUNTER, GAUGE}
+
+    private static class Family {
+        final Type type;
+        final String help;
+        final Map<String, Object> children = new LinkedHashMap<>();
+
+        Family(Type type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+
+        Family copy() {
+            Family copy = new Family(type, help);
+            copy.children.putAll(children);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package patterns42.workshops.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Request duration per HTTP method and route pattern ({@code /:hash}, not the actual hash). Routes are
+ * registered up front; requests for anything else (404s, scanners) are not recorded, so the number of series
+ * stays fixed no matter what clients send.
+ */
+public class RouteTimers {
+
+    private final Metrics metrics;
+    private final Map<String, Map<String, LatencyHistogram>> routes = new ConcurrentHashMap<>();
+
+    public RouteTimers(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void register(String method, String path) {
+        routes.computeIfAbsent(method, m -> new ConcurrentHashMap<>())
+                .put(path, metrics.histogram("workshops_http_request_duration_seconds",
+                        "Duration of HTTP requests until the response is written, per route",
+                        "method", method, "route", path));
+    }
+
+    public void record(String method, String path, long micros) {
+        Map<String, LatencyHistogram> paths = routes.get(method);
+        if (paths == null || path == null) {
+            return;
+        }
+        LatencyHistogram histogram = paths.get(path);
+        if (histogram != null) {
+            histogram.recordMicros(micros);
+        }
+    }
+}
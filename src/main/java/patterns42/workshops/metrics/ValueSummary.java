@@ -0,0 +1,30 @@
+package patterns42.workshops.metrics;
+
+/**
+ * Distribution of plain values - batch sizes, record counts - in the buckets of {@link LatencyHistogram}, which
+ * don't depend on the unit. Exported as a Prometheus summary, as buckets in seconds would make no sense for them.
+ */
+public class ValueSummary {
+
+    private final LatencyHistogram values = new LatencyHistogram();
+
+    public void record(long value) {
+        values.recordMicros(value);
+    }
+
+    public long getCount() {
+        return values.getCount();
+    }
+
+    public long getSum() {
+        return values.getSumMicros();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding given percentile, 0 when nothing was recorded
+     */
+    public long valueAtPercentile(double percentile) {
+        return values.valueAtPercentile(percentile);
+    }
+}
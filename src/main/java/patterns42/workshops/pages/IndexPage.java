@@ -0,0 +1,224 @@
+package patterns42.workshops.pages;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.jtwig.JtwigModel;
+import org.jtwig.JtwigTemplate;
+import org.jtwig.environment.DefaultEnvironmentConfiguration;
+import patterns42.workshops.agenda.model.ScheduleDay;
+import patterns42.workshops.agenda.model.Session;
+import patterns42.workshops.dao.SessionsDao.WaitlistEntry;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * The registration page compiled once per schedule. {@code index.twig} is rendered with a marker in place of every
+ * per-attendee value, and the output is cut into static byte chunks around them. A request only writes the chunks
+ * and the values in between - the same bytes a full Jtwig render would produce.
+ */
+@Slf4j
+public class IndexPage {
+
+    static final String TEMPLATE = "/templates/index.twig";
+
+    private static final char MARK = '\u0000';
+    private static final String TEST_STYLE = " style=\"background-color: thistle\" ";
+    private static final String CHECKED = " checked ";
+    private static final String READONLY = " readonly ";
+
+    private final List<Day> days;
+    private final Map<String, Integer> seats;
+    private final List<Slot> slots = new ArrayList<>();
+    private final byte[][] chunks;
+    private final int[] slotAfterChunk;
+    private final int staticLength;
+
+    /**
+     * @param days registration days, their timeslots are numbered from 1 across all of them like in
+     *             {@link patterns42.workshops.agenda.ScheduleIndex}
+     */
+    public IndexPage(List<ScheduleDay> days) {
+        List<Day> numbered = new ArrayList<>();
+        int number = 0;
+        for (ScheduleDay day : days) {
+            List<Timeslot> timeslots = new ArrayList<>();
+            for (Map.Entry<String, List<Session>> timeslot : day.getTimeslots().entrySet()) {
+                timeslots.add(new Timeslot(++number, timeslot.getKey(), timeslot.getValue()));
+            }
+            numbered.add(new Day(timeslots));
+        }
+        this.days = List.copyOf(numbered);
+        this.seats = days.stream()
+                .flatMap(day -> day.getAllSessions().stream())
+                .filter(Session::isWorkshop)
+                .collect(Collectors.toMap(Session::getTitle, Session::getSeats, (s1, s2) -> s1, LinkedHashMap::new));
+
+        String compiled = render(model(slot -> {
+            slots.add(slot);
+            return MARK + String.valueOf(slots.size() - 1) + MARK;
+        }));
+
+        List<byte[]> chunks = new ArrayList<>();
+        List<Integer> references = new ArrayList<>();
+        int start = 0;
+        for (int mark = compiled.indexOf(MARK); mark >= 0; mark = compiled.indexOf(MARK, start)) {
+            int end = compiled.indexOf(MARK, mark + 1);
+            chunks.add(compiled.substring(start, mark).getBytes(StandardCharsets.UTF_8));
+            references.add(Integer.valueOf(compiled.substring(mark + 1, end)));
+            start = end + 1;
+        }
+        chunks.add(compiled.substring(start).getBytes(StandardCharsets.UTF_8));
+
+        this.chunks = chunks.toArray(new byte[0][]);
+        this.slotAfterChunk = references.stream().mapToInt(Integer::intValue).toArray();
+        this.staticLength = chunks.stream().mapToInt(chunk -> chunk.length).sum();
+        log.info("Compiled {} [chunks={}, staticBytes={}]", TEMPLATE, this.chunks.length, staticLength);
+    }
+
+    /**
+     * @param waitlist full workshops the attendee waits for, or was given a seat in
+     * @param taken    current number of attendees per workshop title
+     */
+    public byte[] render(User user, boolean test, Collection<String> previous, List<WaitlistEntry> waitlist,
+                         ToIntFunction<String> taken) {
+        Attendee attendee = new Attendee(user, test, previous, waitlist, taken);
+        byte[][] values = new byte[slots.size()][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = value(slots.get(i), attendee).getBytes(StandardCharsets.UTF_8);
+        }
+
+        ByteArrayOutputStream page = new ByteArrayOutputStream(staticLength + 1024);
+        for (int i = 0; i < slotAfterChunk.length; i++) {
+            page.writeBytes(chunks[i]);
+            page.writeBytes(values[slotAfterChunk[i]]);
+        }
+        page.writeBytes(chunks[chunks.length - 1]);
+        return page.toByteArray();
+    }
+
+    /**
+     * Full Jtwig render of the same attendee, the reference {@link #render} has to match.
+     */
+    String renderTemplate(User user, boolean test, Collection<String> previous, List<WaitlistEntry> waitlist,
+                          ToIntFunction<String> taken) {
+        Attendee attendee = new Attendee(user, test, previous, waitlist, taken);
+        return render(model(slot -> value(slot, attendee)));
+    }
+
+    private static String render(Map<String, Object> model) {
+        //same configuration as Javalin's JavalinJtwig
+        return JtwigTemplate.classpathTemplate(TEMPLATE, new DefaultEnvironmentConfiguration())
+                .render(JtwigModel.newModel(model));
+    }
+
+    private Map<String, Object> model(Function<Slot, String> value) {
+        Map<String, String> checked = new HashMap<>();
+        Map<String, String> readonly = new HashMap<>();
+        Map<String, Capacity> popularity = new HashMap<>();
+        seats.forEach((title, max) -> {
+            checked.put(title, value.apply(new Slot(Slot.Kind.CHECKED, title)));
+            readonly.put(title, value.apply(new Slot(Slot.Kind.READONLY, title)));
+            popularity.put(title, new Capacity(value.apply(new Slot(Slot.Kind.CURRENT, title)), max));
+        });
+
+        Map<String, Object> attrs = new HashMap<>();
+        attrs.put("hash", value.apply(new Slot(Slot.Kind.HASH, null)));
+        attrs.put("name", value.apply(new Slot(Slot.Kind.NAME, null)));
+        attrs.put("bodyStyle", value.apply(new Slot(Slot.Kind.BODY_STYLE, null)));
+        attrs.put("waitlist", value.apply(new Slot(Slot.Kind.WAITLIST, null)));
+        attrs.put("checked", checked);
+        attrs.put("readonly", readonly);
+        attrs.put("popularity", popularity);
+        attrs.put("days", days);
+        return attrs;
+    }
+
+    private String value(Slot slot, Attendee attendee) {
+        switch (slot.kind) {
+            case HASH:
+                return Objects.toString(attendee.user.getHash(), "");
+            case NAME:
+                return Objects.toString(attendee.user.getName(), "");
+            case BODY_STYLE:
+                return attendee.test ? TEST_STYLE : "";
+            case WAITLIST:
+                return waitlist(attendee.waitlist);
+            case CHECKED:
+                return attendee.previous.contains(slot.title) ? CHECKED : "";
+            case READONLY:
+                int max = Optional.ofNullable(seats.get(slot.title)).orElse(Integer.MAX_VALUE);
+                return attendee.taken.applyAsInt(slot.title) >= max ? READONLY : "";
+            case CURRENT:
+                return String.valueOf(attendee.taken.applyAsInt(slot.title));
+            default:
+                throw new IllegalArgumentException("Unknown slot " + slot);
+        }
+    }
+
+    private static String waitlist(List<WaitlistEntry> entries) {
+        String waiting = entries.stream()
+                .filter(entry -> !entry.isPromoted())
+                .map(entry -> entry.getTitle() + " (" + entry.getPlace() + ". w kolejce)")
+                .collect(Collectors.joining(", "));
+        String promoted = entries.stream()
+                .filter(WaitlistEntry::isPromoted)
+                .map(WaitlistEntry::getTitle)
+                .collect(Collectors.joining(", "));
+        StringBuilder text = new StringBuilder();
+        if (!waiting.isEmpty()) {
+            text.append("Czekasz na miejsce: ").append(waiting).append(". Zapiszemy Cię, gdy tylko się zwolni.");
+        }
+        if (!promoted.isEmpty()) {
+            text.append("Zwolniło się miejsce - zapisaliśmy Cię z listy oczekujących na: ").append(promoted).append('.');
+        }
+        return text.toString();
+    }
+
+    @Value
+    private static class Slot {
+        enum Kind {HASH, NAME, BODY_STYLE, WAITLIST, CHECKED, READONLY, CURRENT}
+
+        Kind kind;
+        String title;
+    }
+
+    @Value
+    private static class Attendee {
+        User user;
+        boolean test;
+        Collection<String> previous;
+        List<WaitlistEntry> waitlist;
+        ToIntFunction<String> taken;
+    }
+
+    @Value
+    public static class Day {
+        List<Timeslot> timeslots;
+    }
+
+    @Value
+    public static class Timeslot {
+        int number;
+        String hour;
+        List<Session> sessions;
+    }
+
+    @Value
+    public static class Capacity {
+        String current;
+        Integer max;
+    }
+}
@@ -0,0 +1,97 @@
+package patterns42.workshops.seats;
+
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.UserDataParser;
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.agenda.model.Session;
+import patterns42.workshops.dao.SessionsDao;
+import patterns42.workshops.dao.SessionsDao.Moved;
+import patterns42.workshops.dao.SessionsDao.SessionDto;
+import patterns42.workshops.dao.Storage;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Seats counted by the {@link Storage} along with the choices - with PostgreSQL ({@code seat_counters}) limits
+ * hold for any number of application nodes. With the waitlist on, a submission including a full workshop waits
+ * for seats instead of being rejected.
+ */
+@Slf4j
+public class DatabaseSeatReservations implements SeatReservations {
+
+    private final Storage storage;
+    private final boolean waitlist;
+
+    public DatabaseSeatReservations(Storage storage, boolean waitlist) {
+        this.storage = storage;
+        this.waitlist = waitlist;
+    }
+
+    /**
+     * Creates a counter for every workshop of the schedule. Counters already in the database keep their
+     * {@code taken} value and only get the current limit, new ones start from persisted {@code choices}.
+     */
+    public void seed(Schedule schedule, Map<String, ? extends Collection<String>> choices) {
+        Map<String, Long> taken = choices.values().stream()
+                .flatMap(Collection::stream)
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+        seedCounters(schedule, taken);
+    }
+
+    /**
+     * New workshops get counters that start from current registrations, in case a title comes back to the agenda.
+     * A workshop spanning two timeslots is ranked once per timeslot, hence the max.
+     */
+    @Override
+    public void scheduleChanged(Schedule schedule) {
+        Map<String, Long> taken = storage.sessionsPopularity(List.of(UserDataParser.TEST_USER.getHash())).stream()
+                .collect(Collectors.toMap(SessionsDao.PopularityRank::getTitle, rank -> (long) rank.getCount(), Math::max));
+        seedCounters(schedule, taken);
+    }
+
+    private void seedCounters(Schedule schedule, Map<String, Long> taken) {
+        List<SessionsDao.SeatCounter> counters = schedule.getAllSessions().stream()
+                .filter(Session::isWorkshop)
+                .collect(Collectors.toMap(Session::getTitle, Function.identity(), (s1, s2) -> s1))
+                .values().stream()
+                .map(session -> SessionsDao.SeatCounter.builder()
+                        .title(session.getTitle())
+                        .seats(Optional.ofNullable(session.getSeats()).orElse(0))
+                        .taken(taken.getOrDefault(session.getTitle(), 0L).intValue())
+                        .build())
+                .collect(Collectors.toList());
+
+        storage.seedSeatCounters(counters);
+        log.info("Seat counters seeded [workshops={}]", counters.size());
+    }
+
+    @Override
+    public Moved register(User user, List<SessionDto> sessions) {
+        Moved moved;
+        if (UserDataParser.TEST_USER.equals(user)) {
+            //test account never holds seats, it only needs some room left
+            storage.storeIfSeatsLeft(user.getHash(), sessions);
+            moved = new Moved(Set.of(), false, List.of());
+        } else if (waitlist) {
+            moved = storage.moveSeatsOrWait(user.getHash(), sessions);
+        } else {
+            moved = storage.moveSeats(user.getHash(), sessions);
+        }
+
+        if (moved.isWaiting()) {
+            log.info("Waiting for seats [hash={}, data={}]", user, sessions);
+        } else {
+            log.info("Insert successful [hash={}, previous={}, data={}]", user, moved.getPrevious(), sessions);
+        }
+        moved.getPromotions().forEach(promotion -> log.info("Promoted from waitlist [hash={}, previous={}, data={}]",
+                promotion.getHash(), promotion.getPrevious(), promotion.getChosen()));
+        return moved;
+    }
+}
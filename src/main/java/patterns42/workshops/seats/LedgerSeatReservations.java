@@ -0,0 +1,65 @@
+package patterns42.workshops.seats;
+
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.UserDataParser;
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.dao.SeatsUnavailableException;
+import patterns42.workshops.dao.SessionsDao.Moved;
+import patterns42.workshops.dao.SessionsDao.SessionDto;
+import patterns42.workshops.dao.Storage;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Seats counted by this JVM only - fastest, but correct just for a single application node. Has no waitlist,
+ * a full workshop rejects the submission.
+ */
+@Slf4j
+public class LedgerSeatReservations implements SeatReservations {
+
+    private final Storage storage;
+    private final SeatLedger seatLedger;
+
+    public LedgerSeatReservations(Storage storage, SeatLedger seatLedger) {
+        this.storage = storage;
+        this.seatLedger = seatLedger;
+    }
+
+    @Override
+    public Moved register(User user, List<SessionDto> sessions) {
+        Set<String> titles = sessions.stream().map(SessionDto::getTitle).collect(Collectors.toSet());
+
+        if (UserDataParser.TEST_USER.equals(user)) {
+            //test account never holds seats, it only needs some room left
+            if (!seatLedger.hasRoom(titles)) {
+                throw new SeatsUnavailableException(String.join(", ", titles));
+            }
+            insertSessions(user, sessions);
+            return new Moved(Set.of(), false, List.of());
+        }
+
+        Set<String> previous = seatLedger.move(user.getHash(), titles)
+                .orElseThrow(() -> new SeatsUnavailableException(String.join(", ", titles)));
+        try {
+            insertSessions(user, sessions);
+        } catch (RuntimeException e) {
+            seatLedger.revert(user.getHash(), previous);
+            throw e;
+        }
+        return new Moved(previous, false, List.of());
+    }
+
+    @Override
+    public void scheduleChanged(Schedule schedule) {
+        seatLedger.resize(schedule);
+    }
+
+    private void insertSessions(User user, List<SessionDto> sessions) {
+        storage.storeChoices(user.getHash(), sessions);
+
+        log.info("Insert successful [hash={}, data={}]", user, sessions);
+    }
+}
@@ -0,0 +1,194 @@
+package patterns42.workshops.seats;
+
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.agenda.model.Session;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * In-process seat bookkeeping: one atomic counter per workshop and the set of workshops each attendee holds.
+ * Replacing an attendee's choices is a single atomic step per hash, so a workshop can never be overbooked
+ * by concurrent submissions.
+ */
+@Slf4j
+public class SeatLedger {
+
+    private volatile Map<String, Seats> seats;
+    private final ConcurrentMap<String, Set<String>> holdings = new ConcurrentHashMap<>();
+
+    public SeatLedger(Schedule schedule) {
+        this.seats = seats(schedule, Map.of());
+    }
+
+    /**
+     * Applies limits of a new schedule version. Workshops that stay keep their taken seats, a lower limit
+     * only stops new reservations. A workshop that returns after being removed counts the attendees still
+     * holding it.
+     */
+    public void resize(Schedule schedule) {
+        this.seats = seats(schedule, seats);
+        log.info("Seat ledger resized [seats={}]", seats);
+    }
+
+    private Map<String, Seats> seats(Schedule schedule, Map<String, Seats> existing) {
+        return schedule.getAllSessions().stream()
+                .filter(Session::isWorkshop)
+                .collect(Collectors.toUnmodifiableMap(
+                        Session::getTitle,
+                        session -> {
+                            int max = Optional.ofNullable(session.getSeats()).orElse(0);
+                            Seats workshop = existing.get(session.getTitle());
+                            if (workshop == null) {
+                                return new Seats(max, holders(session.getTitle()));
+                            }
+                            workshop.max = max;
+                            return workshop;
+                        },
+                        (s1, s2) -> s1
+                ));
+    }
+
+    private int holders(String title) {
+        return (int) holdings.values().stream().filter(titles -> titles.contains(title)).count();
+    }
+
+    /**
+     * Loads already persisted choices without checking limits - the database is the source of truth at startup.
+     */
+    public void restore(Map<String, ? extends Collection<String>> choices) {
+        Map<String, Seats> seats = this.seats;
+        choices.forEach((hash, titles) -> {
+            Set<String> known = titles.stream()
+                    .filter(seats::containsKey)
+                    .collect(Collectors.toUnmodifiableSet());
+            known.forEach(title -> seats.get(title).taken.incrementAndGet());
+            holdings.put(hash, known);
+        });
+        log.info("Seat ledger restored [attendees={}, seats={}]", holdings.size(), seats);
+    }
+
+    /**
+     * Takes a seat in every workshop in {@code titles} that the attendee does not hold yet and releases the ones
+     * no longer chosen. Either all new seats are taken or nothing changes.
+     *
+     * @return previous choices of the attendee, or empty when any of the workshops is full or unknown
+     */
+    public Optional<Set<String>> move(String hash, Set<String> titles) {
+        Map<String, Seats> seats = this.seats;
+        AtomicReference<Set<String>> previous = new AtomicReference<>();
+        holdings.compute(hash, (h, held) -> {
+            Set<String> current = Objects.requireNonNullElse(held, Set.of());
+            List<Seats> acquired = new ArrayList<>();
+            for (String title : titles) {
+                if (current.contains(title)) {
+                    continue;
+                }
+                Seats workshop = seats.get(title);
+                if (workshop == null || !workshop.tryAcquire()) {
+                    acquired.forEach(Seats::release);
+                    return held;
+                }
+                acquired.add(workshop);
+            }
+            current.stream()
+                    .filter(title -> !titles.contains(title))
+                    .map(seats::get)
+                    .filter(Objects::nonNull)
+                    .forEach(Seats::release);
+            previous.set(current);
+            return Set.copyOf(titles);
+        });
+        return Optional.ofNullable(previous.get());
+    }
+
+    /**
+     * Gives the attendee back {@code titles} without checking limits - undoes a {@link #move} that could not be
+     * stored, as the database still holds these choices even when the seats were taken by somebody else meanwhile.
+     */
+    public void revert(String hash, Set<String> titles) {
+        Map<String, Seats> seats = this.seats;
+        holdings.compute(hash, (h, held) -> {
+            Set<String> current = Objects.requireNonNullElse(held, Set.of());
+            current.stream()
+                    .filter(title -> !titles.contains(title))
+                    .map(seats::get)
+                    .filter(Objects::nonNull)
+                    .forEach(Seats::release);
+            Set<String> known = titles.stream()
+                    .filter(seats::containsKey)
+                    .collect(Collectors.toUnmodifiableSet());
+            known.stream()
+                    .filter(title -> !current.contains(title))
+                    .forEach(title -> seats.get(title).taken.incrementAndGet());
+            return known;
+        });
+    }
+
+    /**
+     * Checks that every workshop has a free seat without taking any.
+     */
+    public boolean hasRoom(Set<String> titles) {
+        Map<String, Seats> seats = this.seats;
+        return titles.stream()
+                .map(seats::get)
+                .allMatch(workshop -> workshop != null && workshop.taken.get() < workshop.max);
+    }
+
+    public boolean contains(String title) {
+        return seats.containsKey(title);
+    }
+
+    public int taken(String title) {
+        return seats.get(title).taken.get();
+    }
+
+    public int max(String title) {
+        return seats.get(title).max;
+    }
+
+    public Set<String> workshops() {
+        return seats.keySet();
+    }
+
+    private static class Seats {
+        volatile int max;
+        final AtomicInteger taken = new AtomicInteger();
+
+        Seats(int max, int taken) {
+            this.max = max;
+            this.taken.set(taken);
+        }
+
+        boolean tryAcquire() {
+            int current;
+            do {
+                current = taken.get();
+                if (current >= max) {
+                    return false;
+                }
+            } while (!taken.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void release() {
+            taken.decrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return taken.get() + "/" + max;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package patterns42.workshops.seats;
+
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.dao.SeatsUnavailableException;
+import patterns42.workshops.dao.SessionsDao.Moved;
+import patterns42.workshops.dao.SessionsDao.SessionDto;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.util.List;
+
+/**
+ * Stores attendee's choices, taking a seat in each newly chosen workshop and giving back the ones left.
+ */
+public interface SeatReservations {
+
+    /**
+     * @return workshops the attendee held before (always empty for the test account), whether the choices went
+     * to the waitlist instead, and waiting attendees given seats that were freed
+     * @throws SeatsUnavailableException when any of the chosen workshops is already full and there is no waitlist
+     */
+    Moved register(User user, List<SessionDto> sessions);
+
+    /**
+     * Picks up seat limits and workshops of a new schedule version.
+     */
+    void scheduleChanged(Schedule schedule);
+}
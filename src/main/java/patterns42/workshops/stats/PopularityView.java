@@ -0,0 +1,224 @@
+package patterns42.workshops.stats;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.dao.SessionsDao.Popularity;
+import patterns42.workshops.dao.SessionsDao.PopularityRank;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Number of attendees per workshop kept in memory. Every saved registration is applied as a delta and the whole
+ * view is periodically reconciled with the database. Readers get an immutable, already serialized {@link Snapshot}
+ * that is rebuilt only after the counts changed.
+ * <p>
+ * Deltas carry the number of their change, so that one already included in the loaded counts is not applied twice.
+ */
+@Slf4j
+public class PopularityView {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Supplier<Popularity> loader;
+    private final AtomicLong version = new AtomicLong();
+    private volatile ConcurrentHashMap<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot = Snapshot.of(-1, List.of());
+    //deltas take the read lock, swapping in reloaded counts the write lock - so none lands in a map being replaced
+    private final ReadWriteLock swap = new ReentrantReadWriteLock();
+    private final Object reloading = new Object();
+    private volatile Queue<Delta> duringReload;
+    private volatile Popularity loaded = Popularity.unnumbered(List.of());
+
+    public PopularityView(Supplier<Popularity> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Moves one attendee from {@code previous} workshops to {@code current} ones.
+     *
+     * @param sequence number of the change, 0 when not numbered
+     */
+    public void apply(Set<String> previous, Set<String> current, long sequence) {
+        swap.readLock().lock();
+        try {
+            if (loaded.includes(sequence)) {
+                return;
+            }
+            Queue<Delta> duringReload = this.duringReload;
+            if (duringReload != null) {
+                duringReload.add(new Delta(previous, current, sequence));
+            }
+            if (apply(counts, previous, current)) {
+                version.incrementAndGet();
+            }
+        } finally {
+            swap.readLock().unlock();
+        }
+    }
+
+    private static boolean apply(Map<String, AtomicInteger> counts, Set<String> previous, Set<String> current) {
+        boolean changed = false;
+        for (String title : previous) {
+            if (!current.contains(title)) {
+                counts.computeIfAbsent(title, t -> new AtomicInteger()).decrementAndGet();
+                changed = true;
+            }
+        }
+        for (String title : current) {
+            if (!previous.contains(title)) {
+                counts.computeIfAbsent(title, t -> new AtomicInteger()).incrementAndGet();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Replaces the counts with ones read from the database. Deltas applied while reading are replayed on top,
+     * unless the read included their change - an unnumbered one is always replayed.
+     */
+    public void reload() {
+        synchronized (reloading) {
+            Queue<Delta> applied = new ConcurrentLinkedQueue<>();
+            this.duringReload = applied;
+            try {
+                Popularity popularity = loader.get();
+                ConcurrentHashMap<String, AtomicInteger> fresh = new ConcurrentHashMap<>();
+                popularity.getRanks().forEach(rank -> fresh.merge(rank.getTitle(), new AtomicInteger(rank.getCount()),
+                        (c1, c2) -> c1.get() >= c2.get() ? c1 : c2));
+
+                swap.writeLock().lock();
+                try {
+                    this.duringReload = null;
+                    applied.stream()
+                            .filter(delta -> !popularity.includes(delta.getSequence()))
+                            .forEach(delta -> apply(fresh, delta.getPrevious(), delta.getCurrent()));
+                    this.loaded = popularity;
+                    if (!sameCounts(counts, fresh)) {
+                        log.info("Popularity view reconciled with database [previous={}, current={}]", counts, fresh);
+                        this.counts = fresh;
+                        version.incrementAndGet();
+                    }
+                } finally {
+                    swap.writeLock().unlock();
+                }
+            } finally {
+                this.duringReload = null;
+            }
+        }
+    }
+
+    public void reloadEvery(Duration period) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "popularity-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reload();
+            } catch (RuntimeException e) {
+                log.warn("Popularity view reload failed, keeping previous one", e);
+            }
+        }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public int count(String title) {
+        AtomicInteger count = counts.get(title);
+        return count == null ? 0 : count.get();
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    public Snapshot snapshot() {
+        Snapshot current = this.snapshot;
+        long latest = version.get();
+        if (current.getVersion() == latest) {
+            return current;
+        }
+        synchronized (this) {
+            if (this.snapshot.getVersion() != latest) {
+                this.snapshot = Snapshot.of(latest, ranks());
+            }
+            return this.snapshot;
+        }
+    }
+
+    private List<PopularityRank> ranks() {
+        return counts.entrySet().stream()
+                .filter(e -> e.getValue().get() > 0)
+                .map(e -> new PopularityRank(e.getKey(), e.getValue().get()))
+                .sorted(Comparator.comparing(PopularityRank::getCount).reversed()
+                        .thenComparing(PopularityRank::getTitle))
+                .collect(Collectors.toList());
+    }
+
+    private static boolean sameCounts(Map<String, AtomicInteger> left, Map<String, AtomicInteger> right) {
+        return nonZero(left).equals(nonZero(right));
+    }
+
+    private static Map<String, Integer> nonZero(Map<String, AtomicInteger> counts) {
+        return counts.entrySet().stream()
+                .filter(e -> e.getValue().get() != 0)
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().get()));
+    }
+
+    @Value
+    private static class Delta {
+        final Set<String> previous;
+        final Set<String> current;
+        final long sequence;
+    }
+
+    @Value
+    public static class Snapshot {
+        final long version;
+        final List<PopularityRank> ranks;
+        final byte[] json;
+        final String etag;
+
+        static Snapshot of(long version, List<PopularityRank> ranks) {
+            try {
+                byte[] json = MAPPER.writeValueAsBytes(ranks);
+                return new Snapshot(version, ranks, json, "\"" + sha1(json) + "\"");
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Can't serialize popularity", e);
+            }
+        }
+
+        private static String sha1(byte[] content) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+                StringBuilder hex = new StringBuilder();
+                for (int i = 0; i < 8; i++) {
+                    hex.append(String.format("%02x", digest[i]));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
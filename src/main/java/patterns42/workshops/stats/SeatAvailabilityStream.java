@@ -0,0 +1,331 @@
+package patterns42.workshops.stats;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.javalin.serversentevent.SseClient;
+import lombok.extern.slf4j.Slf4j;
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.agenda.model.Session;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Pushes seat availability to browsers over Server-Sent Events. Changes are coalesced: at most one {@code seats}
+ * frame per interval, carrying only workshops whose count changed. Connections are parked as async servlet
+ * requests, so idle clients cost no threads. Frames are computed on a single scheduler thread and written with
+ * non-blocking servlet IO: a client that doesn't read only grows its own queue, and once it is more than
+ * {@value #MAX_QUEUED} frames behind it is dropped - its browser reconnects and starts over with a full frame.
+ */
+@Slf4j
+public class SeatAvailabilityStream {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    static final int MAX_QUEUED = 8;
+
+    private final PopularityView popularity;
+    private volatile Map<String, Integer> limits;
+    private volatile boolean resend;
+    private final Set<Subscriber> clients = ConcurrentHashMap.newKeySet();
+    private final Queue<Subscriber> joining = new ConcurrentLinkedQueue<>();
+
+    //accessed only by the scheduler thread
+    private Map<String, Integer> lastSent = Map.of();
+    private long lastVersion = -1;
+    private long lastFrameAt = System.nanoTime();
+
+    public SeatAvailabilityStream(PopularityView popularity, Schedule schedule) {
+        this.popularity = popularity;
+        this.limits = limits(schedule);
+    }
+
+    /**
+     * Workshops or limits changed - every client gets a full frame on the next tick.
+     */
+    public void scheduleChanged(Schedule schedule) {
+        this.limits = limits(schedule);
+        this.resend = true;
+    }
+
+    private static Map<String, Integer> limits(Schedule schedule) {
+        return schedule.getAllSessions().stream()
+                .filter(Session::isWorkshop)
+                .collect(Collectors.toUnmodifiableMap(
+                        Session::getTitle,
+                        session -> Optional.ofNullable(session.getSeats()).orElse(0),
+                        (s1, s2) -> s1
+                ));
+    }
+
+    /**
+     * Takes over the response of {@code client}: frames are written to it directly, not through
+     * {@link SseClient#sendEvent}, which would block.
+     */
+    public void connect(SseClient client) {
+        AsyncContext async = client.ctx.req.getAsyncContext();
+        ServletOutputStream output;
+        try {
+            output = async.getResponse().getOutputStream();
+        } catch (IOException e) {
+            log.debug("Seat availability client gone before the first frame", e);
+            async.complete();
+            return;
+        }
+        Subscriber subscriber = subscribe(new ServletConnection(async, output));
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                subscriber.drop();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                subscriber.drop();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                subscriber.drop();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        output.setWriteListener(new WriteListener() {
+            @Override
+            public void onWritePossible() {
+                subscriber.pump();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                log.debug("Seat availability client gone", t);
+                subscriber.drop();
+            }
+        });
+    }
+
+    Subscriber subscribe(Connection connection) {
+        Subscriber subscriber = new Subscriber(connection);
+        joining.add(subscriber);
+        return subscriber;
+    }
+
+    public int connected() {
+        return clients.size() + joining.size();
+    }
+
+    public void start(Duration interval, Duration heartbeat) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "seats-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                tick(heartbeat);
+            } catch (RuntimeException e) {
+                log.warn("Seat availability push failed", e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    void tick(Duration heartbeat) {
+        String delta = delta();
+        if (delta != null) {
+            broadcast("seats", delta);
+        } else if (System.nanoTime() - lastFrameAt > heartbeat.toNanos()) {
+            //lets the container notice connections closed by the browser
+            broadcast("ping", "{}");
+        }
+
+        Subscriber client;
+        if ((client = joining.poll()) != null) {
+            String full = frame(lastVersion, lastSent);
+            do {
+                if (!client.isClosed()) {
+                    clients.add(client);
+                    client.send("seats", full);
+                }
+            } while ((client = joining.poll()) != null);
+        }
+    }
+
+    /**
+     * @return frame with workshops changed since the previous call, or null when nothing changed
+     */
+    String delta() {
+        long version = popularity.version();
+        if (resend) {
+            resend = false;
+            lastSent = Map.of();
+            lastVersion = -1;
+        }
+        if (version == lastVersion) {
+            return null;
+        }
+        Map<String, Integer> counts = counts();
+        Map<String, Integer> changed = counts.entrySet().stream()
+                .filter(e -> !e.getValue().equals(lastSent.get(e.getKey())))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        lastSent = counts;
+        lastVersion = version;
+        return changed.isEmpty() ? null : frame(version, changed);
+    }
+
+    private void broadcast(String event, String data) {
+        clients.forEach(client -> client.send(event, data));
+        lastFrameAt = System.nanoTime();
+    }
+
+    private Map<String, Integer> counts() {
+        return limits.keySet().stream()
+                .collect(Collectors.toMap(title -> title, popularity::count));
+    }
+
+    String frame(long version, Map<String, Integer> counts) {
+        Map<String, int[]> seats = new LinkedHashMap<>();
+        counts.forEach((title, current) -> seats.put(title, new int[]{current, limits.getOrDefault(title, 0)}));
+        try {
+            Map<String, Object> frame = new LinkedHashMap<>();
+            frame.put("version", version);
+            frame.put("seats", seats);
+            return MAPPER.writeValueAsString(frame);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Can't serialize seat availability", e);
+        }
+    }
+
+    /**
+     * Non-blocking side of a client's response.
+     */
+    interface Connection {
+        /**
+         * @return false while an earlier write is still pending - the connection calls {@link Subscriber#pump}
+         * once it is done
+         */
+        boolean isReady();
+
+        void write(byte[] frame) throws IOException;
+
+        void flush() throws IOException;
+
+        void close();
+    }
+
+    private static class ServletConnection implements Connection {
+        private final AsyncContext async;
+        private final ServletOutputStream output;
+
+        ServletConnection(AsyncContext async, ServletOutputStream output) {
+            this.async = async;
+            this.output = output;
+        }
+
+        @Override
+        public boolean isReady() {
+            return output.isReady();
+        }
+
+        @Override
+        public void write(byte[] frame) throws IOException {
+            output.write(frame);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() {
+            async.complete();
+        }
+    }
+
+    /**
+     * One client with the frames not yet written to it. Written by the scheduler thread, or by a container thread
+     * once a pending write is done.
+     */
+    class Subscriber {
+        private final Connection connection;
+        private final Queue<byte[]> frames = new ArrayDeque<>();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private boolean unflushed;
+
+        Subscriber(Connection connection) {
+            this.connection = connection;
+        }
+
+        void send(String event, String data) {
+            synchronized (this) {
+                if (closed.get()) {
+                    return;
+                }
+                if (frames.size() < MAX_QUEUED) {
+                    frames.add(("event: " + event + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    pump();
+                    return;
+                }
+            }
+            log.debug("Seat availability client {} frames behind, dropped", MAX_QUEUED);
+            drop();
+        }
+
+        synchronized void pump() {
+            try {
+                while (!closed.get() && connection.isReady()) {
+                    byte[] frame = frames.poll();
+                    if (frame != null) {
+                        connection.write(frame);
+                        unflushed = true;
+                    } else if (unflushed) {
+                        unflushed = false;
+                        connection.flush();
+                    } else {
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Seat availability client failed, dropped", e);
+                drop();
+            }
+        }
+
+        void drop() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            clients.remove(this);
+            try {
+                connection.close();
+            } catch (RuntimeException e) {
+                log.debug("Closing seat availability client failed", e);
+            }
+        }
+
+        boolean isClosed() {
+            return closed.get();
+        }
+    }
+}
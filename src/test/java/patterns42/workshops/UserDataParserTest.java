@@ -34,4 +34,10 @@ public class UserDataParserTest {
                 new User("test3", "test3-hash")
         ));
     }
-}
\ No newline at end of file
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_line_without_hash() {
+        new UserDataParser().stream(new BufferedReader(new StringReader("Filip\t8f04\nMałgorzata\n")))
+                .forEach(user -> {});
+    }
+}
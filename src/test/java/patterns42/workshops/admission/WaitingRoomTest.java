@@ -0,0 +1,140 @@
+package patterns42.workshops.admission;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WaitingRoomTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void should_queue_in_arrival_order_when_full() {
+        WaitingRoom room = room(1, 100);
+
+        assertThat(room.enter("a").isAdmitted(), is(true));
+        assertThat(room.enter("b").getPosition(), equalTo(1L));
+        assertThat(room.enter("c").getPosition(), equalTo(2L));
+        assertThat(room.enter("b").getPosition(), equalTo(1L));
+        assertThat(room.getWaiting(), equalTo(2));
+    }
+
+    @Test
+    public void should_let_next_in_when_lease_expires() {
+        WaitingRoom room = room(1, 100);
+        room.enter("a");
+        room.enter("b");
+        room.enter("c");
+
+        tick(Duration.ofSeconds(3));
+        room.enter("b");
+        room.enter("c");
+        tick(Duration.ofSeconds(3));
+        room.sweep();
+
+        assertThat(room.enter("c").getPosition(), equalTo(1L));
+        assertThat(room.enter("b").isAdmitted(), is(true));
+        assertThat(room.enter("a").getStatus(), equalTo(WaitingRoom.Admission.Status.WAITING));
+    }
+
+    @Test
+    public void should_keep_lease_while_attendee_is_active() {
+        WaitingRoom room = room(1, 100);
+        room.enter("a");
+
+        for (int i = 0; i < 5; i++) {
+            tick(Duration.ofSeconds(3));
+            assertThat(room.enter("a").isAdmitted(), is(true));
+        }
+        assertThat(room.enter("b").isAdmitted(), is(false));
+    }
+
+    @Test
+    public void should_pass_abandoned_turn_to_next_in_line() {
+        WaitingRoom room = room(1, 100);
+        room.enter("a");
+        room.enter("b");
+        tick(Duration.ofSeconds(1));
+        room.enter("c");
+
+        tick(Duration.ofMillis(3500));
+        room.enter("c");
+        room.sweep();
+        tick(Duration.ofSeconds(1));
+        room.sweep();
+
+        assertThat(room.enter("c").isAdmitted(), is(true));
+    }
+
+    @Test
+    public void should_throttle_repeated_requests_of_one_attendee() {
+        WaitingRoom room = room(10, 2);
+
+        assertThat(room.enter("a").isAdmitted(), is(true));
+        assertThat(room.enter("a").isAdmitted(), is(true));
+        WaitingRoom.Admission third = room.enter("a");
+        assertThat(third.getStatus(), equalTo(WaitingRoom.Admission.Status.THROTTLED));
+        assertThat(third.getRetryAfter(), equalTo(Duration.ofSeconds(1)));
+        assertThat(room.enter("b").isAdmitted(), is(true));
+
+        tick(Duration.ofSeconds(1));
+        assertThat(room.enter("a").isAdmitted(), is(true));
+        assertThat(room.getThrottled(), equalTo(1L));
+    }
+
+    @Test
+    public void should_never_admit_more_than_limit_under_contention() throws InterruptedException {
+        WaitingRoom room = room(5, 100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        Set<String> admitted = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 200; i++) {
+            String hash = "hash-" + i;
+            executor.submit(() -> {
+                start.await();
+                if (room.enter(hash).isAdmitted()) {
+                    admitted.add(hash);
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        //a turn granted by another thread is picked up on the next poll
+        for (int i = 0; i < 200; i++) {
+            if (room.enter("hash-" + i).isAdmitted()) {
+                admitted.add("hash-" + i);
+            }
+        }
+
+        assertThat(admitted.size(), equalTo(5));
+        assertThat(room.getInside(), equalTo(5));
+        assertThat(room.getWaiting(), equalTo(195));
+    }
+
+    private WaitingRoom room(int limit, int burst) {
+        return new WaitingRoom(WaitingRoom.Settings.builder()
+                .limit(limit)
+                .lease(Duration.ofSeconds(5))
+                .poll(Duration.ofSeconds(1))
+                .refill(Duration.ofSeconds(1))
+                .burst(burst)
+                .build(), clock::get);
+    }
+
+    private void tick(Duration duration) {
+        clock.addAndGet(duration.toNanos());
+    }
+}
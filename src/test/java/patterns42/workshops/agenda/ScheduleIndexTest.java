@@ -0,0 +1,132 @@
+package patterns42.workshops.agenda;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ScheduleIndexTest {
+
+    private static final String EVENT_STORMING = "Event Storming: od idei do kodu w 5 godzin";
+    private static final String DATA_FIRST = "Data First: Building a board game";
+
+    private ScheduleIndex index;
+
+    @Before
+    public void setup() throws URISyntaxException, MalformedURLException {
+        index = ScheduleIndex.of(new ScheduleParser(
+                ScheduleIndexTest.class.getResource("/yml/schedule.yml").toURI().toURL()
+        ).schedule());
+    }
+
+    @Test
+    public void should_number_workshops_densely() {
+        assertThat(index.workshopCount(), equalTo(10));
+        IntStream.range(0, index.workshopCount()).forEach(id ->
+                assertThat(index.workshopId(index.workshop(id)), equalTo(id)));
+        assertThat(index.workshopId("Lunch"), equalTo(-1));
+        assertThat(index.seats(index.workshopId(DATA_FIRST)), equalTo(16));
+    }
+
+    @Test
+    public void should_find_workshop_offered_in_both_timeslots() {
+        assertThat(index.isMultiSlot(EVENT_STORMING), is(true));
+        assertThat(index.isMultiSlot(DATA_FIRST), is(false));
+        assertThat(index.workshopsAt(2), hasItem(EVENT_STORMING));
+        assertThat(index.workshopsAt(4), hasItem(EVENT_STORMING));
+    }
+
+    @Test
+    public void should_check_workshop_against_its_timeslot() {
+        int timeslot = index.offers(2, DATA_FIRST) ? 2 : 4;
+
+        assertThat(index.offers(timeslot, DATA_FIRST), is(true));
+        assertThat(index.offers(6 - timeslot, DATA_FIRST), is(false));
+        assertThat(index.offers(1, DATA_FIRST), is(false));
+        assertThat(index.offers(99, DATA_FIRST), is(false));
+    }
+
+    @Test
+    public void should_number_timeslots_of_registration_days_only() {
+        assertThat(index.getRegistrationDays(), equalTo(List.of(index.getSchedule().getDays().get(1))));
+        assertThat(index.timeslotCount(), equalTo(index.getRegistrationDays().get(0).getTimeslots().size()));
+    }
+
+    @Test
+    public void should_accept_one_workshop_per_timeslot() {
+        int[] chosen = choose(DATA_FIRST, other(DATA_FIRST));
+
+        assertThat(index.isConsistent(chosen), is(true));
+    }
+
+    @Test
+    public void should_reject_workshop_overlapping_multi_slot_one() {
+        assertThat(index.isConsistent(choose(DATA_FIRST, EVENT_STORMING)), is(false));
+        assertThat(index.isConsistent(choose(EVENT_STORMING, EVENT_STORMING)), is(true));
+    }
+
+    @Test
+    public void should_fill_timeslots_of_multi_slot_workshop() {
+        int[] chosen = new int[index.timeslotCount() + 1];
+        Arrays.fill(chosen, ScheduleIndex.NONE);
+        chosen[2] = index.workshopId(EVENT_STORMING);
+
+        index.fillMultiSlot(chosen);
+
+        assertThat(chosen[4], equalTo(index.workshopId(EVENT_STORMING)));
+        assertThat(index.isConsistent(chosen), is(true));
+    }
+
+    @Test
+    public void should_reject_incomplete_or_misplaced_choice() {
+        int[] chosen = choose(DATA_FIRST, other(DATA_FIRST));
+        chosen[timeslotOf(DATA_FIRST) == 2 ? 4 : 2] = ScheduleIndex.NONE;
+        assertThat(index.isConsistent(chosen), is(false));
+
+        chosen = choose(DATA_FIRST, other(DATA_FIRST));
+        chosen[1] = index.workshopId(DATA_FIRST);
+        assertThat(index.isConsistent(chosen), is(false));
+
+        assertThat(index.isConsistent(new int[]{ScheduleIndex.NONE}), is(false));
+    }
+
+    @Test
+    public void should_lookup_sessions_by_title() {
+        assertThat(index.session(DATA_FIRST).getTitle(), equalTo(DATA_FIRST));
+        assertThat(index.session("Unknown"), nullValue());
+    }
+
+    /**
+     * @param first workshop offered at the timeslot of {@code first}, the other one goes to the other timeslot
+     */
+    private int[] choose(String first, String second) {
+        int[] chosen = new int[index.timeslotCount() + 1];
+        Arrays.fill(chosen, ScheduleIndex.NONE);
+        int timeslot = timeslotOf(first);
+        chosen[timeslot] = index.workshopId(first);
+        chosen[6 - timeslot] = index.workshopId(second);
+        return chosen;
+    }
+
+    private int timeslotOf(String title) {
+        return index.offers(2, title) ? 2 : 4;
+    }
+
+    private String other(String title) {
+        int timeslot = 6 - timeslotOf(title);
+        return index.workshopsAt(timeslot).stream()
+                .filter(other -> !index.isMultiSlot(other))
+                .findFirst()
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,127 @@
+package patterns42.workshops.agenda;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import patterns42.workshops.agenda.model.Schedule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ScheduleRefresherTest {
+
+    private static final String WORKSHOP = "Data First: Building a board game";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String agenda;
+    private Path file;
+    private ScheduleRefresher refresher;
+    private final List<Schedule> published = new ArrayList<>();
+
+    @Before
+    public void setup() throws IOException {
+        try (InputStream stream = getClass().getResourceAsStream("/yml/schedule.yml")) {
+            agenda = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        file = folder.newFile("schedule.yml").toPath();
+        write(agenda, 1);
+
+        ScheduleParser parser = new ScheduleParser(file.toUri().toURL());
+        refresher = new ScheduleRefresher(parser, parser.schedule());
+        refresher.onChange(published::add);
+    }
+
+    @Test
+    public void should_not_publish_same_schedule() {
+        assertThat(refresher.refresh(), is(false));
+        assertThat(refresher.refresh(), is(false));
+        assertThat(published.size(), equalTo(0));
+    }
+
+    @Test
+    public void should_publish_and_describe_changed_schedule() throws IOException {
+        Schedule before = refresher.current();
+        write(agenda.replace(WORKSHOP, WORKSHOP + " II"), 2);
+
+        assertThat(refresher.refresh(), is(true));
+
+        assertThat(published, equalTo(List.of(refresher.current())));
+        ScheduleChanges changes = ScheduleChanges.between(before, refresher.current());
+        assertThat(changes.getAdded(), equalTo(Set.of(WORKSHOP + " II")));
+        assertThat(changes.getRemoved(), equalTo(Set.of(WORKSHOP)));
+    }
+
+    @Test
+    public void should_keep_current_schedule_when_agenda_is_broken_or_invalid() throws IOException {
+        Schedule before = refresher.current();
+
+        write("agenda: [", 2);
+        assertThat(refresher.refresh(), is(false));
+
+        write(agenda.replace("title: \"" + WORKSHOP + "\"\n        session: \"Warsztat\"\n        seats: 16",
+                "title: \"" + WORKSHOP + "\"\n        session: \"Warsztat\""), 3);
+        assertThat(refresher.refresh(), is(false));
+
+        assertThat(refresher.current(), sameInstance(before));
+        assertThat(published.size(), equalTo(0));
+    }
+
+    @Test
+    public void should_send_validators_of_previous_response() throws IOException {
+        AtomicInteger downloads = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/agenda.yaml", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = agenda.getBytes(StandardCharsets.UTF_8);
+                downloads.incrementAndGet();
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            ScheduleParser parser = new ScheduleParser(
+                    new URL("http://localhost:" + server.getAddress().getPort() + "/agenda.yaml"));
+
+            ScheduleParser.Fetched first = parser.fetchIfModified(null).orElseThrow();
+
+            assertThat(first.getEtag(), equalTo("\"v1\""));
+            assertThat(parser.fetchIfModified(first).isPresent(), is(false));
+            assertThat(downloads.get(), equalTo(1));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private void write(String content, int version) throws IOException {
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.ofEpochSecond(1_600_000_000L + version * 60)));
+    }
+}
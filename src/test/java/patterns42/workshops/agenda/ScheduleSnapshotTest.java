@@ -0,0 +1,72 @@
+package patterns42.workshops.agenda;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import patterns42.workshops.agenda.model.Schedule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ScheduleSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Schedule schedule;
+
+    @Before
+    public void setup() throws URISyntaxException, MalformedURLException {
+        schedule = new ScheduleParser(
+                ScheduleSnapshotTest.class.getResource("/yml/schedule.yml").toURI().toURL()
+        ).schedule();
+    }
+
+    @Test
+    public void should_read_back_written_schedule() throws IOException {
+        assertThat(ScheduleSnapshot.read(new ByteArrayInputStream(bytes(schedule))), equalTo(schedule));
+    }
+
+    @Test
+    public void should_load_saved_schedule() {
+        ScheduleSnapshot snapshot = new ScheduleSnapshot(folder.getRoot().toPath().resolve("schedule.bin"));
+
+        assertThat(snapshot.load(), equalTo(Optional.empty()));
+        snapshot.save(schedule);
+        assertThat(snapshot.load(), equalTo(Optional.of(schedule)));
+    }
+
+    @Test(expected = IOException.class)
+    public void should_reject_corrupted_snapshot() throws IOException {
+        byte[] bytes = bytes(schedule);
+        bytes[bytes.length / 2] ^= 0x20;
+
+        ScheduleSnapshot.read(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void should_ignore_truncated_snapshot() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("schedule.bin");
+        byte[] bytes = bytes(schedule);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertThat(new ScheduleSnapshot(file).load(), equalTo(Optional.empty()));
+    }
+
+    private static byte[] bytes(Schedule schedule) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScheduleSnapshot.write(schedule, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,63 @@
+package patterns42.workshops.attendees;
+
+import org.junit.Test;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class AttendeeDirectoryTest {
+
+    @Test
+    public void should_find_loaded_attendees() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            users.add(new User("User " + i, String.format("%040x", i * 7919L)));
+        }
+        AttendeeDirectory directory = new AttendeeDirectory(() -> users);
+        directory.reload();
+
+        assertThat(directory.size(), equalTo(1000));
+        users.forEach(user -> assertThat(directory.find(user.getHash()), equalTo(user)));
+    }
+
+    @Test
+    public void should_reject_unknown_hashes() {
+        AttendeeDirectory directory = new AttendeeDirectory(() -> List.of(new User("Filip", "8f041d815837c8ab5207734b117a4f47c6853d80")));
+        directory.reload();
+
+        assertThat(directory.find("5f3c8e51f4ebdd43d32dd4bc697b6cb0a293b580"), nullValue());
+        assertThat(directory.find(""), nullValue());
+        assertThat(directory.find(null), nullValue());
+    }
+
+    @Test
+    public void should_keep_last_entry_for_duplicated_hash() {
+        AttendeeDirectory directory = new AttendeeDirectory(() -> List.of(
+                new User("Filip", "hash-1"),
+                new User("Filip Kowalski", "hash-1")
+        ));
+        directory.reload();
+
+        assertThat(directory.size(), equalTo(1));
+        assertThat(directory.find("hash-1").getName(), equalTo("Filip Kowalski"));
+    }
+
+    @Test
+    public void should_swap_whole_directory_on_reload() {
+        AtomicReference<List<User>> source = new AtomicReference<>(List.of(new User("Filip", "hash-1")));
+        AttendeeDirectory directory = new AttendeeDirectory(source::get);
+        directory.reload();
+
+        source.set(List.of(new User("Przemysław", "hash-2")));
+        directory.reload();
+
+        assertThat(directory.find("hash-1"), nullValue());
+        assertThat(directory.find("hash-2").getName(), equalTo("Przemysław"));
+    }
+}
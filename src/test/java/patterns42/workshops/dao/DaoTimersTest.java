@@ -0,0 +1,37 @@
+package patterns42.workshops.dao;
+
+import org.jdbi.v3.sqlobject.Handler;
+import org.junit.Test;
+import patterns42.workshops.metrics.LatencyHistogram;
+import patterns42.workshops.metrics.Metrics;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DaoTimersTest {
+
+    private final Metrics metrics = new Metrics();
+    private final DaoTimers timers = new DaoTimers(metrics);
+
+    @Test
+    public void should_time_successful_and_failed_calls() throws Exception {
+        Handler ok = timers.decorateHandler((target, args, handle) -> "ok", UsersDao.class,
+                UsersDao.class.getMethod("latestUsers"));
+        Handler failing = timers.decorateHandler((target, args, handle) -> {
+            throw new IllegalStateException("boom");
+        }, UsersDao.class, UsersDao.class.getMethod("latestUsers"));
+
+        assertThat(ok.invoke(null, new Object[0], null), equalTo("ok"));
+        try {
+            failing.invoke(null, new Object[0], null);
+            fail("Failure should be rethrown");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), equalTo("boom"));
+        }
+
+        LatencyHistogram histogram = metrics.histogram("workshops_dao_duration_seconds", "",
+                "dao", "UsersDao", "method", "latestUsers");
+        assertThat(histogram.getCount(), equalTo(2L));
+    }
+}
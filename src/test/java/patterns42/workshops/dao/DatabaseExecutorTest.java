@@ -0,0 +1,69 @@
+package patterns42.workshops.dao;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DatabaseExecutorTest {
+
+    private DatabaseExecutor executor;
+
+    @After
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void should_reject_when_threads_and_queue_are_taken() throws Exception {
+        executor = new DatabaseExecutor(DatabaseExecutor.Settings.builder().threads(1).queue(1).build());
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> first = executor.run(() -> await(release));
+        CompletableFuture<Void> second = executor.run(() -> await(release));
+        try {
+            executor.run(() -> {
+            });
+            fail("Third task should not be admitted");
+        } catch (DatabaseBusyException e) {
+            assertThat(executor.getRejected(), equalTo(1L));
+        }
+
+        release.countDown();
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+        assertThat(executor.supply(() -> 42).get(5, TimeUnit.SECONDS), equalTo(42));
+    }
+
+    @Test
+    public void should_fail_with_unwrapped_exception() throws Exception {
+        executor = new DatabaseExecutor(DatabaseExecutor.Settings.builder().threads(1).virtualThreads(false).build());
+
+        try {
+            executor.supply(() -> {
+                throw new SeatsUnavailableException("DDD");
+            }).exceptionally(e -> {
+                assertThat(e, instanceOf(SeatsUnavailableException.class));
+                return null;
+            }).get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            fail("Exception should have been handled");
+        }
+        assertThat(executor.getActive(), equalTo(0));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
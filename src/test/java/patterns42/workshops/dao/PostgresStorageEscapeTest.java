@@ -0,0 +1,19 @@
+package patterns42.workshops.dao;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Runs without a database, unlike {@link PostgresStorageTest}.
+ */
+public class PostgresStorageEscapeTest {
+
+    @Test
+    public void should_escape_copy_text_format() {
+        assertThat(PostgresStorage.escape("Zoë"), equalTo("Zoë"));
+        assertThat(PostgresStorage.escape("C:\\Users\tname\r\n"), equalTo("C:\\\\Users\\tname\\r\\n"));
+        assertThat(PostgresStorage.escape(null), equalTo("\\N"));
+    }
+}
@@ -0,0 +1,143 @@
+package patterns42.workshops.dao;
+
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.junit.Assume;
+import org.junit.Test;
+import patterns42.workshops.dao.SessionsDao.Moved;
+import patterns42.workshops.dao.SessionsDao.Promotion;
+import patterns42.workshops.dao.UsersDao.User;
+import patterns42.workshops.metrics.Metrics;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Needs a database it may wipe: {@code TEST_JDBC_DATABASE_URL}, skipped without one.
+ */
+public class PostgresStorageTest extends StorageContract {
+
+    private static final String URL = System.getenv("TEST_JDBC_DATABASE_URL");
+
+    @Override
+    protected Storage open() {
+        Assume.assumeTrue("TEST_JDBC_DATABASE_URL not set", URL != null);
+
+        ConnectionPool pool = new ConnectionPool(URL, ConnectionPool.Settings.builder().size(4).build());
+        Jdbi jdbi = Jdbi.create(pool.getDataSource());
+        jdbi.installPlugin(new SqlObjectPlugin());
+        new SchemaMigrations(jdbi).migrate();
+        jdbi.useHandle(handle -> handle.execute("truncate users, sessions, current_sessions, seat_counters, waitlist"));
+
+        RegistrationWriter writer = new RegistrationWriter(jdbi, RegistrationWriter.Settings.builder().build(),
+                new Metrics());
+        writer.start();
+        ChangeFeed changes = new ChangeFeed(URL, ChangeFeed.Settings.builder().build(), new Metrics());
+        return new PostgresStorage(jdbi, pool, writer, changes);
+    }
+
+    @Test
+    public void should_offer_freed_seat_again_to_attendee_busy_at_the_time() throws Exception {
+        storage.moveSeats("a", sessions("Java", "Kotlin"));
+        storage.moveSeatsOrWait("b", sessions("Rust", "Kotlin"));
+
+        Jdbi other = Jdbi.create(URL);
+        other.installPlugin(new SqlObjectPlugin());
+        Moved moved;
+        try (Handle busy = other.open()) {
+            busy.begin();
+            busy.attach(SessionsDao.class).lockAttendee("b");
+            CompletableFuture<Moved> freeing = CompletableFuture.supplyAsync(
+                    () -> storage.moveSeats("a", sessions("Java", "Rust")));
+            Thread.sleep(500);
+            assertThat(storage.previousSessions("b"), empty());
+            busy.commit();
+            moved = freeing.get(5, TimeUnit.SECONDS);
+        }
+
+        assertThat(moved.getPromotions(), equalTo(List.of(new Promotion("b", Set.of(), Set.of("Rust", "Kotlin")))));
+        assertThat(storage.previousSessions("b"), containsInAnyOrder("Rust", "Kotlin"));
+    }
+
+    @Test
+    public void should_not_resync_for_changes_rolled_back() throws InterruptedException {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        ChangeFeed feed = new ChangeFeed(URL, ChangeFeed.Settings.builder()
+                .gapGrace(Duration.ofMillis(200))
+                .poll(Duration.ofMillis(100))
+                .build(), new Metrics());
+        feed.start(new ChangeFeed.Subscriber() {
+            @Override
+            public void registered(String hash, Set<String> previous, Set<String> chosen, long sequence) {
+                received.add(hash + " " + previous + " -> " + chosen);
+            }
+
+            @Override
+            public void attendeesChanged() {
+                received.add("attendees");
+            }
+
+            @Override
+            public void resync() {
+                received.add("resync");
+            }
+        });
+        assertThat(received.poll(5, TimeUnit.SECONDS), equalTo("resync"));
+
+        Jdbi other = Jdbi.create(URL);
+        other.installPlugin(new SqlObjectPlugin());
+        other.useHandle(handle -> {
+            handle.begin();
+            feed.registered(handle, "x", Set.of(), Set.of("Java"));
+            handle.rollback();
+        });
+        storage.moveSeats("a", sessions("Kotlin"));
+
+        assertThat(received.poll(5, TimeUnit.SECONDS), equalTo("a [] -> [Kotlin]"));
+        assertThat(received.poll(2, TimeUnit.SECONDS), equalTo(null));
+    }
+
+    @Test
+    public void should_announce_committed_changes_to_other_nodes() throws InterruptedException {
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        new ChangeFeed(URL, ChangeFeed.Settings.builder().build(), new Metrics()).start(new ChangeFeed.Subscriber() {
+            @Override
+            public void registered(String hash, Set<String> previous, Set<String> chosen, long sequence) {
+                received.add(hash + " " + previous + " -> " + chosen);
+            }
+
+            @Override
+            public void attendeesChanged() {
+                received.add("attendees");
+            }
+
+            @Override
+            public void resync() {
+                received.add("resync");
+            }
+        });
+        assertThat(received.poll(5, TimeUnit.SECONDS), equalTo("resync"));
+
+        storage.moveSeats("a", sessions("Kotlin"));
+        assertFull("b", "Kotlin");
+        storage.moveSeats("a", sessions("Java"));
+        storage.importUsers(List.of(new User("Anna", "a")).iterator());
+        storage.importUsers(List.of(new User("Anna", "a")).iterator());
+
+        assertThat(received.poll(5, TimeUnit.SECONDS), equalTo("a [] -> [Kotlin]"));
+        assertThat(received.poll(5, TimeUnit.SECONDS), equalTo("a [Kotlin] -> [Java]"));
+        assertThat(received.poll(5, TimeUnit.SECONDS), equalTo("attendees"));
+        assertThat(received.poll(3, TimeUnit.SECONDS), equalTo(null));
+    }
+}
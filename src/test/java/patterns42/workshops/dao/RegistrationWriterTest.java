@@ -0,0 +1,106 @@
+package patterns42.workshops.dao;
+
+import org.junit.Test;
+import patterns42.workshops.metrics.Metrics;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class RegistrationWriterTest {
+
+    private final List<List<String>> flushed = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void should_store_concurrent_writes_in_one_group() throws Exception {
+        RegistrationWriter writer = writer(10, Duration.ofMillis(500), batch -> {
+            batch.forEach(write -> write.prepare(null));
+            flushed.add(hashes(batch));
+        });
+        writer.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<String>> results = List.of(
+                executor.submit(() -> writer.write("a", List.of(), dao -> "A")),
+                executor.submit(() -> writer.write("b", List.of(), dao -> "B")),
+                executor.submit(() -> writer.write("c", List.of(), dao -> "C")));
+
+        assertThat(results.get(0).get(5, TimeUnit.SECONDS), equalTo("A"));
+        assertThat(results.get(2).get(5, TimeUnit.SECONDS), equalTo("C"));
+        assertThat(flushed.size(), equalTo(1));
+        assertThat(flushed.get(0), hasItems("a", "b", "c"));
+        executor.shutdown();
+    }
+
+    @Test
+    public void should_defer_second_write_of_the_same_attendee() throws InterruptedException {
+        RegistrationWriter writer = writer(10, Duration.ZERO, batch -> {
+        });
+        Queue<RegistrationWriter.Write<?>> deferred = new ArrayDeque<>();
+        for (String hash : List.of("a", "b", "a", "c")) {
+            submit(writer, hash);
+        }
+
+        assertThat(hashes(writer.collect(deferred)), equalTo(List.of("a", "b", "c")));
+        assertThat(hashes(writer.collect(deferred)), equalTo(List.of("a")));
+    }
+
+    @Test
+    public void should_fail_only_the_rejected_write() {
+        RegistrationWriter writer = writer(10, Duration.ZERO, batch -> {
+            batch.forEach(write -> write.prepare(null));
+            if (batch.stream().anyMatch(write -> write.hash.equals("bad"))) {
+                throw new IllegalStateException("constraint violated");
+            }
+            flushed.add(hashes(batch));
+        });
+        RegistrationWriter.Write<String> good = new RegistrationWriter.Write<>("good", List.of(), dao -> "ok");
+        RegistrationWriter.Write<String> bad = new RegistrationWriter.Write<>("bad", List.of(), dao -> "ok");
+
+        writer.flush(List.of(good, bad));
+
+        assertThat(good.result.join(), equalTo("ok"));
+        assertThat(flushed, equalTo(List.of(List.of("good"))));
+        try {
+            bad.result.join();
+            fail("Rejected write should fail");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause().getMessage(), equalTo("constraint violated"));
+        }
+    }
+
+    private RegistrationWriter writer(int maxBatch, Duration maxWait, RegistrationWriter.Flush flush) {
+        return new RegistrationWriter(RegistrationWriter.Settings.builder()
+                .maxBatch(maxBatch)
+                .maxWait(maxWait)
+                .build(), flush, new Metrics());
+    }
+
+    private static void submit(RegistrationWriter writer, String hash) {
+        Thread thread = new Thread(() -> writer.write(hash, List.of(), dao -> null));
+        thread.setDaemon(true);
+        thread.start();
+        //keep submission order deterministic
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<String> hashes(List<RegistrationWriter.Write<?>> batch) {
+        return batch.stream().map(write -> write.hash).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,32 @@
+package patterns42.workshops.dao;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SchemaMigrationsTest {
+
+    @Test
+    public void should_number_migrations_consecutively() {
+        List<Integer> versions = SchemaMigrations.MIGRATIONS.stream()
+                .map(SchemaMigrations.Migration::getVersion)
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < versions.size(); i++) {
+            assertThat(versions.get(i), equalTo(i + 1));
+        }
+    }
+
+    @Test
+    public void should_build_indexes_concurrently_outside_transactions() {
+        SchemaMigrations.MIGRATIONS.forEach(migration -> {
+            boolean concurrently = migration.getStatements().stream().anyMatch(sql -> sql.contains("CONCURRENTLY"));
+            assertThat(migration.getDescription(), migration.isTransactional(), is(!concurrently));
+        });
+    }
+}
@@ -0,0 +1,79 @@
+package patterns42.workshops.dao;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SequenceGapsTest {
+
+    private static final long SECOND = Duration.ofSeconds(1).toNanos();
+
+    private final SequenceGaps gaps = new SequenceGaps(Duration.ofSeconds(2), 100);
+
+    @Test
+    public void should_accept_changes_in_order() {
+        gaps.reset(10);
+
+        assertThat(gaps.accept(11, 0), is(true));
+        assertThat(gaps.accept(12, 5 * SECOND), is(true));
+        assertThat(gaps.expired(10 * SECOND), is(false));
+        assertThat(gaps.getHighest(), equalTo(12L));
+    }
+
+    @Test
+    public void should_wait_for_late_changes_within_grace() {
+        gaps.reset(10);
+
+        assertThat(gaps.accept(13, 0), is(true));
+        assertThat(gaps.accept(12, SECOND), is(true));
+        assertThat(gaps.accept(11, SECOND), is(true));
+
+        assertThat(gaps.expired(10 * SECOND), is(false));
+    }
+
+    @Test
+    public void should_report_change_missing_past_grace() {
+        gaps.reset(10);
+
+        assertThat(gaps.accept(12, 0), is(true));
+        assertThat(gaps.expired(SECOND), is(false));
+
+        assertThat(gaps.accept(13, 2 * SECOND), is(false));
+        assertThat(gaps.expired(2 * SECOND), is(true));
+    }
+
+    @Test
+    public void should_not_wait_for_too_many_changes() {
+        gaps.reset(10);
+
+        assertThat(gaps.accept(112, 0), is(false));
+    }
+
+    @Test
+    public void should_stop_waiting_for_numbers_never_committed() {
+        gaps.reset(10);
+
+        assertThat(gaps.accept(13, 0), is(true));
+        assertThat(gaps.accept(11, SECOND), is(true));
+        assertThat(gaps.accept(14, 2 * SECOND), is(false));
+        assertThat(gaps.overdue(2 * SECOND), equalTo(List.of(12L)));
+
+        gaps.forget(List.of(12L));
+
+        assertThat(gaps.expired(10 * SECOND), is(false));
+        assertThat(gaps.overdue(10 * SECOND), equalTo(List.of()));
+    }
+
+    @Test
+    public void should_ignore_changes_before_reset() {
+        gaps.reset(10);
+
+        assertThat(gaps.accept(7, 0), is(true));
+        assertThat(gaps.expired(10 * SECOND), is(false));
+    }
+}
@@ -0,0 +1,99 @@
+package patterns42.workshops.dao;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class StatementTimingsTest {
+
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    public void should_count_rows_read_from_a_query() throws Exception {
+        StatementTimings.Tracked tracked = new StatementTimings.Tracked(statement(3, -1));
+        PreparedStatement wrapped = wrap(tracked);
+
+        wrapped.execute();
+        ResultSet rows = wrapped.getResultSet();
+        while (rows.next()) {
+            //read everything, as a mapper would
+        }
+
+        assertThat(tracked.rows, equalTo(3L));
+        assertThat(wrapped.getResultSet(), sameInstance(rows));
+    }
+
+    @Test
+    public void should_count_updated_rows() throws Exception {
+        StatementTimings.Tracked tracked = new StatementTimings.Tracked(statement(0, 4));
+
+        wrap(tracked).execute();
+
+        assertThat(tracked.rows, equalTo(4L));
+    }
+
+    @Test
+    public void should_replay_bound_values_on_another_statement() throws Exception {
+        StatementTimings.Tracked tracked = new StatementTimings.Tracked(statement(0, 0));
+        PreparedStatement wrapped = wrap(tracked);
+        wrapped.setString(1, "aaaa");
+        wrapped.setInt(2, 16);
+        wrapped.setFetchSize(100);
+        calls.clear();
+
+        for (StatementTimings.Bound bound : tracked.parameters) {
+            bound.apply(statement(0, 0));
+        }
+
+        assertThat(calls, equalTo(List.of("setString[1, aaaa]", "setInt[2, 16]")));
+    }
+
+    @Test
+    public void should_analyze_plain_selects_only() {
+        assertThat(StatementTimings.analyzable("select hash, title from current_sessions where hash = ?"), is(true));
+        assertThat(StatementTimings.analyzable("\n  SELECT count(*) FROM seat_counters"), is(true));
+
+        assertThat(StatementTimings.analyzable("insert into sessions (hash) values (?)"), is(false));
+        assertThat(StatementTimings.analyzable("select 1 from pg_advisory_xact_lock(hashtext(?))"), is(false));
+        assertThat(StatementTimings.analyzable("select pg_try_advisory_lock(?)"), is(false));
+        assertThat(StatementTimings.analyzable("select nextval('workshops_change_seq')"), is(false));
+        assertThat(StatementTimings.analyzable("select taken from seat_counters where title = ? for update"), is(false));
+    }
+
+    private static PreparedStatement wrap(StatementTimings.Tracked tracked) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, tracked);
+    }
+
+    private PreparedStatement statement(int rows, int updateCount) {
+        int[] left = {rows};
+        ResultSet resultSet = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> method.getName().equals("next") ? left[0]-- > 0 : null);
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "execute":
+                            return updateCount < 0;
+                        case "getResultSet":
+                            return resultSet;
+                        case "getUpdateCount":
+                            return updateCount;
+                        default:
+                            if (method.getName().startsWith("set")) {
+                                calls.add(method.getName() + List.of(args));
+                            }
+                            return null;
+                    }
+                });
+    }
+}
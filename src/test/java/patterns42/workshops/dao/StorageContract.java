@@ -0,0 +1,296 @@
+package patterns42.workshops.dao;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import patterns42.workshops.dao.SessionsDao.Moved;
+import patterns42.workshops.dao.SessionsDao.Popularity;
+import patterns42.workshops.dao.SessionsDao.PopularityRank;
+import patterns42.workshops.dao.SessionsDao.Promotion;
+import patterns42.workshops.dao.SessionsDao.RegistrationDto;
+import patterns42.workshops.dao.SessionsDao.SeatCounter;
+import patterns42.workshops.dao.SessionsDao.SessionDto;
+import patterns42.workshops.dao.SessionsDao.WaitlistEntry;
+import patterns42.workshops.dao.UsersDao.ImportCounts;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Behaviour every {@link Storage} has to share, run against each of them by a subclass.
+ * Starts with three workshops: Java (2 seats), Kotlin (1 seat) and Rust (10 seats).
+ */
+public abstract class StorageContract {
+
+    protected Storage storage;
+
+    protected abstract Storage open() throws Exception;
+
+    @Before
+    public void setup() throws Exception {
+        storage = open();
+        storage.seedSeatCounters(List.of(counter("Java", 2), counter("Kotlin", 1), counter("Rust", 10)));
+    }
+
+    @After
+    public void close() {
+        if (storage != null) {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void should_import_new_and_renamed_attendees_only() {
+        assertThat(storage.importUsers(List.of(new User("Anna", "a"), new User("Bob", "b")).iterator()),
+                equalTo(new ImportCounts(2, 0, 0)));
+
+        assertThat(storage.importUsers(List.of(new User("Anna", "a"), new User("Robert", "b"), new User("Cecil", "c"))
+                .iterator()), equalTo(new ImportCounts(1, 1, 1)));
+
+        assertThat(storage.latestUsers(),
+                equalTo(List.of(new User("Anna", "a"), new User("Robert", "b"), new User("Cecil", "c"))));
+    }
+
+    @Test
+    public void should_import_nothing_when_reading_attendees_fails() {
+        try {
+            storage.importUsers(IntStream.range(0, 3).mapToObj(i -> {
+                if (i == 2) {
+                    throw new IllegalArgumentException("Can't parse line 3");
+                }
+                return new User("Attendee " + i, "h" + i);
+            }).iterator());
+            fail("Import should fail");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertThat(storage.latestUsers(), empty());
+    }
+
+    @Test
+    public void should_take_seats_of_new_choices() {
+        assertThat(storage.moveSeats("a", sessions("Java", "Kotlin")).getPrevious(), empty());
+
+        try {
+            storage.moveSeats("b", sessions("Java", "Kotlin"));
+            fail("Kotlin should be full");
+        } catch (SeatsUnavailableException expected) {
+        }
+
+        assertThat(storage.previousSessions("b"), empty());
+        storage.moveSeats("c", sessions("Java", "Rust"));
+        assertFull("d", "Java", "Rust");
+    }
+
+    @Test
+    public void should_give_back_seats_of_dropped_choices() {
+        storage.moveSeats("a", sessions("Java", "Kotlin"));
+
+        assertThat(storage.moveSeats("a", sessions("Java", "Rust")).getPrevious(), equalTo(Set.of("Java", "Kotlin")));
+
+        assertThat(storage.previousSessions("a"), containsInAnyOrder("Java", "Rust"));
+        storage.moveSeats("b", sessions("Java", "Kotlin"));
+        assertFull("c", "Java", "Rust");
+    }
+
+    @Test
+    public void should_store_test_account_choices_without_taking_seats() {
+        storage.storeIfSeatsLeft("test", sessions("Kotlin", "Rust"));
+        storage.moveSeats("a", sessions("Java", "Kotlin"));
+
+        try {
+            storage.storeIfSeatsLeft("test", sessions("Kotlin", "Rust"));
+            fail("Kotlin should be full");
+        } catch (SeatsUnavailableException expected) {
+        }
+        assertThat(storage.previousSessions("test"), containsInAnyOrder("Kotlin", "Rust"));
+    }
+
+    @Test
+    public void should_store_choices_as_they_are() {
+        storage.moveSeats("a", sessions("Java", "Kotlin"));
+
+        storage.storeChoices("b", sessions("Java", "Kotlin"));
+
+        assertThat(storage.previousSessions("b"), containsInAnyOrder("Java", "Kotlin"));
+    }
+
+    @Test
+    public void should_keep_taken_seats_when_counters_are_seeded_again() {
+        storage.moveSeats("a", sessions("Java", "Kotlin"));
+
+        storage.seedSeatCounters(List.of(counter("Kotlin", 2), counter("Scala", 5)));
+
+        storage.moveSeats("b", sessions("Scala", "Kotlin"));
+        assertFull("c", "Rust", "Kotlin");
+    }
+
+    @Test
+    public void should_rank_popularity_per_timeslot_without_excluded_attendees() {
+        storage.moveSeats("a", sessions("Java", "Rust"));
+        storage.moveSeats("b", sessions("Java", "Rust"));
+        storage.moveSeats("c", sessions("Rust", "Rust"));
+        storage.moveSeats("test", sessions("Kotlin", "Rust"));
+
+        List<PopularityRank> ranks = storage.sessionsPopularity(List.of("test"));
+
+        assertThat(ranks, containsInAnyOrder(
+                new PopularityRank("Rust", 3), new PopularityRank("Java", 2), new PopularityRank("Rust", 1)));
+        assertThat(ranks.get(0), equalTo(new PopularityRank("Rust", 3)));
+    }
+
+    @Test
+    public void should_tell_changes_included_in_popularity() {
+        Moved first = storage.moveSeats("a", sessions("Java", "Rust"));
+
+        Popularity popularity = storage.popularity(List.of("test"));
+        Moved second = storage.moveSeats("b", sessions("Java", "Rust"));
+
+        assertThat(popularity.includes(first.getSequence()), equalTo(true));
+        assertThat(popularity.includes(second.getSequence()), equalTo(false));
+        assertThat(popularity.getRanks(), containsInAnyOrder(
+                new PopularityRank("Java", 1), new PopularityRank("Rust", 1)));
+    }
+
+    @Test
+    public void should_list_current_registrations_without_excluded_attendees() throws Exception {
+        storage.moveSeats("a", sessions("Java", "Kotlin"));
+        storage.moveSeats("a", sessions("Java", "Rust"));
+        storage.moveSeats("test", sessions("Rust", "Rust"));
+
+        List<RegistrationDto> all = storage.allRegistrations(List.of("test"));
+        List<RegistrationDto> streamed = new ArrayList<>();
+        storage.forEachRegistration(List.of("test"), streamed::add);
+
+        assertThat(all.stream().map(r -> r.getHash() + ":" + r.getTitle()).collect(Collectors.toList()),
+                containsInAnyOrder("a:Java", "a:Rust"));
+        assertThat(streamed, containsInAnyOrder(all.toArray()));
+        all.forEach(registration -> assertThat(registration.getDate(), notNullValue()));
+    }
+
+    @Test
+    public void should_give_freed_seat_to_first_attendee_waiting() {
+        storage.moveSeats("a", sessions("Java", "Kotlin"));
+
+        Moved waiting = storage.moveSeatsOrWait("b", sessions("Rust", "Kotlin"));
+        storage.moveSeatsOrWait("c", sessions("Java", "Kotlin"));
+
+        assertThat(waiting, equalTo(new Moved(Set.of(), true, List.of())));
+        assertThat(storage.previousSessions("b"), empty());
+        assertThat(storage.waitlist("b"), equalTo(List.of(new WaitlistEntry("Kotlin", false, 1))));
+        assertThat(storage.waitlist("c"), equalTo(List.of(new WaitlistEntry("Kotlin", false, 2))));
+
+        Moved moved = storage.moveSeats("a", sessions("Java", "Rust"));
+
+        assertThat(moved.getPromotions(), equalTo(List.of(new Promotion("b", Set.of(), Set.of("Rust", "Kotlin")))));
+        assertThat(storage.previousSessions("b"), containsInAnyOrder("Rust", "Kotlin"));
+        assertThat(storage.waitlist("b"), equalTo(List.of(new WaitlistEntry("Kotlin", true, 1))));
+        assertThat(storage.waitlist("c"), equalTo(List.of(new WaitlistEntry("Kotlin", false, 1))));
+        assertFull("d", "Rust", "Kotlin");
+    }
+
+    @Test
+    public void should_keep_place_on_waitlist_until_choices_change() {
+        storage.moveSeats("a", sessions("Java", "Kotlin"));
+        storage.moveSeatsOrWait("b", sessions("Java", "Kotlin"));
+        storage.moveSeatsOrWait("c", sessions("Rust", "Kotlin"));
+
+        storage.moveSeatsOrWait("b", sessions("Java", "Kotlin"));
+        assertThat(storage.waitlist("c"), equalTo(List.of(new WaitlistEntry("Kotlin", false, 2))));
+
+        assertThat(storage.moveSeatsOrWait("b", sessions("Java", "Rust")).isWaiting(), equalTo(false));
+        assertThat(storage.waitlist("b"), empty());
+        assertThat(storage.waitlist("c"), equalTo(List.of(new WaitlistEntry("Kotlin", false, 1))));
+    }
+
+    @Test
+    public void should_pass_on_seats_given_back_by_promoted_attendees() {
+        storage.moveSeats("a", sessions("Kotlin", "Rust"));
+        storage.moveSeats("b", sessions("Java", "Rust"));
+        storage.moveSeats("c", sessions("Java", "Rust"));
+        storage.moveSeatsOrWait("b", sessions("Kotlin", "Rust"));
+        storage.moveSeatsOrWait("d", sessions("Java", "Rust"));
+
+        Moved moved = storage.moveSeats("a", sessions("Rust", "Rust"));
+
+        assertThat(moved.getPromotions().stream().map(Promotion::getHash).collect(Collectors.toList()),
+                equalTo(List.of("b", "d")));
+        assertThat(storage.previousSessions("b"), containsInAnyOrder("Kotlin", "Rust"));
+        assertThat(storage.previousSessions("d"), containsInAnyOrder("Java", "Rust"));
+        assertFull("e", "Java", "Rust");
+    }
+
+    @Test
+    public void should_look_past_a_page_of_attendees_waiting_in_vain() {
+        storage.moveSeats("a", sessions("Java", "Kotlin"));
+        storage.moveSeats("b", sessions("Java", "Rust"));
+        for (int i = 0; i < SessionsDao.PROMOTION_BATCH + 5; i++) {
+            storage.moveSeatsOrWait("w" + i, sessions("Java", "Kotlin"));
+        }
+        storage.moveSeatsOrWait("z", sessions("Rust", "Kotlin"));
+
+        Moved moved = storage.moveSeats("a", sessions("Java", "Rust"));
+
+        assertThat(moved.getPromotions(), equalTo(List.of(new Promotion("z", Set.of(), Set.of("Rust", "Kotlin")))));
+        assertThat(storage.previousSessions("z"), containsInAnyOrder("Rust", "Kotlin"));
+    }
+
+    @Test
+    public void should_never_overbook_concurrent_registrations() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Boolean>> attendees = IntStream.range(0, 40)
+                    .mapToObj(i -> (Callable<Boolean>) () -> {
+                        try {
+                            storage.moveSeats("attendee" + i, sessions("Rust", "Rust"));
+                            return true;
+                        } catch (SeatsUnavailableException e) {
+                            return false;
+                        }
+                    })
+                    .collect(Collectors.toList());
+            int admitted = 0;
+            for (Future<Boolean> registered : executor.invokeAll(attendees)) {
+                admitted += registered.get() ? 1 : 0;
+            }
+            assertThat(admitted, equalTo(10));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    protected void assertFull(String hash, String... titles) {
+        try {
+            storage.moveSeats(hash, sessions(titles));
+            fail("One of " + List.of(titles) + " should be full");
+        } catch (SeatsUnavailableException expected) {
+        }
+    }
+
+    protected static List<SessionDto> sessions(String... titles) {
+        List<SessionDto> sessions = new ArrayList<>();
+        for (int i = 0; i < titles.length; i++) {
+            sessions.add(SessionDto.builder().sessionId(2 * (i + 1)).title(titles[i]).build());
+        }
+        return sessions;
+    }
+
+    private static SeatCounter counter(String title, int seats) {
+        return SeatCounter.builder().title(title).seats(seats).taken(0).build();
+    }
+}
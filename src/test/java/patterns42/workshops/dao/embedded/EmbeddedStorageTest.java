@@ -0,0 +1,64 @@
+package patterns42.workshops.dao.embedded;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import patterns42.workshops.dao.SessionsDao.WaitlistEntry;
+import patterns42.workshops.dao.Storage;
+import patterns42.workshops.dao.StorageContract;
+import patterns42.workshops.dao.UsersDao.User;
+import patterns42.workshops.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertThat;
+
+public class EmbeddedStorageTest extends StorageContract {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Override
+    protected Storage open() throws IOException {
+        return new EmbeddedStorage(EmbeddedStorage.Settings.builder()
+                .path(folder.getRoot().toPath().resolve("registrations.log"))
+                .build(), new Metrics());
+    }
+
+    @Test
+    public void should_restore_everything_from_the_log_when_reopened() throws IOException {
+        storage.importUsers(List.of(new User("Anna", "a"), new User("Bob", "b")).iterator());
+        storage.moveSeats("a", sessions("Java", "Kotlin"));
+        storage.moveSeats("a", sessions("Java", "Rust"));
+        storage.moveSeats("b", sessions("Java", "Kotlin"));
+        List<?> popularity = storage.sessionsPopularity(List.of());
+
+        storage.close();
+        storage = open();
+
+        assertThat(storage.latestUsers(), equalTo(List.of(new User("Anna", "a"), new User("Bob", "b"))));
+        assertThat(storage.previousSessions("a"), containsInAnyOrder("Java", "Rust"));
+        assertThat(storage.sessionsPopularity(List.of()), containsInAnyOrder(popularity.toArray()));
+        assertFull("c", "Java", "Rust");
+        assertFull("c", "Rust", "Kotlin");
+    }
+
+    @Test
+    public void should_restore_waitlist_from_the_log_when_reopened() throws IOException {
+        storage.moveSeats("a", sessions("Java", "Kotlin"));
+        storage.moveSeatsOrWait("b", sessions("Rust", "Kotlin"));
+        storage.moveSeatsOrWait("c", sessions("Java", "Kotlin"));
+        storage.moveSeats("a", sessions("Java", "Rust"));
+
+        storage.close();
+        storage = open();
+
+        assertThat(storage.previousSessions("b"), containsInAnyOrder("Rust", "Kotlin"));
+        assertThat(storage.waitlist("b"), equalTo(List.of(new WaitlistEntry("Kotlin", true, 1))));
+        assertThat(storage.waitlist("c"), equalTo(List.of(new WaitlistEntry("Kotlin", false, 1))));
+        assertFull("d", "Java", "Kotlin");
+    }
+}
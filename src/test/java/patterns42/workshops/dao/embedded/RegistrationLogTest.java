@@ -0,0 +1,74 @@
+package patterns42.workshops.dao.embedded;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import patterns42.workshops.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class RegistrationLogTest {
+
+    private static final RegistrationLog.Settings SMALL = RegistrationLog.Settings.builder().initialBytes(64).build();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void should_replay_records_in_order_after_growing() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("test.log");
+        List<String> written = IntStream.range(0, 100).mapToObj(i -> "record " + i).collect(Collectors.toList());
+        try (RegistrationLog log = new RegistrationLog(path, SMALL, record -> { }, new Metrics())) {
+            for (String record : written) {
+                log.sync(log.append(bytes(record)));
+            }
+        }
+
+        assertThat(replay(path), equalTo(written));
+    }
+
+    @Test
+    public void should_drop_torn_write_and_append_after_last_intact_record() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("test.log");
+        long end;
+        try (RegistrationLog log = new RegistrationLog(path, SMALL, record -> { }, new Metrics())) {
+            log.append(bytes("first"));
+            end = log.append(bytes("second"));
+            log.sync(end);
+        }
+        //crash halfway through the third record: length and part of the payload, checksum never written
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(12).putInt(20).putInt(0).put(bytes("thi")).put((byte) 1).flip();
+            file.write(torn, end);
+        }
+
+        try (RegistrationLog log = new RegistrationLog(path, SMALL, record -> { }, new Metrics())) {
+            log.sync(log.append(bytes("third")));
+        }
+
+        assertThat(replay(path), equalTo(List.of("first", "second", "third")));
+    }
+
+    private static List<String> replay(Path path) throws IOException {
+        List<String> records = new ArrayList<>();
+        new RegistrationLog(path, SMALL, record -> records.add(new String(record, StandardCharsets.UTF_8)),
+                new Metrics()).close();
+        return records;
+    }
+
+    private static byte[] bytes(String record) {
+        return record.getBytes(StandardCharsets.UTF_8);
+    }
+}
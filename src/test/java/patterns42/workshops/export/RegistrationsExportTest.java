@@ -0,0 +1,62 @@
+package patterns42.workshops.export;
+
+import org.junit.Test;
+import patterns42.workshops.dao.SessionsDao.RegistrationDto;
+import patterns42.workshops.export.RegistrationsExport.Format;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class RegistrationsExportTest {
+
+    private final List<RegistrationDto> rows = List.of(
+            new RegistrationDto("aaaa", "Jigsaw. Moduły w (nowej) Javie", LocalDateTime.of(2020, 3, 1, 10, 15, 30)),
+            new RegistrationDto("bbbb", "Title, with \"quotes\"", LocalDateTime.of(2020, 3, 2, 8, 0))
+    );
+
+    @Test
+    public void should_write_spreadsheet_formulas_like_before() throws IOException {
+        assertThat(export(Format.SPLIT), equalTo("" +
+                "\n=SPLIT(\"aaaa###Jigsaw. Moduły w (nowej) Javie###2020-03-01T10:15:30\"; \"###\"; TRUE; TRUE)" +
+                "\n=SPLIT(\"bbbb###Title, with \"quotes\"###2020-03-02T08:00:00\"; \"###\"; TRUE; TRUE)"));
+    }
+
+    @Test
+    public void should_quote_csv_fields() throws IOException {
+        assertThat(export(Format.CSV), equalTo("" +
+                "hash,title,insert_date\r\n" +
+                "aaaa,Jigsaw. Moduły w (nowej) Javie,2020-03-01T10:15:30\r\n" +
+                "bbbb,\"Title, with \"\"quotes\"\"\",2020-03-02T08:00:00\r\n"));
+    }
+
+    @Test
+    public void should_write_one_json_object_per_line() throws IOException {
+        assertThat(export(Format.NDJSON), equalTo("" +
+                "{\"hash\":\"aaaa\",\"title\":\"Jigsaw. Moduły w (nowej) Javie\",\"date\":\"2020-03-01T10:15:30\"}\n" +
+                "{\"hash\":\"bbbb\",\"title\":\"Title, with \\\"quotes\\\"\",\"date\":\"2020-03-02T08:00:00\"}\n"));
+    }
+
+    @Test
+    public void should_prefer_query_parameter_over_accept_header() {
+        assertThat(Format.negotiate("ndjson", "text/csv"), equalTo(Optional.of(Format.NDJSON)));
+        assertThat(Format.negotiate(null, "text/csv, */*"), equalTo(Optional.of(Format.CSV)));
+        assertThat(Format.negotiate(null, "*/*"), equalTo(Optional.of(Format.SPLIT)));
+        assertThat(Format.negotiate("xml", null), equalTo(Optional.empty()));
+    }
+
+    private String export(Format format) throws IOException {
+        StringWriter out = new StringWriter();
+        RegistrationsExport export = new RegistrationsExport(format, out);
+        for (RegistrationDto row : rows) {
+            export.write(row);
+        }
+        export.finish();
+        return out.toString();
+    }
+}
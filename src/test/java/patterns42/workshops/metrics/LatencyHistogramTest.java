@@ -0,0 +1,75 @@
+package patterns42.workshops.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void should_return_zero_when_empty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.valueAtPercentile(99), equalTo(0L));
+        assertThat(histogram.getCount(), equalTo(0L));
+    }
+
+    @Test
+    public void should_keep_small_values_exact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.recordMicros(i);
+        }
+
+        assertThat(histogram.valueAtPercentile(50), equalTo(5L));
+        assertThat(histogram.valueAtPercentile(100), equalTo(10L));
+        assertThat(histogram.getSumMicros(), equalTo(55L));
+    }
+
+    @Test
+    public void should_approximate_large_values_within_bucket_precision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i, TimeUnit.MILLISECONDS);
+        }
+
+        assertThat(histogram.valueAtPercentile(50), allOf(greaterThanOrEqualTo(500_000L), lessThanOrEqualTo(532_000L)));
+        assertThat(histogram.valueAtPercentile(99), allOf(greaterThanOrEqualTo(990_000L), lessThanOrEqualTo(1_053_000L)));
+        assertThat(histogram.countAtOrBelow(1_000_000), equalTo(1000L));
+    }
+
+    @Test
+    public void should_place_every_value_below_its_bucket_upper_bound() {
+        for (long value = 0; value < 1_000_000; value += 7) {
+            int index = LatencyHistogram.indexOf(value);
+            assertThat(LatencyHistogram.upperBoundOf(index), greaterThanOrEqualTo(value));
+            if (index > 0) {
+                assertThat(LatencyHistogram.upperBoundOf(index - 1), lessThanOrEqualTo(value - 1));
+            }
+        }
+    }
+
+    @Test
+    public void should_count_cumulatively_up_to_each_bound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordMicros(5);
+        histogram.recordMicros(500);
+        histogram.recordMicros(5_000);
+        histogram.recordMicros(50_000_000);
+
+        long[] counts = histogram.cumulativeCounts(new long[]{1, 10, 1_000, 10_000});
+
+        assertThat(counts.length, equalTo(5));
+        assertThat(counts[0], equalTo(0L));
+        assertThat(counts[1], equalTo(1L));
+        assertThat(counts[2], equalTo(2L));
+        assertThat(counts[3], equalTo(3L));
+        assertThat(counts[4], equalTo(4L));
+    }
+}
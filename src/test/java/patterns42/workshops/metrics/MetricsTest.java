@@ -0,0 +1,80 @@
+package patterns42.workshops.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MetricsTest {
+
+    private final Metrics metrics = new Metrics();
+
+    @Test
+    public void should_return_the_same_histogram_for_the_same_labels() {
+        LatencyHistogram first = metrics.histogram("latency_seconds", "Latency", "route", "/");
+
+        assertThat(metrics.histogram("latency_seconds", "Latency", "route", "/"), sameInstance(first));
+    }
+
+    @Test
+    public void should_render_histogram_buckets_in_seconds() {
+        LatencyHistogram histogram = metrics.histogram("latency_seconds", "Latency", "route", "/:hash");
+        histogram.recordMicros(300);
+        histogram.recordMicros(3_000);
+        histogram.recordMicros(20_000_000);
+
+        String text = metrics.toPrometheus();
+
+        assertThat(text, containsString("# TYPE latency_seconds histogram\n"));
+        assertThat(text, containsString("latency_seconds_bucket{route=\"/:hash\",le=\"5.0E-4\"} 1\n"));
+        assertThat(text, containsString("latency_seconds_bucket{route=\"/:hash\",le=\"0.005\"} 2\n"));
+        assertThat(text, containsString("latency_seconds_bucket{route=\"/:hash\",le=\"10.0\"} 2\n"));
+        assertThat(text, containsString("latency_seconds_bucket{route=\"/:hash\",le=\"+Inf\"} 3\n"));
+        assertThat(text, containsString("latency_seconds_sum{route=\"/:hash\"} 20.0033\n"));
+        assertThat(text, containsString("latency_seconds_count{route=\"/:hash\"} 3\n"));
+    }
+
+    @Test
+    public void should_render_summary_of_plain_values() {
+        ValueSummary summary = metrics.summary("batch_size", "Batch size", "writer", "group");
+        for (int size = 1; size <= 10; size++) {
+            summary.record(size);
+        }
+
+        String text = metrics.toPrometheus();
+
+        assertThat(text, containsString("# TYPE batch_size summary\n"));
+        assertThat(text, containsString("batch_size{writer=\"group\",quantile=\"0.5\"} 5\n"));
+        assertThat(text, containsString("batch_size{writer=\"group\",quantile=\"1.0\"} 10\n"));
+        assertThat(text, containsString("batch_size_sum{writer=\"group\"} 55\n"));
+        assertThat(text, containsString("batch_size_count{writer=\"group\"} 10\n"));
+    }
+
+    @Test
+    public void should_render_counters_and_gauges() {
+        LongAdder rejected = metrics.counter("rejected_total", "Rejected", "reason", "full");
+        rejected.add(2);
+        metrics.gauge("queued", "Queued", () -> 7);
+
+        String text = metrics.toPrometheus();
+
+        assertThat(text, containsString("# HELP rejected_total Rejected\n# TYPE rejected_total counter\n"
+                + "rejected_total{reason=\"full\"} 2\n"));
+        assertThat(text, containsString("# TYPE queued gauge\nqueued 7\n"));
+    }
+
+    @Test
+    public void should_escape_label_values() {
+        assertThat(Metrics.labels("title", "Say \"hi\"\\"), equalTo("{title=\"Say \\\"hi\\\"\\\\\"}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_name_registered_with_other_type() {
+        metrics.counter("requests", "Requests");
+        metrics.histogram("requests", "Requests");
+    }
+}
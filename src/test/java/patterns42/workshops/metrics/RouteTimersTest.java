@@ -0,0 +1,41 @@
+package patterns42.workshops.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class RouteTimersTest {
+
+    private final Metrics metrics = new Metrics();
+    private final RouteTimers routes = new RouteTimers(metrics);
+
+    @Test
+    public void should_record_per_method_and_route() {
+        routes.register("GET", "/:hash");
+        routes.register("POST", "/:hash");
+
+        routes.record("GET", "/:hash", 100);
+        routes.record("GET", "/:hash", 200);
+        routes.record("POST", "/:hash", 300);
+
+        assertThat(metrics.histogram("workshops_http_request_duration_seconds", "",
+                "method", "GET", "route", "/:hash").getCount(), equalTo(2L));
+        assertThat(metrics.histogram("workshops_http_request_duration_seconds", "",
+                "method", "POST", "route", "/:hash").getCount(), equalTo(1L));
+    }
+
+    @Test
+    public void should_ignore_unregistered_routes() {
+        routes.register("GET", "/");
+
+        routes.record("GET", "/wp-login.php", 100);
+        routes.record("DELETE", "/", 100);
+        routes.record("GET", null, 100);
+
+        assertThat(metrics.toPrometheus(), not(containsString("wp-login")));
+        assertThat(metrics.toPrometheus(), containsString("method=\"GET\",route=\"/\"} 0"));
+    }
+}
@@ -0,0 +1,114 @@
+package patterns42.workshops.pages;
+
+import org.junit.Test;
+import patterns42.workshops.agenda.model.ScheduleDay;
+import patterns42.workshops.agenda.model.Session;
+import patterns42.workshops.agenda.model.Speaker;
+import patterns42.workshops.dao.SessionsDao.WaitlistEntry;
+import patterns42.workshops.dao.UsersDao.User;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class IndexPageTest {
+
+    private final Session eventStorming = workshop("Event Storming", 2);
+    private final ScheduleDay day = new ScheduleDay(new LinkedHashMap<>(Map.of(
+            "9:00", List.of(workshop("Jigsaw. Moduły w (nowej) Javie", 16), eventStorming),
+            "11:00", List.of(Session.builder().title("Lunch").type(Session.SessionType.SERVICE).build()),
+            "13:00", List.of(workshop("Java, microbenchmarki i kłamstwa", 1), eventStorming)
+    )));
+    private final IndexPage page = new IndexPage(List.of(day));
+
+    @Test
+    public void should_render_same_bytes_as_template() {
+        User user = new User("Zoë <b>&</b>", "abcd");
+        Set<String> previous = Set.of("Event Storming");
+        ToIntFunction<String> taken = title -> title.length() % 3;
+
+        assertRendersLikeTemplate(user, false, previous, taken);
+    }
+
+    @Test
+    public void should_render_same_bytes_as_template_for_test_user_and_full_workshops() {
+        User user = new User("Testowy Użyszkodnik", "test-hash-123");
+        ToIntFunction<String> taken = title -> 16;
+
+        assertRendersLikeTemplate(user, true, Set.of(), taken);
+        assertThat(new String(page.render(user, true, Set.of(), List.of(), taken), StandardCharsets.UTF_8), containsString(" readonly "));
+    }
+
+    @Test
+    public void should_not_leak_values_between_attendees() {
+        page.render(new User("Anna", "aaaa"), true, Set.of("Event Storming"), List.of(new WaitlistEntry("Jigsaw", false, 1)),
+                title -> 1);
+
+        String html = new String(page.render(new User("Bob", "bbbb"), false, Set.of(), List.of(), title -> 0), StandardCharsets.UTF_8);
+
+        assertThat(html, not(containsString("Anna")));
+        assertThat(html, not(containsString(" checked ")));
+        assertThat(html, not(containsString("thistle")));
+        assertThat(html, not(containsString("Czekasz")));
+    }
+
+    @Test
+    public void should_show_place_on_waitlist_and_promotions() {
+        User user = new User("Anna", "aaaa");
+        List<WaitlistEntry> waitlist = List.of(
+                new WaitlistEntry("Java, microbenchmarki i kłamstwa", false, 3), new WaitlistEntry("Event Storming", true, 1));
+
+        String html = new String(page.render(user, false, Set.of(), waitlist, title -> 1), StandardCharsets.UTF_8);
+
+        assertThat(html, containsString("Czekasz na miejsce: Java, microbenchmarki i kłamstwa (3. w kolejce)."));
+        assertThat(html, containsString("zapisaliśmy Cię z listy oczekujących na: Event Storming."));
+        assertRendersLikeTemplate(page, user, false, Set.of(), waitlist, title -> 1);
+    }
+
+    @Test
+    public void should_number_timeslots_across_days() {
+        ScheduleDay nextDay = new ScheduleDay(new LinkedHashMap<>(Map.of(
+                "10:00", List.of(workshop("Kotlin", 8)))));
+        IndexPage twoDays = new IndexPage(List.of(day, nextDay));
+
+        String html = new String(twoDays.render(new User("Anna", "aaaa"), false, Set.of(), List.of(), title -> 0), StandardCharsets.UTF_8);
+
+        assertThat(html, containsString("name=\"session-4\"\n                                                       value=\"Kotlin\""));
+        assertRendersLikeTemplate(twoDays, new User("Anna", "aaaa"), false, Set.of("Kotlin"), title -> 0);
+    }
+
+    private void assertRendersLikeTemplate(User user, boolean test, Set<String> previous, ToIntFunction<String> taken) {
+        assertRendersLikeTemplate(page, user, test, previous, taken);
+    }
+
+    private static void assertRendersLikeTemplate(IndexPage page, User user, boolean test, Set<String> previous,
+                                                  ToIntFunction<String> taken) {
+        assertRendersLikeTemplate(page, user, test, previous, List.of(), taken);
+    }
+
+    private static void assertRendersLikeTemplate(IndexPage page, User user, boolean test, Set<String> previous,
+                                                  List<WaitlistEntry> waitlist, ToIntFunction<String> taken) {
+        String expected = page.renderTemplate(user, test, previous, waitlist, taken);
+
+        assertThat(new String(page.render(user, test, previous, waitlist, taken), StandardCharsets.UTF_8), equalTo(expected));
+    }
+
+    private static Session workshop(String title, int seats) {
+        Speaker speaker = new Speaker();
+        speaker.setName("Speaker of " + title);
+        return Session.builder()
+                .title(title)
+                .seats(seats)
+                .speakers(List.of(speaker))
+                .type(Session.SessionType.WORKSHOP)
+                .build();
+    }
+}
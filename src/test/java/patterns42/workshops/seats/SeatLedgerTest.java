@@ -0,0 +1,160 @@
+package patterns42.workshops.seats;
+
+import org.junit.Before;
+import org.junit.Test;
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.agenda.model.ScheduleDay;
+import patterns42.workshops.agenda.model.Session;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SeatLedgerTest {
+
+    private SeatLedger ledger;
+
+    @Before
+    public void setup() {
+        Session ddd = workshop("DDD", 2);
+        Session jmh = workshop("JMH", 1);
+        Session allDay = workshop("All day", 3);
+        Schedule schedule = new Schedule(new ScheduleDay[]{
+                new ScheduleDay(Map.of("9:00", List.of(ddd, allDay), "13:00", List.of(jmh, allDay)))
+        });
+        ledger = new SeatLedger(schedule);
+    }
+
+    @Test
+    public void should_reserve_until_full() {
+        assertThat(ledger.move("a", Set.of("JMH")).isPresent(), is(true));
+        assertThat(ledger.move("b", Set.of("JMH")).isPresent(), is(false));
+        assertThat(ledger.taken("JMH"), equalTo(1));
+    }
+
+    @Test
+    public void should_move_seat_to_another_workshop() {
+        ledger.move("a", Set.of("DDD", "JMH"));
+
+        Optional<Set<String>> previous = ledger.move("a", Set.of("All day"));
+
+        assertThat(previous, equalTo(Optional.of(Set.of("DDD", "JMH"))));
+        assertThat(ledger.taken("DDD"), equalTo(0));
+        assertThat(ledger.taken("JMH"), equalTo(0));
+        assertThat(ledger.taken("All day"), equalTo(1));
+    }
+
+    @Test
+    public void should_keep_previous_seats_when_any_workshop_is_full() {
+        ledger.move("a", Set.of("JMH"));
+        ledger.move("b", Set.of("DDD"));
+
+        assertThat(ledger.move("b", Set.of("All day", "JMH")).isPresent(), is(false));
+        assertThat(ledger.taken("DDD"), equalTo(1));
+        assertThat(ledger.taken("All day"), equalTo(0));
+    }
+
+    @Test
+    public void should_not_count_resubmitted_choice_twice() {
+        ledger.move("a", Set.of("JMH"));
+
+        assertThat(ledger.move("a", Set.of("JMH")).isPresent(), is(true));
+        assertThat(ledger.taken("JMH"), equalTo(1));
+    }
+
+    @Test
+    public void should_restore_without_checking_limits() {
+        ledger.restore(Map.of("a", List.of("JMH"), "b", List.of("JMH", "Removed from agenda")));
+
+        assertThat(ledger.taken("JMH"), equalTo(2));
+        assertThat(ledger.hasRoom(Set.of("JMH")), is(false));
+        assertThat(ledger.move("b", Set.of("DDD")).isPresent(), is(true));
+        assertThat(ledger.taken("JMH"), equalTo(1));
+    }
+
+    @Test
+    public void should_give_back_previous_seats_even_when_taken_meanwhile() {
+        ledger.move("a", Set.of("JMH"));
+        ledger.move("a", Set.of("DDD"));
+        ledger.move("b", Set.of("JMH"));
+
+        ledger.revert("a", Set.of("JMH"));
+
+        assertThat(ledger.taken("DDD"), equalTo(0));
+        assertThat(ledger.taken("JMH"), equalTo(2));
+        assertThat(ledger.move("a", Set.of("JMH")), equalTo(Optional.of(Set.of("JMH"))));
+    }
+
+    @Test
+    public void should_never_overbook_under_contention() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger accepted = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            String hash = "hash-" + i;
+            executor.submit(() -> {
+                start.await();
+                ledger.move(hash, Set.of("All day")).ifPresent(p -> accepted.incrementAndGet());
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertThat(accepted.get(), equalTo(3));
+        assertThat(ledger.taken("All day"), equalTo(3));
+    }
+
+    @Test
+    public void should_keep_taken_seats_when_schedule_changes() {
+        ledger.move("a", Set.of("JMH"));
+        ledger.move("b", Set.of("DDD"));
+
+        ledger.resize(new Schedule(new ScheduleDay[]{
+                new ScheduleDay(Map.of("9:00", List.of(workshop("DDD", 1), workshop("Jigsaw", 5))))
+        }));
+
+        assertThat(ledger.taken("DDD"), equalTo(1));
+        assertThat(ledger.hasRoom(Set.of("DDD")), is(false));
+        assertThat(ledger.contains("JMH"), is(false));
+        assertThat(ledger.move("a", Set.of("Jigsaw")).isPresent(), is(true));
+        assertThat(ledger.taken("Jigsaw"), equalTo(1));
+    }
+
+    @Test
+    public void should_count_holders_of_workshop_that_returns_to_schedule() {
+        ledger.move("a", Set.of("JMH"));
+        Schedule original = new Schedule(new ScheduleDay[]{
+                new ScheduleDay(Map.of("9:00", List.of(workshop("DDD", 2)), "13:00", List.of(workshop("JMH", 1))))
+        });
+
+        ledger.resize(new Schedule(new ScheduleDay[]{
+                new ScheduleDay(Map.of("9:00", List.of(workshop("DDD", 2))))
+        }));
+        ledger.resize(original);
+
+        assertThat(ledger.taken("JMH"), equalTo(1));
+        assertThat(ledger.move("b", Set.of("JMH")).isPresent(), is(false));
+        assertThat(ledger.move("a", Set.of("DDD")).isPresent(), is(true));
+        assertThat(ledger.taken("JMH"), equalTo(0));
+    }
+
+    private static Session workshop(String title, int seats) {
+        return Session.builder()
+                .title(title)
+                .seats(seats)
+                .type(Session.SessionType.WORKSHOP)
+                .build();
+    }
+}
@@ -0,0 +1,130 @@
+package patterns42.workshops.stats;
+
+import org.junit.Test;
+import patterns42.workshops.dao.SessionsDao.Popularity;
+import patterns42.workshops.dao.SessionsDao.PopularityRank;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class PopularityViewTest {
+
+    private final AtomicReference<List<PopularityRank>> database = new AtomicReference<>(List.of(
+            new PopularityRank("DDD", 3),
+            new PopularityRank("JMH", 1)
+    ));
+    private final PopularityView view = new PopularityView(() -> Popularity.unnumbered(database.get()));
+
+    @Test
+    public void should_serialize_counts_ordered_by_popularity() {
+        view.reload();
+
+        String json = new String(view.snapshot().getJson(), StandardCharsets.UTF_8);
+
+        assertThat(json, equalTo("[{\"title\":\"DDD\",\"count\":3},{\"title\":\"JMH\",\"count\":1}]"));
+    }
+
+    @Test
+    public void should_apply_registration_delta() {
+        view.reload();
+
+        view.apply(Set.of("DDD"), Set.of("JMH", "Jigsaw"), 0);
+
+        assertThat(view.count("DDD"), equalTo(2));
+        assertThat(view.count("JMH"), equalTo(2));
+        assertThat(view.count("Jigsaw"), equalTo(1));
+    }
+
+    @Test
+    public void should_reuse_snapshot_until_counts_change() {
+        view.reload();
+        PopularityView.Snapshot first = view.snapshot();
+
+        assertThat(view.snapshot(), sameInstance(first));
+
+        view.apply(Set.of(), Set.of("JMH"), 0);
+        PopularityView.Snapshot second = view.snapshot();
+
+        assertThat(second.getVersion(), not(equalTo(first.getVersion())));
+        assertThat(second.getEtag(), not(equalTo(first.getEtag())));
+    }
+
+    @Test
+    public void should_keep_version_when_reconciled_counts_are_equal() {
+        view.reload();
+        view.apply(Set.of(), Set.of("JMH"), 0);
+        long version = view.version();
+
+        database.set(List.of(new PopularityRank("DDD", 3), new PopularityRank("JMH", 2)));
+        view.reload();
+
+        assertThat(view.version(), equalTo(version));
+    }
+
+    @Test
+    public void should_keep_delta_applied_while_reloading() {
+        AtomicReference<PopularityView> reloading = new AtomicReference<>();
+        PopularityView racing = new PopularityView(() -> {
+            //registered after the database was read, applied before the reloaded counts are swapped in
+            List<PopularityRank> read = database.get();
+            reloading.get().apply(Set.of("DDD"), Set.of("JMH"), 0);
+            return Popularity.unnumbered(read);
+        });
+        reloading.set(racing);
+
+        racing.reload();
+
+        assertThat(racing.count("DDD"), equalTo(2));
+        assertThat(racing.count("JMH"), equalTo(2));
+    }
+
+    @Test
+    public void should_not_replay_delta_the_reload_already_read() {
+        AtomicReference<PopularityView> reloading = new AtomicReference<>();
+        PopularityView racing = new PopularityView(() -> {
+            //registered before the database was read, applied while reloading
+            reloading.get().apply(Set.of("DDD"), Set.of("JMH"), 7);
+            reloading.get().apply(Set.of("DDD"), Set.of("Jigsaw"), 6);
+            return new Popularity(List.of(new PopularityRank("DDD", 1), new PopularityRank("JMH", 2),
+                    new PopularityRank("Jigsaw", 1)), 7, Set.of());
+        });
+        reloading.set(racing);
+
+        racing.reload();
+
+        assertThat(racing.count("DDD"), equalTo(1));
+        assertThat(racing.count("JMH"), equalTo(2));
+        assertThat(racing.count("Jigsaw"), equalTo(1));
+    }
+
+    @Test
+    public void should_apply_only_changes_the_reload_did_not_read() {
+        PopularityView numbered = new PopularityView(() -> new Popularity(database.get(), 7, Set.of(5L)));
+        numbered.reload();
+
+        numbered.apply(Set.of(), Set.of("JMH"), 4);
+        numbered.apply(Set.of(), Set.of("JMH"), 5);
+        numbered.apply(Set.of(), Set.of("JMH"), 7);
+        numbered.apply(Set.of(), Set.of("JMH"), 8);
+
+        assertThat(numbered.count("JMH"), equalTo(3));
+    }
+
+    @Test
+    public void should_derive_etag_from_content() {
+        PopularityView other = new PopularityView(() -> Popularity.unnumbered(database.get()));
+        view.reload();
+        other.reload();
+        other.apply(Set.of(), Set.of("JMH"), 0);
+        other.apply(Set.of("JMH"), Set.of(), 0);
+
+        assertThat(other.snapshot().getEtag(), equalTo(view.snapshot().getEtag()));
+    }
+}
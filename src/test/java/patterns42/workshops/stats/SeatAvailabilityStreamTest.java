@@ -0,0 +1,127 @@
+package patterns42.workshops.stats;
+
+import org.junit.Before;
+import org.junit.Test;
+import patterns42.workshops.agenda.model.Schedule;
+import patterns42.workshops.agenda.model.ScheduleDay;
+import patterns42.workshops.agenda.model.Session;
+import patterns42.workshops.dao.SessionsDao.Popularity;
+import patterns42.workshops.dao.SessionsDao.PopularityRank;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class SeatAvailabilityStreamTest {
+
+    private final PopularityView view = new PopularityView(
+            () -> Popularity.unnumbered(List.of(new PopularityRank("DDD", 1))));
+    private SeatAvailabilityStream stream;
+
+    @Before
+    public void setup() {
+        Schedule schedule = new Schedule(new ScheduleDay[]{
+                new ScheduleDay(Map.of("9:00", List.of(workshop("DDD", 2), workshop("JMH", 1))))
+        });
+        view.reload();
+        stream = new SeatAvailabilityStream(view, schedule);
+        stream.delta();
+    }
+
+    @Test
+    public void should_coalesce_changes_into_one_frame_with_changed_workshops_only() {
+        view.apply(Set.of(), Set.of("JMH"), 0);
+        view.apply(Set.of("JMH"), Set.of(), 0);
+        view.apply(Set.of(), Set.of("DDD"), 0);
+
+        assertThat(stream.delta(), equalTo("{\"version\":" + view.version() + ",\"seats\":{\"DDD\":[2,2]}}"));
+    }
+
+    @Test
+    public void should_skip_frame_when_nothing_changed() {
+        assertThat(stream.delta(), nullValue());
+
+        view.apply(Set.of(), Set.of("JMH"), 0);
+        view.apply(Set.of("JMH"), Set.of(), 0);
+
+        assertThat(stream.delta(), nullValue());
+    }
+
+    @Test
+    public void should_write_frames_once_client_catches_up() {
+        FakeConnection connection = new FakeConnection();
+        SeatAvailabilityStream.Subscriber client = stream.subscribe(connection);
+
+        stream.tick(Duration.ofMinutes(1));
+        connection.ready = false;
+        view.apply(Set.of(), Set.of("JMH"), 0);
+        stream.tick(Duration.ofMinutes(1));
+        stream.tick(Duration.ZERO);
+        assertThat(connection.written, equalTo(List.of("seats", "flush")));
+
+        connection.ready = true;
+        client.pump();
+
+        assertThat(connection.written, equalTo(List.of("seats", "flush", "seats", "ping", "flush")));
+    }
+
+    @Test
+    public void should_drop_only_client_that_falls_behind() {
+        FakeConnection stalled = new FakeConnection();
+        FakeConnection reading = new FakeConnection();
+        SeatAvailabilityStream.Subscriber slow = stream.subscribe(stalled);
+        stream.subscribe(reading);
+        stalled.ready = false;
+
+        for (int i = 0; i <= SeatAvailabilityStream.MAX_QUEUED; i++) {
+            stream.tick(Duration.ZERO);
+        }
+
+        assertThat(slow.isClosed(), equalTo(true));
+        assertThat(stalled.closed, equalTo(true));
+        assertThat(reading.closed, equalTo(false));
+        assertThat(stream.connected(), equalTo(1));
+    }
+
+    private static class FakeConnection implements SeatAvailabilityStream.Connection {
+        final List<String> written = new ArrayList<>();
+        boolean ready = true;
+        boolean closed;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void write(byte[] frame) {
+            String event = new String(frame, StandardCharsets.UTF_8);
+            written.add(event.substring("event: ".length(), event.indexOf('\n')));
+        }
+
+        @Override
+        public void flush() {
+            written.add("flush");
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static Session workshop(String title, int seats) {
+        return Session.builder()
+                .title(title)
+                .seats(seats)
+                .type(Session.SessionType.WORKSHOP)
+                .build();
+    }
+}